@@ -0,0 +1,105 @@
+package io.advantageous.discovery.impl;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consul catalog lookups against an embedded Vert.x HTTP server serving a canned catalog of {@code instances}
+ * instances, every fourth of them tagged {@code canary}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsulLookupBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Param({"10", "1000", "10000"})
+    public int instances;
+
+    private Vertx vertx;
+    private HttpServer server;
+    private DiscoveryServiceImpl discoveryService;
+
+    @Setup
+    public void setup() throws Exception {
+        final Buffer catalog = Buffer.buffer(catalog(instances));
+        final int port = freePort();
+        vertx = Vertx.vertx();
+        final CompletableFuture<Void> listening = new CompletableFuture<>();
+        server = vertx.createHttpServer()
+                .requestHandler(request -> request.response()
+                        .putHeader("Content-Type", "application/json")
+                        .putHeader("X-Consul-Index", "1")
+                        .end(catalog))
+                .listen(port, "127.0.0.1", result -> {
+                    if (result.succeeded()) listening.complete(null);
+                    else listening.completeExceptionally(result.cause());
+                });
+        listening.get(10, TimeUnit.SECONDS);
+        discoveryService = new DiscoveryServiceImpl(vertx, URI.create("consul:http://127.0.0.1:" + port));
+    }
+
+    @TearDown
+    public void tearDown() {
+        discoveryService.close();
+        server.close();
+        vertx.close();
+    }
+
+    @Benchmark
+    public List<URI> lookupAll() {
+        return discoveryService.lookupService("discovery:consul:///web").blockingGet(TIMEOUT);
+    }
+
+    @Benchmark
+    public List<URI> lookupTagged() {
+        return discoveryService.lookupService("discovery:consul:///web?tag=canary").blockingGet(TIMEOUT);
+    }
+
+    private static String catalog(final int instances) {
+        final StringBuilder json = new StringBuilder(instances * 300).append('[');
+        for (int i = 0; i < instances; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"Node\":\"node").append(i)
+                    .append("\",\"Address\":\"10.0.").append(i / 256 % 256).append('.').append(i % 256)
+                    .append("\",\"ServiceID\":\"web-").append(i)
+                    .append("\",\"ServiceName\":\"web\",\"ServiceTags\":[\"web\",\"")
+                    .append(i % 4 == 0 ? "canary" : "stable")
+                    .append("\"],\"ServiceAddress\":\"\",\"ServicePort\":").append(8080 + i % 1000)
+                    .append(",\"ServiceEnableTagOverride\":false,\"CreateIndex\":").append(i)
+                    .append(",\"ModifyIndex\":").append(i).append('}');
+        }
+        return json.append(']').toString();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
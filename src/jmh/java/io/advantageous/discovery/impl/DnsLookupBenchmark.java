@@ -0,0 +1,81 @@
+package io.advantageous.discovery.impl;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DNS SRV lookups against an in-process stub name server.  The stub answers with a TTL of zero so every uncached
+ * lookup is a round trip over the loopback interface.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnsLookupBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String NAME = "web.service.consul";
+    private static final String QUERY = "discovery:dns:SRV:///" + NAME;
+
+    @Param({"1", "16"})
+    public int records;
+
+    private DnsStubServer stub;
+    private File resolvConf;
+    private DiscoveryServiceImpl uncached;
+    private DiscoveryServiceImpl cached;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = new DnsStubServer().ttl(0);
+        for (int i = 0; i < records; i++) {
+            stub.addSrv(NAME, 1, 1, 8080 + i, "node" + i + ".node.consul");
+        }
+        resolvConf = File.createTempFile("resolv", ".conf");
+        Files.write(resolvConf.toPath(), Collections.singletonList("nameserver 127.0.0.1:" + stub.uri().getPort()),
+                StandardCharsets.UTF_8);
+        final String config = "dns://CONFIG?resolvConf=" + resolvConf.getAbsolutePath();
+        uncached = new DiscoveryServiceImpl(URI.create(config));
+        cached = new DiscoveryServiceImpl(URI.create(config), URI.create("cache:///?ttl=60000"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        uncached.close();
+        cached.close();
+        stub.close();
+        Files.deleteIfExists(resolvConf.toPath());
+    }
+
+    @Benchmark
+    public List<URI> lookupSrv() {
+        return uncached.lookupService(QUERY).blockingGet(TIMEOUT);
+    }
+
+    @Benchmark
+    public List<URI> lookupSrvCached() {
+        return cached.lookupService(QUERY).blockingGet(TIMEOUT);
+    }
+}
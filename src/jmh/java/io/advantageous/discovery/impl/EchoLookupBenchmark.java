@@ -0,0 +1,58 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a lookup that never leaves the process: query parsing, routing and the promise plumbing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EchoLookupBenchmark {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String QUERY = "discovery:echo:http://foo.com:9090";
+
+    private DiscoveryServiceImpl discoveryService;
+    private DiscoveryQuery compiled;
+
+    @Setup
+    public void setup() {
+        discoveryService = new DiscoveryServiceImpl();
+        compiled = DiscoveryQuery.compile(QUERY);
+    }
+
+    @TearDown
+    public void tearDown() {
+        discoveryService.close();
+    }
+
+    @Benchmark
+    public List<URI> lookupString() {
+        return discoveryService.lookupService(QUERY).blockingGet(TIMEOUT);
+    }
+
+    @Benchmark
+    public List<URI> lookupCompiled() {
+        return discoveryService.lookupService(compiled).blockingGet(TIMEOUT);
+    }
+}
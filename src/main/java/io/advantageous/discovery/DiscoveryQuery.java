@@ -0,0 +1,152 @@
+package io.advantageous.discovery;
+
+import io.advantageous.discovery.utils.UriUtils;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Objects;
+
+import static io.advantageous.discovery.DiscoveryService.QUERY_SCHEME;
+
+/**
+ * A discovery query that has been parsed and validated once, so it can be looked up any number of times without
+ * parsing it again.  Compile the queries used on a hot path once and keep them, e.g. in a static field.
+ * <pre>
+ * private static final DiscoveryQuery ADS = DiscoveryQuery.compile("discovery:consul:///ads?health=passing");
+ * ...
+ * discoveryService.lookupService(ADS)
+ * </pre>
+ * A {@code timeout} parameter, e.g. {@code discovery:consul:///ads?timeout=250}, sets the time budget of the query in
+ * milliseconds.  It is not passed on to the discovery service as part of the query and is not part of the cache key.
+ */
+public final class DiscoveryQuery {
+
+    /**
+     * The query parameter that sets the time budget of a query in milliseconds.
+     */
+    public static final String TIMEOUT_KEY = "timeout";
+
+    private final URI uri;
+    private final URI providerQuery;
+    private final String scheme;
+    private final String key;
+    private final long timeoutMs;
+
+    private DiscoveryQuery(final URI uri, final URI providerQuery, final String key, final long timeoutMs) {
+        this.uri = uri;
+        this.providerQuery = providerQuery;
+        this.scheme = providerQuery.getScheme();
+        this.key = key;
+        this.timeoutMs = timeoutMs;
+    }
+
+    /**
+     * Compile a query such as {@code discovery:dns:SRV:///ads.service.consul}.
+     *
+     * @param query the query
+     * @return the compiled query
+     * @throws IllegalArgumentException if the query is not a valid discovery query
+     */
+    public static DiscoveryQuery compile(final String query) {
+        Objects.requireNonNull(query, "query must not be null");
+        return compile(URI.create(query));
+    }
+
+    /**
+     * Compile a query such as {@code discovery:dns:SRV:///ads.service.consul}.
+     *
+     * @param query the query
+     * @return the compiled query
+     * @throws IllegalArgumentException if the query is not a valid discovery query
+     */
+    public static DiscoveryQuery compile(final URI query) {
+        Objects.requireNonNull(query, "query must not be null");
+        if (!QUERY_SCHEME.equals(query.getScheme())) {
+            throw new IllegalArgumentException("discovery uris must begin with \"" + QUERY_SCHEME + ":\"");
+        }
+        final URI providerQuery = URI.create(query.getSchemeSpecificPart());
+        if (providerQuery.getScheme() == null) {
+            throw new IllegalArgumentException("discovery uri has no discovery scheme: " + query);
+        }
+        final String timeout = UriUtils.queryParameter(providerQuery, TIMEOUT_KEY);
+        if (timeout == null) {
+            return new DiscoveryQuery(query, providerQuery, query.normalize().toString(), 0);
+        }
+        final long timeoutMs;
+        try {
+            timeoutMs = Long.parseLong(timeout);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException("timeout must be a number of milliseconds: " + query, e);
+        }
+        if (timeoutMs <= 0) throw new IllegalArgumentException("timeout must be positive: " + query);
+        final URI stripped = UriUtils.removeQueryParameter(providerQuery, TIMEOUT_KEY);
+        return new DiscoveryQuery(query, stripped, URI.create(QUERY_SCHEME + ":" + stripped).normalize().toString(),
+                timeoutMs);
+    }
+
+    /**
+     * The same query with a time budget.  Once the budget is spent the lookup is rejected with a
+     * {@link java.util.concurrent.TimeoutException}, and the discovery service stops waiting on the backend requests
+     * it made for it.
+     *
+     * @param timeout the time budget of each lookup of the query
+     * @return the query with the budget, which has the same cache key
+     */
+    public DiscoveryQuery withTimeout(final Duration timeout) {
+        Objects.requireNonNull(timeout, "timeout must not be null");
+        final long millis = timeout.toMillis();
+        if (millis <= 0) throw new IllegalArgumentException("timeout must be positive");
+        return new DiscoveryQuery(uri, providerQuery, key, millis);
+    }
+
+    /**
+     * @return the query as given, e.g. {@code discovery:consul:///ads}
+     */
+    public URI uri() {
+        return uri;
+    }
+
+    /**
+     * @return the query handed to the discovery service for the scheme, e.g. {@code consul:///ads}, without the
+     * {@code timeout} parameter
+     */
+    public URI providerQuery() {
+        return providerQuery;
+    }
+
+    /**
+     * @return the scheme that routes the query to a discovery service, e.g. {@code consul}
+     */
+    public String scheme() {
+        return scheme;
+    }
+
+    /**
+     * @return the time budget of the query in milliseconds, or 0 if the discovery service default applies
+     */
+    public long timeoutMs() {
+        return timeoutMs;
+    }
+
+    /**
+     * @return the normalized form of the query, used to cache its results
+     */
+    public String key() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        return this == o || o instanceof DiscoveryQuery && key.equals(((DiscoveryQuery) o).key);
+    }
+
+    @Override
+    public int hashCode() {
+        return key.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return uri.toString();
+    }
+}
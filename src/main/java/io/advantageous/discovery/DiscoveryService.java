@@ -1,20 +1,34 @@
 package io.advantageous.discovery;
 
 import io.advantageous.discovery.impl.DiscoveryServiceImpl;
+import io.advantageous.discovery.impl.ExecutorDiscoveryService;
+import io.advantageous.discovery.spi.DiscoveryMetrics;
+import io.advantageous.discovery.utils.Lookups;
 import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Vertx;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
 
 /**
  * Look up a service with a discovery URI.
  *
  * @author Geoff Chandler.
  */
-public interface DiscoveryService {
+public interface DiscoveryService extends AutoCloseable {
 
     String QUERY_SCHEME = "discovery";
     String RESULT_SCHEME = "service";
+    Duration DEFAULT_POLL_INTERVAL = Duration.ofSeconds(30);
 
     static DiscoveryService create(final URI... endpointConfigurations) {
         if (endpointConfigurations.length == 0) {
@@ -32,9 +46,201 @@ public interface DiscoveryService {
         }
     }
 
+    /**
+     * Create a discovery service whose providers all share the given Vert.x instance.  Closing the discovery
+     * service does not close the Vert.x instance.
+     *
+     * @param vertx                  the shared Vert.x instance
+     * @param endpointConfigurations URIs that configure the discovery service providers
+     * @return the discovery service
+     */
+    static DiscoveryService create(final Vertx vertx, final URI... endpointConfigurations) {
+        if (endpointConfigurations.length == 0) {
+            return new DiscoveryServiceImpl(vertx, URI.create("dns://CONFIG"));
+        } else {
+            return new DiscoveryServiceImpl(vertx, endpointConfigurations);
+        }
+    }
+
+    static DiscoveryService create(final Vertx vertx, final List<URI> endpointConfigurations) {
+        return create(vertx, endpointConfigurations.toArray(new URI[endpointConfigurations.size()]));
+    }
+
+    /**
+     * Create a discovery service that records its metrics with your own {@link DiscoveryMetrics} instead of a
+     * {@code metrics:} configuration URI.  Closing the discovery service closes neither the Vert.x instance nor the
+     * metrics.
+     *
+     * @param vertx                  the shared Vert.x instance
+     * @param metrics                records the lookups of the discovery service and of its providers
+     * @param endpointConfigurations URIs that configure the discovery service providers
+     * @return the discovery service
+     */
+    static DiscoveryService create(final Vertx vertx, final DiscoveryMetrics metrics,
+                                   final URI... endpointConfigurations) {
+        if (endpointConfigurations.length == 0) {
+            return new DiscoveryServiceImpl(vertx, metrics, URI.create("dns://CONFIG"));
+        } else {
+            return new DiscoveryServiceImpl(vertx, metrics, endpointConfigurations);
+        }
+    }
+
     default Promise<List<URI>> lookupService(String query) {
         return lookupService(URI.create(query));
     }
 
     Promise<List<URI>> lookupService(URI query);
+
+    /**
+     * Look up a compiled query.  Discovery services that route queries override this to skip parsing the query.
+     *
+     * @param query the compiled query
+     * @return a Promise for the URIs that match your query
+     */
+    default Promise<List<URI>> lookupService(DiscoveryQuery query) {
+        return lookupService(query.uri());
+    }
+
+    default Promise<List<ServiceEndpoint>> lookupEndpoints(String query) {
+        return lookupEndpoints(URI.create(query));
+    }
+
+    /**
+     * Look up a service as typed endpoints instead of URIs.  Providers that build endpoints directly avoid creating
+     * the URIs at all; by default the results of {@link #lookupService(URI)} are converted.
+     *
+     * @param query the URI that defines your query
+     * @return a Promise for the endpoints that match your query
+     */
+    default Promise<List<ServiceEndpoint>> lookupEndpoints(URI query) {
+        return invokablePromise(promise -> lookupService(query).asHandler().invokeWithPromise(
+                Promises.<List<URI>>promise()
+                        .then(uris -> promise.resolve(uris.stream()
+                                .map(ServiceEndpoint::fromURI)
+                                .collect(Collectors.toList())))
+                        .catchError(promise::reject)));
+    }
+
+    /**
+     * Look up a service within a time budget.  Once the budget is spent the lookup is rejected with a
+     * {@link java.util.concurrent.TimeoutException}.
+     *
+     * @param query   the URI that defines your query
+     * @param timeout the time budget of the lookup
+     * @return a Promise for the URIs that match your query
+     */
+    default Promise<List<URI>> lookupService(URI query, Duration timeout) {
+        return Lookups.uris(lookupEndpoints(query, timeout));
+    }
+
+    /**
+     * Look up a service as typed endpoints within a time budget.  Discovery services that call a backend override
+     * this to stop failing over and retrying once the budget is spent, and to stop waiting on the requests they still
+     * have in flight by then; by default the budget is ignored.
+     *
+     * @param query   the URI that defines your query
+     * @param timeout the time budget of the lookup
+     * @return a Promise for the endpoints that match your query
+     */
+    default Promise<List<ServiceEndpoint>> lookupEndpoints(URI query, Duration timeout) {
+        return lookupEndpoints(query);
+    }
+
+    /**
+     * Look up a compiled query as typed endpoints.
+     *
+     * @param query the compiled query
+     * @return a Promise for the endpoints that match your query
+     */
+    default Promise<List<ServiceEndpoint>> lookupEndpoints(DiscoveryQuery query) {
+        return lookupEndpoints(query.uri());
+    }
+
+    /**
+     * Look up many services at once.  Providers group the queries and send them as efficiently as their backend
+     * allows; by default every query is looked up in parallel.
+     *
+     * @param queries the URIs that define your queries
+     * @return a Promise for the results of each query, in query order, rejected if any lookup fails
+     */
+    default Promise<Map<URI, List<URI>>> lookupServices(Collection<URI> queries) {
+        return Lookups.all(queries, this::lookupService, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Look up many services at once within a time budget.  Discovery services that call a backend override this to
+     * give each request at most the budget that is left; by default the budget is ignored.
+     *
+     * @param queries the URIs that define your queries
+     * @param timeout the time budget of the batch
+     * @return a Promise for the results of each query, in query order, rejected if any lookup fails
+     */
+    default Promise<Map<URI, List<URI>>> lookupServices(Collection<URI> queries, Duration timeout) {
+        return lookupServices(queries);
+    }
+
+    /**
+     * Register queries that will be looked up often.  Discovery services that route queries look them up in
+     * parallel now, keep their results in memory and refresh them in the background, so later lookups of these
+     * queries never wait on a backend.  By default the queries are only looked up once.
+     *
+     * @param queries the URIs that define your queries
+     * @return a Promise for the first results of each query, in query order, rejected if any lookup fails
+     */
+    default Promise<Map<URI, List<URI>>> registerQueries(Collection<URI> queries) {
+        return lookupServices(queries);
+    }
+
+    default Subscription watchService(String query, Consumer<List<URI>> listener) {
+        return watchService(URI.create(query), listener);
+    }
+
+    /**
+     * Watch a service for changes.  The listener is called with the current endpoints once they are known and again
+     * every time the set of endpoints changes.  Discovery services that cannot push changes poll
+     * {@link #lookupService(URI)} every {@link #DEFAULT_POLL_INTERVAL}.
+     *
+     * @param query    the URI that defines your query
+     * @param listener called with the endpoints that match your query
+     * @return a subscription used to stop watching
+     */
+    default Subscription watchService(URI query, Consumer<List<URI>> listener) {
+        return watchService(query, DEFAULT_POLL_INTERVAL, listener);
+    }
+
+    /**
+     * Watch a service for changes, polling every {@code pollInterval} if this discovery service cannot push changes.
+     * By default {@link #lookupService(URI)} is polled; discovery services that push changes override both watch
+     * methods and ignore the interval.
+     *
+     * @param query        the URI that defines your query
+     * @param pollInterval the delay between polls
+     * @param listener     called with the endpoints that match your query
+     * @return a subscription used to stop watching
+     */
+    default Subscription watchService(URI query, Duration pollInterval, Consumer<List<URI>> listener) {
+        return Lookups.poll(this, query, pollInterval, listener);
+    }
+
+    /**
+     * A view of this discovery service that completes lookups and calls watch listeners on an executor of your own,
+     * e.g. a worker pool or {@link io.advantageous.discovery.utils.CompletionExecutors#onContext the Vert.x context}
+     * of the caller, so handlers that block never stall the event loops doing the discovery I/O.  Lookups that
+     * complete while they are being started, such as cache hits, complete inline on the calling thread.  Call this
+     * once to set the executor for every lookup, or per lookup, e.g. {@code discovery.completeOn(pool).lookupService(
+     * query)}; views are cheap and closing one does nothing, so close this discovery service itself.
+     *
+     * @param executor runs the completions
+     * @return the view
+     */
+    default DiscoveryService completeOn(Executor executor) {
+        return new ExecutorDiscoveryService(this, executor);
+    }
+
+    /**
+     * Release the clients, timers and threads used by this discovery service.  Lookups still in flight are rejected.
+     */
+    @Override
+    default void close() {
+    }
 }
@@ -0,0 +1,285 @@
+package io.advantageous.discovery;
+
+import io.advantageous.discovery.utils.UriUtils;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static io.advantageous.discovery.DiscoveryService.RESULT_SCHEME;
+
+/**
+ * One endpoint of a service, as found by a lookup.
+ * <p>
+ * Hosts and tags are interned, and identical tag lists are shared between endpoints, so a large number of cached
+ * endpoints of the same services costs little more than their ports.  The {@code service:} URI form used by
+ * {@link DiscoveryService#lookupService(URI)} is only built when {@link #toURI()} is first called.  A discovery
+ * service can give its endpoints a URI format of its own, so the URIs it returns keep the form they had before
+ * endpoints existed.
+ */
+public final class ServiceEndpoint {
+
+    public static final String TAGS_KEY = "tags";
+    public static final String PRIORITY_KEY = "priority";
+    public static final String WEIGHT_KEY = "weight";
+    public static final int DEFAULT_PRIORITY = 0;
+    public static final int DEFAULT_WEIGHT = 1;
+
+    /**
+     * Shared tag lists.  Services have few distinct tag sets, this bound only guards against unbounded growth.
+     */
+    private static final int MAX_SHARED_TAG_LISTS = 4096;
+    private static final Map<List<String>, List<String>> TAG_LISTS = new ConcurrentHashMap<>();
+
+    private final String host;
+    private final int port;
+    private final String name;
+    private final List<String> tags;
+    private final int priority;
+    private final int weight;
+    private final Map<String, String> metadata;
+    private final Function<ServiceEndpoint, String> uriFormat;
+    private volatile URI uri;
+
+    /**
+     * Create an endpoint.
+     *
+     * @param host     the host name or address
+     * @param port     the port
+     * @param name     the service name, rendered as the URI path, or null
+     * @param tags     the service tags
+     * @param priority the RFC 2782 priority, lower is preferred
+     * @param weight   the RFC 2782 weight within a priority
+     * @param metadata any other attributes of the endpoint
+     */
+    public ServiceEndpoint(final String host,
+                           final int port,
+                           final String name,
+                           final List<String> tags,
+                           final int priority,
+                           final int weight,
+                           final Map<String, String> metadata) {
+        this(host, port, name, tags, priority, weight, metadata, null, null);
+    }
+
+    /**
+     * Create an endpoint whose URI is rendered by the discovery service that found it.
+     *
+     * @param host      the host name or address
+     * @param port      the port
+     * @param name      the service name, or null
+     * @param tags      the service tags
+     * @param priority  the RFC 2782 priority, lower is preferred
+     * @param weight    the RFC 2782 weight within a priority
+     * @param metadata  any other attributes of the endpoint
+     * @param uriFormat renders the {@code service:} URI of the endpoint, called at most once, when it is first needed
+     */
+    public ServiceEndpoint(final String host,
+                           final int port,
+                           final String name,
+                           final List<String> tags,
+                           final int priority,
+                           final int weight,
+                           final Map<String, String> metadata,
+                           final Function<ServiceEndpoint, String> uriFormat) {
+        this(host, port, name, tags, priority, weight, metadata, uriFormat, null);
+    }
+
+    private ServiceEndpoint(final String host,
+                            final int port,
+                            final String name,
+                            final List<String> tags,
+                            final int priority,
+                            final int weight,
+                            final Map<String, String> metadata,
+                            final Function<ServiceEndpoint, String> uriFormat,
+                            final URI uri) {
+        this.host = Objects.requireNonNull(host, "host must not be null").intern();
+        this.port = port;
+        this.name = name;
+        this.tags = sharedTags(tags);
+        this.priority = priority;
+        this.weight = weight;
+        this.metadata = metadata == null || metadata.isEmpty()
+                ? Collections.emptyMap()
+                : Collections.unmodifiableMap(new LinkedHashMap<>(metadata));
+        this.uriFormat = uriFormat;
+        this.uri = uri;
+    }
+
+    /**
+     * An endpoint with just a host and port.
+     *
+     * @param host the host name or address
+     * @param port the port
+     * @return the endpoint
+     */
+    public static ServiceEndpoint of(final String host, final int port) {
+        return new ServiceEndpoint(host, port, null, null, DEFAULT_PRIORITY, DEFAULT_WEIGHT, null);
+    }
+
+    /**
+     * Read an endpoint from a lookup result URI.  The {@code tags}, {@code priority} and {@code weight} query
+     * parameters are parsed, the others become metadata.  {@link #toURI()} returns the URI it was read from.
+     *
+     * @param uri the lookup result
+     * @return the endpoint
+     */
+    public static ServiceEndpoint fromURI(final URI uri) {
+        final Map<String, String> params = new LinkedHashMap<>(UriUtils.splitQuery(uri.getQuery()));
+        final String tags = params.remove(TAGS_KEY);
+        final String path = uri.getPath();
+        return new ServiceEndpoint(
+                uri.getHost() == null ? "" : uri.getHost(),
+                uri.getPort(),
+                path == null || path.length() <= 1 ? null : path.substring(1),
+                tags == null || tags.isEmpty() ? null : Arrays.asList(tags.split(",")),
+                intParam(params.remove(PRIORITY_KEY), DEFAULT_PRIORITY),
+                intParam(params.remove(WEIGHT_KEY), DEFAULT_WEIGHT),
+                params,
+                null,
+                uri);
+    }
+
+    /**
+     * The URIs of a list of endpoints.
+     *
+     * @param endpoints the endpoints
+     * @return their URIs, in the same order
+     */
+    public static List<URI> toURIs(final List<ServiceEndpoint> endpoints) {
+        final List<URI> uris = new ArrayList<>(endpoints.size());
+        endpoints.forEach(endpoint -> uris.add(endpoint.toURI()));
+        return uris;
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    /**
+     * @return the service name, or null if the backend does not report one
+     */
+    public String name() {
+        return name;
+    }
+
+    public List<String> tags() {
+        return tags;
+    }
+
+    public int priority() {
+        return priority;
+    }
+
+    public int weight() {
+        return weight;
+    }
+
+    public Map<String, String> metadata() {
+        return metadata;
+    }
+
+    /**
+     * The {@code service:} URI of this endpoint, e.g. {@code service://10.0.0.1:8080/web?tags=a,b}.  Priority and
+     * weight are only included when they are not the defaults.  An endpoint read with {@link #fromURI} returns the
+     * URI it was read from, and one created with a URI format returns what the format renders.  Built on first use.
+     *
+     * @return the URI
+     */
+    public URI toURI() {
+        URI result = this.uri;
+        if (result == null) {
+            result = URI.create(uriFormat == null ? render() : uriFormat.apply(this));
+            this.uri = result;
+        }
+        return result;
+    }
+
+    private String render() {
+        final StringBuilder builder = new StringBuilder(64)
+                .append(RESULT_SCHEME).append("://").append(host).append(':').append(port);
+        if (name != null) builder.append('/').append(name);
+        char separator = '?';
+        if (!tags.isEmpty()) {
+            builder.append(separator).append(TAGS_KEY).append('=');
+            for (int i = 0; i < tags.size(); i++) {
+                if (i > 0) builder.append(',');
+                builder.append(encode(tags.get(i)));
+            }
+            separator = '&';
+        }
+        if (priority != DEFAULT_PRIORITY || weight != DEFAULT_WEIGHT) {
+            builder.append(separator).append(PRIORITY_KEY).append('=').append(priority)
+                    .append('&').append(WEIGHT_KEY).append('=').append(weight);
+            separator = '&';
+        }
+        for (final Map.Entry<String, String> entry : metadata.entrySet()) {
+            builder.append(separator).append(encode(entry.getKey())).append('=').append(encode(entry.getValue()));
+            separator = '&';
+        }
+        return builder.toString();
+    }
+
+    private static String encode(final String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (final UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static int intParam(final String value, final int defaultValue) {
+        if (value == null) return defaultValue;
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static List<String> sharedTags(final List<String> tags) {
+        if (tags == null || tags.isEmpty()) return Collections.emptyList();
+        final List<String> interned = new ArrayList<>(tags.size());
+        tags.forEach(tag -> interned.add(tag.intern()));
+        final List<String> shared = TAG_LISTS.get(interned);
+        if (shared != null) return shared;
+        final List<String> list = Collections.unmodifiableList(interned);
+        if (TAG_LISTS.size() >= MAX_SHARED_TAG_LISTS) return list;
+        final List<String> existing = TAG_LISTS.putIfAbsent(list, list);
+        return existing == null ? list : existing;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ServiceEndpoint)) return false;
+        final ServiceEndpoint that = (ServiceEndpoint) o;
+        return port == that.port && priority == that.priority && weight == that.weight
+                && host.equals(that.host) && Objects.equals(name, that.name)
+                && tags.equals(that.tags) && metadata.equals(that.metadata);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port, name, tags, priority, weight, metadata);
+    }
+
+    @Override
+    public String toString() {
+        return toURI().toString();
+    }
+}
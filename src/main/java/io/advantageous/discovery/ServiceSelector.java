@@ -0,0 +1,101 @@
+package io.advantageous.discovery;
+
+import io.advantageous.discovery.impl.ServiceSelectorImpl;
+import io.advantageous.reakt.promise.Promise;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Picks one endpoint for a query from a snapshot of the lookup results that is kept fresh in the background.
+ * <p>
+ * The snapshot is refreshed with {@link DiscoveryService#watchService(URI, Duration, java.util.function.Consumer)},
+ * which polls {@link DiscoveryService#lookupService(URI)} every refresh interval when the discovery service cannot
+ * push changes.
+ * Selection is lock free and does not allocate.
+ */
+public interface ServiceSelector extends AutoCloseable {
+
+    Duration DEFAULT_REFRESH_INTERVAL = Duration.ofSeconds(30);
+
+    static ServiceSelector create(final DiscoveryService discoveryService, final URI query, final Strategy strategy) {
+        return new ServiceSelectorImpl(discoveryService, query, strategy, DEFAULT_REFRESH_INTERVAL);
+    }
+
+    static ServiceSelector create(final DiscoveryService discoveryService,
+                                  final URI query,
+                                  final Strategy strategy,
+                                  final Duration refreshInterval) {
+        return new ServiceSelectorImpl(discoveryService, query, strategy, refreshInterval);
+    }
+
+    /**
+     * Pick an endpoint.  The endpoint counts as in flight until {@link Endpoint#release()} is called.
+     *
+     * @return the endpoint, or null if the query has no endpoints (yet)
+     */
+    Endpoint select();
+
+    /**
+     * The endpoints in the current snapshot.
+     *
+     * @return the endpoints
+     */
+    List<URI> endpoints();
+
+    /**
+     * Look the query up now and replace the snapshot with the result.
+     *
+     * @return a promise for the new endpoints
+     */
+    Promise<List<URI>> refresh();
+
+    /**
+     * Stop refreshing the snapshot.
+     */
+    @Override
+    void close();
+
+    /**
+     * How an endpoint is picked from the snapshot.
+     */
+    enum Strategy {
+
+        /**
+         * Each endpoint in turn.
+         */
+        ROUND_ROBIN,
+
+        /**
+         * The endpoint with fewer requests in flight out of two picked at random.
+         */
+        POWER_OF_TWO_CHOICES,
+
+        /**
+         * RFC 2782 selection: an endpoint of the lowest {@code priority}, chosen at random in proportion to its
+         * {@code weight}, using the parameters of DNS SRV results.
+         */
+        WEIGHTED
+    }
+
+    /**
+     * An endpoint picked by the selector.
+     */
+    interface Endpoint {
+
+        URI uri();
+
+        /**
+         * The number of selections of this endpoint that have not been released.
+         *
+         * @return the in flight count
+         */
+        int inFlight();
+
+        /**
+         * Mark the request made to this endpoint as finished.
+         */
+        void release();
+    }
+}
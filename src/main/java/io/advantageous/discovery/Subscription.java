@@ -0,0 +1,13 @@
+package io.advantageous.discovery;
+
+/**
+ * Handle returned when watching a service.  Cancelling it stops the callbacks for that watcher.
+ */
+@FunctionalInterface
+public interface Subscription {
+
+    /**
+     * Stop receiving updates.  Cancelling more than once has no effect.
+     */
+    void cancel();
+}
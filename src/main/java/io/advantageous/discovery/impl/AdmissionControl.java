@@ -0,0 +1,153 @@
+package io.advantageous.discovery.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Admission control for the requests sent to one backend: at most {@code limit} requests in flight, at most
+ * {@code maxQueued} more waiting for a slot in arrival order, and anything beyond that refused at once so a client
+ * that is part of an overload stops adding to it.
+ * <p>
+ * With an adaptive limit the limit follows the latency of the backend.  A fast moving average of recent latencies is
+ * compared with a slow one that stands for the latency the backend has when it is not overloaded; as recent latency
+ * rises above it the limit shrinks in proportion, and once latency recovers it grows back a fraction of its square
+ * root per request.  A failed or timed out request cuts the limit by a tenth.  The limit stays between
+ * {@code minLimit} and {@code maxLimit}, and only grows while the slots are actually used.
+ */
+final class AdmissionControl {
+
+    /**
+     * Weights of the newest sample in the fast and slow latency averages.
+     */
+    private static final double SHORT_ALPHA = 0.2;
+    private static final double LONG_ALPHA = 0.01;
+
+    /**
+     * Weight of a new limit estimate, so one slow request does not halve the limit.
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double BACKOFF = 0.9;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int maxQueued;
+    private final boolean adaptive;
+    private final Deque<Runnable> queue = new ArrayDeque<>();
+    private double limit;
+    private int inFlight;
+    private double shortRttNanos;
+    private double longRttNanos;
+
+    /**
+     * @param minLimit  the smallest the adaptive limit gets
+     * @param maxLimit  the largest the adaptive limit gets, and the limit when it is not adaptive
+     * @param maxQueued the most requests waiting for a slot, 0 to refuse requests as soon as the limit is reached
+     * @param adaptive  adapt the limit to the latency of the backend
+     */
+    AdmissionControl(final int minLimit, final int maxLimit, final int maxQueued, final boolean adaptive) {
+        if (minLimit < 1 || maxLimit < minLimit)
+            throw new IllegalArgumentException("in flight limits must be at least 1, the minimum at most the maximum");
+        if (maxQueued < 0) throw new IllegalArgumentException("the queue size must not be negative");
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.maxQueued = maxQueued;
+        this.adaptive = adaptive;
+        this.limit = maxLimit;
+    }
+
+    /**
+     * Run a request now if there is a free slot, or later when one frees up if the queue has room.  The request holds
+     * the slot until it calls {@link #release(long, boolean)} or {@link #release()}, exactly once.
+     *
+     * @param request starts the request, on the calling thread or on the thread that frees the slot
+     * @return false if the request was refused because the queue is full
+     */
+    boolean submit(final Runnable request) {
+        synchronized (this) {
+            if (inFlight >= (int) limit || !queue.isEmpty()) {
+                if (queue.size() >= maxQueued) return false;
+                queue.addLast(request);
+                return true;
+            }
+            inFlight++;
+        }
+        request.run();
+        return true;
+    }
+
+    /**
+     * Free the slot of a request that completed, and adapt the limit to its latency.
+     *
+     * @param latencyNanos how long the request took
+     * @param dropped      true if the request failed or timed out
+     */
+    void release(final long latencyNanos, final boolean dropped) {
+        final List<Runnable> admitted;
+        synchronized (this) {
+            inFlight--;
+            if (adaptive) adapt(latencyNanos, dropped);
+            admitted = admit();
+        }
+        admitted.forEach(Runnable::run);
+    }
+
+    /**
+     * Free the slot of a request that was never sent, e.g. because its lookup was already answered.
+     */
+    void release() {
+        final List<Runnable> admitted;
+        synchronized (this) {
+            inFlight--;
+            admitted = admit();
+        }
+        admitted.forEach(Runnable::run);
+    }
+
+    private List<Runnable> admit() {
+        if (queue.isEmpty() || inFlight >= (int) limit) return Collections.emptyList();
+        final List<Runnable> admitted = new ArrayList<>();
+        while (!queue.isEmpty() && inFlight < (int) limit) {
+            admitted.add(queue.pollFirst());
+            inFlight++;
+        }
+        return admitted;
+    }
+
+    private void adapt(final long latencyNanos, final boolean dropped) {
+        if (dropped) {
+            limit = Math.max(minLimit, limit * BACKOFF);
+            return;
+        }
+        if (longRttNanos == 0) {
+            shortRttNanos = latencyNanos;
+            longRttNanos = latencyNanos;
+            return;
+        }
+        shortRttNanos += SHORT_ALPHA * (latencyNanos - shortRttNanos);
+        longRttNanos += LONG_ALPHA * (latencyNanos - longRttNanos);
+        final double gradient = Math.max(MIN_GRADIENT, Math.min(1, longRttNanos / Math.max(1, shortRttNanos)));
+        double estimate = limit * gradient + Math.sqrt(limit);
+        if (inFlight + 1 < limit / 2) {
+            /* Most slots are idle, so the latency says nothing about a higher limit. */
+            estimate = Math.min(estimate, limit);
+        }
+        limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + estimate * SMOOTHING));
+    }
+
+    synchronized int limit() {
+        return (int) limit;
+    }
+
+    synchronized int inFlight() {
+        return inFlight;
+    }
+
+    synchronized int queued() {
+        return queue.size();
+    }
+}
@@ -0,0 +1,231 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.utils.Lookups;
+import io.advantageous.discovery.utils.UriUtils;
+import io.advantageous.reakt.Callback;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Vertx;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static io.advantageous.discovery.DiscoveryService.QUERY_SCHEME;
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+
+/**
+ * Composite discovery that races the same service across several discovery schemes, e.g.
+ * {@code discovery:any:(consul:///ads,dns:SRV:///ads.service.consul)}, and resolves with the first result that is not
+ * empty.
+ * <p>
+ * The queries are sent in parallel, or with {@code hedgeDelay=<ms>} one at a time in the order given, the next one
+ * being sent when the one before has not answered within the delay or has failed or come back empty.  Each query is
+ * looked up through the discovery service that routes it, so it is cached, coalesced and bounded like any other.
+ * Once a query wins, the queries not yet sent are never sent and the results of the others are dropped.  If none has
+ * a result, the lookup resolves to an empty list if any query came back empty and is rejected with the last error
+ * otherwise.
+ */
+class AnyDiscoveryService implements DiscoveryService {
+
+    static final String SCHEME = "any";
+
+    private static final String HEDGE_DELAY_KEY = "hedgeDelay";
+
+    private final Vertx vertx;
+    private final Function<DiscoveryQuery, Promise<List<ServiceEndpoint>>> router;
+    private final CompiledQueries compiledQueries = new CompiledQueries(CompiledQueries.DEFAULT_MAX_SIZE);
+
+    /**
+     * @param vertx  the Vert.x instance whose timers stagger the queries
+     * @param router looks up each of the composed queries
+     */
+    AnyDiscoveryService(final Vertx vertx, final Function<DiscoveryQuery, Promise<List<ServiceEndpoint>>> router) {
+        this.vertx = Objects.requireNonNull(vertx, "vertx must not be null");
+        this.router = Objects.requireNonNull(router, "router must not be null");
+    }
+
+    @Override
+    public Promise<List<URI>> lookupService(final URI query) {
+        return Lookups.uris(lookupEndpoints(query));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query) {
+        return race(query, 0);
+    }
+
+    /**
+     * Race the composed queries within a time budget.  Each query is given the budget that is left when it is sent.
+     *
+     * @param query   the composite query, e.g. {@code any:(consul:///ads,dns:SRV:///ads.service.consul)}
+     * @param timeout the time budget of the lookup
+     * @return a promise for the endpoints of the first query with a result
+     */
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query, final Duration timeout) {
+        return race(query, Objects.requireNonNull(timeout, "timeout must not be null").toMillis());
+    }
+
+    private Promise<List<ServiceEndpoint>> race(final URI query, final long budgetMs) {
+        return invokablePromise(promise -> {
+            if (query == null) {
+                promise.reject("query was null");
+                return;
+            }
+            if (!SCHEME.equals(query.getScheme())) {
+                promise.reject(new IllegalArgumentException("query did not have the scheme " + SCHEME));
+                return;
+            }
+            final List<DiscoveryQuery> queries = new ArrayList<>();
+            final long hedgeDelayMs;
+            try {
+                split(query.getRawSchemeSpecificPart()).forEach(part ->
+                        queries.add(this.compiledQueries.compile(QUERY_SCHEME + ":" + part)));
+                hedgeDelayMs = Long.parseLong(Objects.toString(UriUtils.queryParameter(query, HEDGE_DELAY_KEY), "0"));
+            } catch (final IllegalArgumentException e) {
+                promise.reject(e);
+                return;
+            }
+            new Race(promise, queries, hedgeDelayMs, budgetMs).start();
+        });
+    }
+
+    /**
+     * The queries of a composite query, from the parenthesised list that begins it, e.g.
+     * {@code (consul:///ads,dns:SRV:///ads.service.consul)?hedgeDelay=50}.  Commas inside nested parentheses do not
+     * split, so composite queries can be nested.
+     *
+     * @param schemeSpecificPart the raw scheme specific part of the composite query
+     * @return the queries without the {@code discovery:} scheme
+     */
+    static List<String> split(final String schemeSpecificPart) {
+        if (!schemeSpecificPart.startsWith("(")) {
+            throw new IllegalArgumentException("composite queries must list their queries in parentheses: "
+                    + schemeSpecificPart);
+        }
+        final List<String> parts = new ArrayList<>();
+        int depth = 0;
+        int start = 1;
+        for (int i = 1; i < schemeSpecificPart.length(); i++) {
+            final char c = schemeSpecificPart.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ',' && depth == 0) {
+                parts.add(schemeSpecificPart.substring(start, i).trim());
+                start = i + 1;
+            } else if (c == ')' && depth-- == 0) {
+                parts.add(schemeSpecificPart.substring(start, i).trim());
+                if (parts.contains("")) {
+                    throw new IllegalArgumentException("composite query has an empty query: " + schemeSpecificPart);
+                }
+                return parts;
+            }
+        }
+        throw new IllegalArgumentException("composite query is missing a closing parenthesis: " + schemeSpecificPart);
+    }
+
+    /**
+     * One composite lookup.  The first query with endpoints wins; with a hedge delay, the next query is sent when a
+     * timer fires or as soon as the last one sent fails or comes back empty.
+     */
+    private final class Race {
+
+        private final Callback<List<ServiceEndpoint>> promise;
+        private final List<DiscoveryQuery> queries;
+        private final long hedgeDelayMs;
+        private final long budgetMs;
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile boolean empty;
+        private volatile Throwable lastError;
+        private volatile long timerId = -1;
+
+        private Race(final Callback<List<ServiceEndpoint>> promise,
+                     final List<DiscoveryQuery> queries,
+                     final long hedgeDelayMs,
+                     final long budgetMs) {
+            this.promise = promise;
+            this.queries = queries;
+            this.hedgeDelayMs = hedgeDelayMs;
+            this.budgetMs = budgetMs;
+        }
+
+        private void start() {
+            if (hedgeDelayMs > 0) {
+                send();
+            } else {
+                queries.forEach(query -> send());
+            }
+        }
+
+        private void send() {
+            final int index = next.getAndIncrement();
+            if (index >= queries.size() || done.get()) return;
+            if (hedgeDelayMs > 0 && index + 1 < queries.size()) {
+                timerId = vertx.setTimer(hedgeDelayMs, timer -> {
+                    if (!done.get()) send();
+                });
+            }
+            DiscoveryQuery query = queries.get(index);
+            if (budgetMs > 0) {
+                final long remainingMs = budgetMs - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+                query = query.withTimeout(Duration.ofMillis(Math.max(1, remainingMs)));
+            }
+            try {
+                router.apply(query).asHandler().invokeWithPromise(Promises.<List<ServiceEndpoint>>promise()
+                        .then(results -> {
+                            if (results.isEmpty()) {
+                                empty = true;
+                                lost();
+                            } else if (done.compareAndSet(false, true)) {
+                                cancelTimer();
+                                promise.resolve(results);
+                            }
+                        })
+                        .catchError(error -> {
+                            lastError = error;
+                            lost();
+                        }));
+            } catch (final RuntimeException e) {
+                lastError = e;
+                lost();
+            }
+        }
+
+        /**
+         * A query failed or came back empty.  Send the next one at once, or give up if this was the last.
+         */
+        private void lost() {
+            if (completed.incrementAndGet() == queries.size()) {
+                if (done.compareAndSet(false, true)) {
+                    if (empty) {
+                        promise.resolve(Collections.emptyList());
+                    } else {
+                        promise.reject(lastError);
+                    }
+                }
+            } else if (hedgeDelayMs > 0 && !done.get()) {
+                cancelTimer();
+                send();
+            }
+        }
+
+        private void cancelTimer() {
+            final long id = timerId;
+            if (id != -1) vertx.cancelTimer(id);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded cache of compiled queries keyed by their text, so a query string or URI that is looked up over and over is
+ * only parsed the first time.  Reads do not lock.  When the cache is full it is cleared, which keeps the hot queries
+ * (they are compiled again on their next use) without the bookkeeping of an LRU.
+ */
+class CompiledQueries {
+
+    static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final int maxSize;
+    private final Map<String, DiscoveryQuery> queries = new ConcurrentHashMap<>();
+
+    CompiledQueries(final int maxSize) {
+        if (maxSize < 1) throw new IllegalArgumentException("maxSize must be at least 1");
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * The compiled form of a query string.
+     *
+     * @param query the query
+     * @return the compiled query
+     * @throws IllegalArgumentException if the query is not a valid discovery query
+     */
+    DiscoveryQuery compile(final String query) {
+        final DiscoveryQuery compiled = queries.get(query);
+        return compiled != null ? compiled : store(query, DiscoveryQuery.compile(query));
+    }
+
+    /**
+     * The compiled form of a query URI.
+     *
+     * @param query the query
+     * @return the compiled query
+     * @throws IllegalArgumentException if the query is not a valid discovery query
+     */
+    DiscoveryQuery compile(final URI query) {
+        final String key = query.toString();
+        final DiscoveryQuery compiled = queries.get(key);
+        return compiled != null ? compiled : store(key, DiscoveryQuery.compile(query));
+    }
+
+    int size() {
+        return queries.size();
+    }
+
+    private DiscoveryQuery store(final String key, final DiscoveryQuery compiled) {
+        if (queries.size() >= maxSize) queries.clear();
+        queries.put(key, compiled);
+        return compiled;
+    }
+}
@@ -1,24 +1,59 @@
 package io.advantageous.discovery.impl;
 
 import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.discovery.spi.DiscoveryMetrics;
+import io.advantageous.discovery.utils.Lookups;
 import io.advantageous.discovery.utils.UriUtils;
+import io.advantageous.reakt.Callback;
 import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Context;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpClient;
+import io.vertx.core.http.HttpClientOptions;
 import io.vertx.core.http.HttpMethod;
-import io.vertx.core.json.JsonObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 import static io.advantageous.reakt.promise.Promises.invokablePromise;
 
 /**
  * Consul Service Discovery
+ * <p>
+ * Any number of agents can be configured, one per configuration URI.  Each request goes to the agent with the best
+ * latency and error record, fails over to the next agent on an error, a timeout or a status other than 200, and with
+ * {@code hedge=true} is also sent to the next agent if the first has not answered within the hedge delay.
+ * <p>
+ * Lookup requests to each agent go through {@link AdmissionControl}: at most {@code maxInFlight} in flight, adapting
+ * to the agent's latency unless {@code adaptiveLimit=false}, and at most {@code maxQueued} waiting.  A request the
+ * agent can not take is refused at once and fails over to the next agent.  Watches are not limited, since each holds
+ * its request open for the length of a blocking query.
  *
  * @author Geoff Chandler
  */
@@ -26,23 +61,201 @@ class ConsulDiscoveryService implements DiscoveryService {
 
     static final String SCHEME = "consul";
 
+    private static final String INDEX_HEADER = "X-Consul-Index";
+    private static final String WAIT_QUERY_KEY = "wait";
+    private static final String TAG_QUERY_KEY = "tag";
+    private static final String HEALTH_QUERY_KEY = "health";
+    private static final String HEALTH_PASSING = "passing";
+    private static final String HTTP = "http";
+    private static final String HTTPS = "https";
+    private static final String CATALOG_PATH = "/v1/catalog/service";
+    private static final String HEALTH_PATH = "/v1/health/service";
+    private static final long DEFAULT_WAIT_SECONDS = 300;
+    private static final long MIN_RETRY_DELAY_MS = 1_000;
+    private static final long MAX_RETRY_DELAY_MS = 30_000;
+    private static final String MAX_POOL_SIZE_KEY = "maxPoolSize";
+    private static final String PIPELINING_KEY = "pipelining";
+    private static final String IDLE_TIMEOUT_KEY = "idleTimeout";
+    private static final int DEFAULT_MAX_POOL_SIZE = 16;
+    private static final int DEFAULT_IDLE_TIMEOUT_SECONDS = 60;
+    private static final String TIMEOUT_KEY = "timeout";
+    private static final long DEFAULT_TIMEOUT_MS = 10_000;
+    private static final String HEDGE_KEY = "hedge";
+    private static final String HEDGE_PERCENTILE_KEY = "hedgePercentile";
+    private static final String HEDGE_DELAY_KEY = "hedgeDelay";
+    private static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 50;
+    private static final long MIN_HEDGE_DELAY_MS = 5;
+    private static final String MAX_IN_FLIGHT_KEY = "maxInFlight";
+    private static final String MIN_IN_FLIGHT_KEY = "minInFlight";
+    private static final String MAX_QUEUED_KEY = "maxQueued";
+    private static final String ADAPTIVE_LIMIT_KEY = "adaptiveLimit";
+    private static final int DEFAULT_MAX_IN_FLIGHT = 64;
+    private static final int DEFAULT_MIN_IN_FLIGHT = 4;
+    private static final int DEFAULT_MAX_QUEUED = 256;
+
     private final Vertx vertx;
-    private final int consulPort;
-    private final String consulHost;
+    private final boolean ownsVertx;
+    private final List<URI> agents;
+    private final NameserverStats agentStats;
+    private final Map<URI, AdmissionControl> admissions;
+    private final boolean hedge;
+    private final long timeoutMs;
+    private final DiscoveryMetrics metrics;
+    private final HttpClient httpClient;
+    private final HttpClientOptions watchOptions;
+    private final Map<String, ConsulWatch> watches = new ConcurrentHashMap<>();
+    private final PendingLookups pendingLookups = new PendingLookups();
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
-    ConsulDiscoveryService(final URI config) {
-        Objects.requireNonNull(config, "you must specify a configuration URI for the consul discovery service");
-        if (!SCHEME.equals(config.getScheme()))
-            throw new IllegalArgumentException("scheme for consul service config must be " + SCHEME);
-        this.vertx = Vertx.vertx();
-        final URI consulConfig = URI.create(config.getSchemeSpecificPart());
-        this.consulPort = consulConfig.getPort();
-        this.consulHost = consulConfig.getHost();
+    ConsulDiscoveryService(final URI... configs) {
+        this(checkConfigs(configs), Vertx.vertx(), true, DiscoveryMetrics.NONE);
+    }
+
+    ConsulDiscoveryService(final Vertx vertx, final URI... configs) {
+        this(vertx, DiscoveryMetrics.NONE, configs);
+    }
+
+    ConsulDiscoveryService(final Vertx vertx, final DiscoveryMetrics metrics, final URI... configs) {
+        this(checkConfigs(configs), Objects.requireNonNull(vertx, "vertx must not be null"), false,
+                Objects.requireNonNull(metrics, "metrics must not be null"));
+    }
+
+    private ConsulDiscoveryService(final URI[] configs,
+                                   final Vertx vertx,
+                                   final boolean ownsVertx,
+                                   final DiscoveryMetrics metrics) {
+        this.vertx = vertx;
+        this.ownsVertx = ownsVertx;
+        this.metrics = metrics;
+
+        /*
+        Client options can be set on any of the configuration URIs, e.g. consul:http://a:8500?hedge=true
+         */
+        final Map<String, String> options = new HashMap<>();
+        final List<URI> agentUris = new ArrayList<>(configs.length);
+        for (final URI config : configs) {
+            final URI agent = URI.create(config.getSchemeSpecificPart());
+            options.putAll(UriUtils.splitQuery(agent.getQuery()));
+            agentUris.add(URI.create(agentScheme(config) + "://" + agent.getAuthority()));
+        }
+        final boolean ssl = HTTPS.equals(agentScheme(configs[0]));
+        this.agents = Collections.unmodifiableList(agentUris);
+        this.hedge = Boolean.parseBoolean(options.getOrDefault(HEDGE_KEY, "false"));
+        this.timeoutMs = Long.parseLong(options.getOrDefault(TIMEOUT_KEY, String.valueOf(DEFAULT_TIMEOUT_MS)));
+        this.agentStats = new NameserverStats(
+                Double.parseDouble(options.getOrDefault(HEDGE_PERCENTILE_KEY,
+                        String.valueOf(DEFAULT_HEDGE_PERCENTILE))),
+                Long.parseLong(options.getOrDefault(HEDGE_DELAY_KEY, String.valueOf(DEFAULT_HEDGE_DELAY_MS))),
+                MIN_HEDGE_DELAY_MS);
+        this.admissions = admissions(agentUris, options);
+        this.httpClient = vertx.createHttpClient(lookupClientOptions(options).setSsl(ssl));
+        this.watchOptions = watchClientOptions(options).setSsl(ssl);
+    }
+
+    /**
+     * The scheme of the agent a configuration URI names, http unless it says https.
+     */
+    private static String agentScheme(final URI config) {
+        final String scheme = URI.create(config.getSchemeSpecificPart()).getScheme();
+        return scheme == null ? HTTP : scheme.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Options for the client used by lookups.  Connections to the agent are kept alive and pooled, optionally
+     * pipelined, and closed after being idle for {@code idleTimeout} seconds.
+     *
+     * @param options the query parameters of the consul configuration URI
+     * @return the client options
+     */
+    static HttpClientOptions lookupClientOptions(final Map<String, String> options) {
+        return new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(Integer.parseInt(options.getOrDefault(MAX_POOL_SIZE_KEY,
+                        String.valueOf(DEFAULT_MAX_POOL_SIZE))))
+                .setPipelining(Boolean.parseBoolean(options.getOrDefault(PIPELINING_KEY, "false")))
+                .setIdleTimeout(Integer.parseInt(options.getOrDefault(IDLE_TIMEOUT_KEY,
+                        String.valueOf(DEFAULT_IDLE_TIMEOUT_SECONDS))));
+    }
+
+    /**
+     * Options for the clients used by watches.  Each watch has a client of its own with a single connection, held for
+     * the length of its blocking query, so closing the client aborts the query.  It is never pipelined and has no
+     * idle timeout.
+     *
+     * @param options the query parameters of the consul configuration URI
+     * @return the client options
+     */
+    static HttpClientOptions watchClientOptions(final Map<String, String> options) {
+        return new HttpClientOptions()
+                .setKeepAlive(true)
+                .setMaxPoolSize(1);
+    }
+
+    /**
+     * One admission control per agent.  The limits can be set on the configuration URI, e.g.
+     * {@code consul:http://a:8500?maxInFlight=32&maxQueued=64}.
+     *
+     * @param agents  the agents
+     * @param options the query parameters of the consul configuration URI
+     * @return the admission control of each agent
+     */
+    static Map<URI, AdmissionControl> admissions(final List<URI> agents, final Map<String, String> options) {
+        final int maxInFlight = Integer.parseInt(options.getOrDefault(MAX_IN_FLIGHT_KEY,
+                String.valueOf(DEFAULT_MAX_IN_FLIGHT)));
+        final int minInFlight = Integer.parseInt(options.getOrDefault(MIN_IN_FLIGHT_KEY,
+                String.valueOf(Math.min(DEFAULT_MIN_IN_FLIGHT, maxInFlight))));
+        final int maxQueued = Integer.parseInt(options.getOrDefault(MAX_QUEUED_KEY,
+                String.valueOf(DEFAULT_MAX_QUEUED)));
+        final boolean adaptive = Boolean.parseBoolean(options.getOrDefault(ADAPTIVE_LIMIT_KEY, "true"));
+        final Map<URI, AdmissionControl> admissions = new HashMap<>();
+        agents.forEach(agent -> admissions.put(agent,
+                new AdmissionControl(minInFlight, maxInFlight, maxQueued, adaptive)));
+        return Collections.unmodifiableMap(admissions);
+    }
+
+    private static URI[] checkConfigs(final URI[] configs) {
+        Objects.requireNonNull(configs, "you must specify a configuration URI for the consul discovery service");
+        if (configs.length == 0)
+            throw new IllegalArgumentException("you must specify a configuration URI for the consul discovery service");
+        for (final URI config : configs) {
+            Objects.requireNonNull(config, "you must specify a configuration URI for the consul discovery service");
+            if (!SCHEME.equals(config.getScheme()))
+                throw new IllegalArgumentException("scheme for consul service config must be " + SCHEME);
+            final String agentScheme = agentScheme(config);
+            if (!HTTP.equals(agentScheme) && !HTTPS.equals(agentScheme))
+                throw new IllegalArgumentException("consul agents must be called over http or https: " + config);
+            if (!agentScheme.equals(agentScheme(configs[0])))
+                throw new IllegalArgumentException("consul agents must all be called over http or all over https");
+        }
+        return configs;
     }
 
     @Override
     public Promise<List<URI>> lookupService(final URI query) {
+        return Lookups.uris(lookupEndpoints(query));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query) {
+        return lookup(query, 0);
+    }
+
+    /**
+     * Lookup a service within a time budget.  Each agent is given at most the budget that is left, which is also the
+     * timeout of its request, no other agent is tried once it is spent, and the lookup is then rejected with a
+     * {@link TimeoutException}.
+     *
+     * @param query   the consul query
+     * @param timeout the time budget of the lookup
+     * @return a promise for the endpoints
+     */
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query, final Duration timeout) {
+        return lookup(query, Objects.requireNonNull(timeout, "timeout must not be null").toMillis());
+    }
+
+    private Promise<List<ServiceEndpoint>> lookup(final URI query, final long budgetMs) {
         return invokablePromise(promise -> {
             if (query == null) {
                 promise.reject("query was null");
@@ -54,33 +267,424 @@ class ConsulDiscoveryService implements DiscoveryService {
             }
 
             final Map<String, String> queryMap = UriUtils.splitQuery(query.getQuery());
+            final String requestPath;
+            try {
+                requestPath = requestPath(query.getPath(), queryMap, true);
+            } catch (final IllegalArgumentException e) {
+                promise.reject(e);
+                return;
+            }
+            fetch(requestPath, budgetMs).asHandler().invokeWithPromise(Promises.<Buffer>promise()
+                    .then(buffer -> promise.resolve(toEndpoints(buffer, queryMap)))
+                    .catchError(promise::reject));
+        });
+    }
+
+    /**
+     * Lookup many services.  Consul has no endpoint that returns several services at once, so queries for the same
+     * service (e.g. with different tags) share one request and are filtered from its response, and the distinct
+     * services are fetched in parallel over the pooled keep-alive connections.
+     *
+     * @param queries the consul queries
+     * @return a promise for the results of each query, in query order
+     */
+    @Override
+    public Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries) {
+        return lookupServices(queries, 0);
+    }
+
+    /**
+     * Lookup many services within a time budget, with each request given at most the budget that is left as in
+     * {@link #lookupEndpoints(URI, Duration)}.
+     *
+     * @param queries the consul queries
+     * @param timeout the time budget of the batch
+     * @return a promise for the results of each query, in query order
+     */
+    @Override
+    public Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries, final Duration timeout) {
+        return lookupServices(queries, Objects.requireNonNull(timeout, "timeout must not be null").toMillis());
+    }
+
+    private Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries, final long budgetMs) {
+        return invokablePromise(promise -> {
+            final Map<URI, String> requestPaths = new LinkedHashMap<>();
+            for (final URI query : queries) {
+                if (query == null || !SCHEME.equals(query.getScheme())) {
+                    promise.reject(new IllegalArgumentException("query did not have the scheme " + SCHEME));
+                    return;
+                }
+                try {
+                    requestPaths.put(query, requestPath(query.getPath(), UriUtils.splitQuery(query.getQuery()), false));
+                } catch (final IllegalArgumentException e) {
+                    promise.reject(e);
+                    return;
+                }
+            }
+
+            Lookups.all(requestPaths.values(), requestPath -> fetch(requestPath, budgetMs), Integer.MAX_VALUE).asHandler()
+                    .invokeWithPromise(Promises.<Map<String, Buffer>>promise()
+                            .then(responses -> {
+                                final Map<URI, List<URI>> results = new LinkedHashMap<>();
+                                requestPaths.forEach((query, requestPath) -> results.put(query,
+                                        ServiceEndpoint.toURIs(toEndpoints(responses.get(requestPath),
+                                                UriUtils.splitQuery(query.getQuery())))));
+                                promise.resolve(results);
+                            })
+                            .catchError(promise::reject));
+        });
+    }
+
+    /**
+     * The consul request path for a query.  With {@code health=passing} the health endpoint is used so consul only
+     * returns instances whose checks pass, otherwise every instance in the catalog is returned.
+     *
+     * @param servicePath the service path, e.g. {@code /impressions-service}
+     * @param queryMap    the query parameters
+     * @param withTag     pass the {@code tag} parameter on to consul so it filters the instances
+     * @return the request path
+     */
+    static String requestPath(final String servicePath, final Map<String, String> queryMap, final boolean withTag) {
+        final StringBuilder path = new StringBuilder();
+        final String health = queryMap.get(HEALTH_QUERY_KEY);
+        if (health == null) {
+            path.append(CATALOG_PATH).append(servicePath);
+        } else if (HEALTH_PASSING.equals(health)) {
+            path.append(HEALTH_PATH).append(servicePath).append("?passing");
+        } else {
+            throw new IllegalArgumentException("unsupported health filter " + health + ", only "
+                    + HEALTH_PASSING + " is supported");
+        }
+        final String tag = queryMap.get(TAG_QUERY_KEY);
+        if (withTag && tag != null) {
+            try {
+                path.append(path.indexOf("?") == -1 ? '?' : '&')
+                        .append(TAG_QUERY_KEY).append('=').append(URLEncoder.encode(tag, "UTF-8"));
+            } catch (final UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return path.toString();
+    }
+
+    /**
+     * Fetch the raw response for a consul request path from the best agent, failing over to the others.
+     *
+     * @param requestPath the request path, e.g. {@code /v1/catalog/service/impressions-service}
+     * @param budgetMs    the time budget in milliseconds, 0 for none
+     * @return a promise for the response body
+     */
+    private Promise<Buffer> fetch(final String requestPath, final long budgetMs) {
+        return invokablePromise(promise -> {
+            if (!this.pendingLookups.begin(promise)) return;
+            new AgentRequest(promise, requestPath, budgetMs).start();
+        });
+    }
+
+    /**
+     * One request sent to the agents in rank order until one returns status 200.  In hedge mode the next agent is
+     * also asked if the first has not answered within the hedge delay, and the first good answer wins.  If every
+     * agent fails the request is rejected with the last error.  With a budget, no agent request has a timeout longer
+     * than the budget that is left, and the request is rejected with a timeout once the budget is spent.  A request
+     * that waited for admission is only sent if it is still needed and has time left.
+     */
+    private final class AgentRequest {
+
+        private final Callback<Buffer> promise;
+        private final String requestPath;
+        private final long budgetMs;
+        private final long startNanos = System.nanoTime();
+        private final List<URI> ranked;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+        private volatile Throwable lastError;
+
+        private AgentRequest(final Callback<Buffer> promise, final String requestPath, final long budgetMs) {
+            this.promise = promise;
+            this.requestPath = requestPath;
+            this.budgetMs = budgetMs;
+            this.ranked = agentStats.rank(agents);
+        }
 
-            this.vertx.createHttpClient()
-                    .request(HttpMethod.GET, this.consulPort, this.consulHost, "/v1/catalog/service" + query.getPath())
-                    .exceptionHandler(promise::reject)
-                    .handler(httpClientResponse -> httpClientResponse
-                            .exceptionHandler(promise::reject)
-                            .bodyHandler(buffer -> promise.resolve(buffer.toJsonArray()
-                                    .stream()
-                                    .filter(o -> o instanceof JsonObject)
-                                    .map(o -> (JsonObject) o)
-                                    .filter(queryMap.containsKey("tag")
-                                            ? item -> item.getJsonArray("ServiceTags").contains(queryMap.get("tag"))
-                                            : item -> true)
-                                    .map(item -> URI.create(RESULT_SCHEME + "://" +
-                                            item.getString("Address") + ":" +
-                                            item.getInteger("ServicePort") + "?tags=" +
-                                            String.join(",", item.getJsonArray("ServiceTags")
-                                                    .stream()
-                                                    .map(Object::toString)
-                                                    .collect(Collectors.toList())
-                                            )
-                                    ))
-                                    .filter(o -> o != null)
-                                    .peek(uri -> this.logger.debug("found service in consul: {}", uri.toString()))
-                                    .collect(Collectors.toList()))
-                            ))
+        private void start() {
+            send();
+            if (hedge && ranked.size() > 1) {
+                vertx.setTimer(agentStats.hedgeDelayMs(), timer -> {
+                    if (!done.get()) send();
+                });
+            }
+        }
+
+        private void send() {
+            final long remainingMs = budgetMs > 0 ? budgetMs - elapsedMs(startNanos) : timeoutMs;
+            if (remainingMs <= 0) {
+                if (outstanding.get() == 0 && done.compareAndSet(false, true)) {
+                    pendingLookups.reject(promise, new TimeoutException("consul request " + requestPath
+                            + " timed out after " + budgetMs + " ms"));
+                }
+                return;
+            }
+            final int agentIndex = next.getAndIncrement();
+            if (agentIndex >= ranked.size()) {
+                if (outstanding.get() == 0 && done.compareAndSet(false, true)) {
+                    pendingLookups.reject(promise, lastError);
+                }
+                return;
+            }
+            if (pendingLookups.isClosed()) return;
+
+            final URI agent = ranked.get(agentIndex);
+            final AdmissionControl admission = admissions.get(agent);
+            final long queuedNanos = System.nanoTime();
+            outstanding.incrementAndGet();
+            if (!admission.submit(() -> request(agent, admission, queuedNanos))) {
+                outstanding.decrementAndGet();
+                logger.debug("consul agent {} refused {}, too many requests in flight", agent, requestPath);
+                lastError = new RejectedExecutionException("too many requests in flight and queued for consul agent "
+                        + agent.getAuthority());
+                if (!done.get()) send();
+            }
+        }
+
+        private void request(final URI agent, final AdmissionControl admission, final long queuedNanos) {
+            final long remainingMs = budgetMs > 0
+                    ? budgetMs - elapsedMs(startNanos)
+                    : timeoutMs - elapsedMs(queuedNanos);
+            if (done.get() || pendingLookups.isClosed() || remainingMs <= 0) {
+                outstanding.decrementAndGet();
+                admission.release();
+                if (remainingMs <= 0 && budgetMs <= 0) {
+                    lastError = new TimeoutException("consul request " + requestPath + " waited " + timeoutMs
+                            + " ms for admission to agent " + agent.getAuthority());
+                }
+                if (!done.get() && !pendingLookups.isClosed()) send();
+                return;
+            }
+            final String backend = agent.getAuthority();
+            final long start = System.nanoTime();
+            final AtomicBoolean completed = new AtomicBoolean();
+            metrics.backendStarted(SCHEME, backend);
+            final Consumer<Throwable> failed = error -> {
+                if (!completed.compareAndSet(false, true)) return;
+                outstanding.decrementAndGet();
+                admission.release(System.nanoTime() - start, true);
+                agentStats.failure(agent, elapsedMs(start));
+                metrics.backendCompleted(SCHEME, backend, System.nanoTime() - start, false);
+                logger.warn("consul request to {} failed: ", backend, error);
+                lastError = error;
+                if (!done.get()) send();
+            };
+            httpClient.request(HttpMethod.GET, agent.getPort(), agent.getHost(), requestPath)
+                    .setTimeout(Math.min(timeoutMs, remainingMs))
+                    .exceptionHandler(failed::accept)
+                    .handler(response -> {
+                        if (response.statusCode() != 200) {
+                            failed.accept(new IllegalStateException("consul agent " + backend
+                                    + " returned status " + response.statusCode()));
+                            return;
+                        }
+                        response.exceptionHandler(failed::accept)
+                                .bodyHandler(buffer -> {
+                                    if (!completed.compareAndSet(false, true)) return;
+                                    outstanding.decrementAndGet();
+                                    admission.release(System.nanoTime() - start, false);
+                                    agentStats.success(agent, elapsedMs(start));
+                                    metrics.backendCompleted(SCHEME, backend, System.nanoTime() - start, true);
+                                    if (done.compareAndSet(false, true)) pendingLookups.resolve(promise, buffer);
+                                });
+                    })
                     .end();
+        }
+    }
+
+    private static long elapsedMs(final long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Watch a service using consul blocking queries.  Every watcher of the same query shares one long poll, and
+     * watchers are only called when the consul index advances and the set of endpoints actually changed.
+     * Listeners are called on the vert.x event loop.
+     *
+     * @param query    the consul query, e.g. {@code consul:///impressions-service?tag=staging}
+     * @param listener called with the endpoints whenever they change
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Consumer<List<URI>> listener) {
+        Objects.requireNonNull(query, "query was null");
+        Objects.requireNonNull(listener, "listener was null");
+        if (!SCHEME.equals(query.getScheme()))
+            throw new IllegalArgumentException("query did not have the scheme " + SCHEME);
+        if (this.pendingLookups.isClosed())
+            throw new IllegalStateException("discovery service is closed");
+
+        final String key = query.toString();
+        final Consumer<List<URI>> subscriber = listener::accept;
+        final ConsulWatch watch = this.watches.compute(key, (k, existing) -> {
+            final ConsulWatch consulWatch = existing == null ? new ConsulWatch(query) : existing;
+            consulWatch.subscribers.add(subscriber);
+            return consulWatch;
         });
+        watch.start(subscriber);
+
+        return () -> this.watches.computeIfPresent(key, (k, consulWatch) -> {
+            consulWatch.subscribers.remove(subscriber);
+            if (!consulWatch.subscribers.isEmpty()) return consulWatch;
+            consulWatch.stop();
+            return null;
+        });
+    }
+
+    /**
+     * Watch a service with a blocking query.  Consul pushes changes, so the poll interval is not used.
+     *
+     * @param query        the consul query
+     * @param pollInterval not used
+     * @param listener     called with the endpoints that match your query
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Duration pollInterval,
+                                     final Consumer<List<URI>> listener) {
+        return watchService(query, listener);
+    }
+
+    /**
+     * Reject the lookups in flight, stop the watches and close the http clients.  The vert.x instance is only closed
+     * if this service created it.
+     */
+    @Override
+    public void close() {
+        this.pendingLookups.close();
+        this.watches.values().forEach(ConsulWatch::stop);
+        this.watches.clear();
+        this.httpClient.close();
+        if (this.ownsVertx) this.vertx.close();
+    }
+
+    /**
+     * Map a catalog or health response to endpoints, applying the tag filter while the response is read.
+     */
+    private List<ServiceEndpoint> toEndpoints(final Buffer buffer, final Map<String, String> queryMap) {
+        final List<ServiceEndpoint> results = ConsulResponseParser.parse(buffer, queryMap.get(TAG_QUERY_KEY));
+        if (this.logger.isDebugEnabled()) {
+            results.forEach(endpoint -> this.logger.debug("found service in consul: {}", endpoint));
+        }
+        return results;
+    }
+
+    /**
+     * One long poll against consul, shared by every subscriber to the same query.  The index and the retry state are
+     * only touched on the context of the watch, which is where its requests and timers call back.
+     */
+    private class ConsulWatch {
+
+        private final URI query;
+        private final Map<String, String> queryMap;
+        private final long waitSeconds;
+        private final String requestPath;
+        private final List<Consumer<List<URI>>> subscribers = new CopyOnWriteArrayList<>();
+        private final Context context = vertx.getOrCreateContext();
+        private final HttpClient client = vertx.createHttpClient(watchOptions);
+        private volatile List<URI> current;
+        private volatile boolean started;
+        private volatile boolean stopped;
+        private long index;
+        private long retryDelay = MIN_RETRY_DELAY_MS;
+        private long retryTimer = -1;
+
+        private ConsulWatch(final URI query) {
+            this.query = query;
+            this.queryMap = UriUtils.splitQuery(query.getQuery());
+            this.waitSeconds = Long.parseLong(queryMap.getOrDefault(WAIT_QUERY_KEY, String.valueOf(DEFAULT_WAIT_SECONDS)));
+            this.requestPath = requestPath(query.getPath(), queryMap, true);
+        }
+
+        private void start(final Consumer<List<URI>> subscriber) {
+            synchronized (this) {
+                if (!started) {
+                    started = true;
+                    context.runOnContext(v -> poll());
+                    return;
+                }
+            }
+            final List<URI> known = current;
+            if (known != null) subscriber.accept(known);
+        }
+
+        /**
+         * Drop the subscribers and abort the poll in flight by closing the client of the watch.
+         */
+        private void stop() {
+            stopped = true;
+            subscribers.clear();
+            context.runOnContext(v -> {
+                if (retryTimer != -1) vertx.cancelTimer(retryTimer);
+                client.close();
+            });
+        }
+
+        /**
+         * Long poll the best agent.  A failed poll counts against its agent, so the retry goes to another agent when
+         * there is one.
+         */
+        private void poll() {
+            if (stopped) return;
+            final URI agent = agentStats.rank(agents).get(0);
+            final long start = System.nanoTime();
+            final Consumer<Throwable> failed = error -> {
+                if (stopped) return;
+                agentStats.failure(agent, elapsedMs(start));
+                retry(error);
+            };
+            final String path = requestPath + (requestPath.indexOf('?') == -1 ? '?' : '&') +
+                    "index=" + index + "&wait=" + waitSeconds + "s";
+            client.request(HttpMethod.GET, agent.getPort(), agent.getHost(), path)
+                    .setTimeout(waitSeconds * 1000 + waitSeconds * 1000 / 16 + MIN_RETRY_DELAY_MS * 5)
+                    .exceptionHandler(failed::accept)
+                    .handler(response -> {
+                        if (stopped) return;
+                        if (response.statusCode() != 200) {
+                            failed.accept(new IllegalStateException("consul returned status " + response.statusCode()));
+                            return;
+                        }
+                        final String indexHeader = response.getHeader(INDEX_HEADER);
+                        response.exceptionHandler(failed::accept)
+                                .bodyHandler(buffer -> {
+                                    if (stopped) return;
+                                    onResponse(indexHeader == null ? 0 : Long.parseLong(indexHeader), buffer);
+                                    retryDelay = MIN_RETRY_DELAY_MS;
+                                    poll();
+                                });
+                    })
+                    .end();
+        }
+
+        private void onResponse(final long newIndex, final Buffer buffer) {
+            if (newIndex < index) {
+                /* The index went backwards (e.g. consul state was restored), start over. */
+                index = 0;
+                return;
+            }
+            if (newIndex == index && current != null) return;
+            index = newIndex;
+            final List<URI> results = Collections.unmodifiableList(
+                    ServiceEndpoint.toURIs(toEndpoints(buffer, queryMap)));
+            if (current != null && new HashSet<>(current).equals(new HashSet<>(results))) return;
+            current = results;
+            subscribers.forEach(subscriber -> subscriber.accept(results));
+        }
+
+        private void retry(final Throwable error) {
+            if (stopped) return;
+            logger.warn("consul watch failed for {}, retrying in {} ms", query, retryDelay, error);
+            retryTimer = vertx.setTimer(retryDelay, timer -> {
+                retryTimer = -1;
+                poll();
+            });
+            retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+        }
     }
 }
@@ -1,7 +1,9 @@
 package io.advantageous.discovery.impl;
 
 import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.spi.DiscoveryMetrics;
 import io.advantageous.discovery.spi.DiscoveryServiceFactory;
+import io.vertx.core.Vertx;
 
 import java.net.URI;
 import java.util.List;
@@ -15,10 +17,24 @@ public class ConsulDiscoveryServiceFactory implements DiscoveryServiceFactory {
 
     @Override
     public DiscoveryService create(final List<URI> uris) {
+        checkUris(uris);
+        return new ConsulDiscoveryService(uris.toArray(new URI[uris.size()]));
+    }
+
+    @Override
+    public DiscoveryService create(final Vertx vertx, final List<URI> uris) {
+        checkUris(uris);
+        return new ConsulDiscoveryService(vertx, uris.toArray(new URI[uris.size()]));
+    }
+
+    @Override
+    public DiscoveryService create(final Vertx vertx, final List<URI> uris, final DiscoveryMetrics metrics) {
+        checkUris(uris);
+        return new ConsulDiscoveryService(vertx, metrics, uris.toArray(new URI[uris.size()]));
+    }
+
+    private static void checkUris(final List<URI> uris) {
         if (uris == null || uris.size() == 0)
             throw new IllegalArgumentException("you must specify a consul configuration URI");
-        if (uris.size() > 1)
-            throw new UnsupportedOperationException("consul service discovery only accepts one configuration URI");
-        return new ConsulDiscoveryService(uris.get(0));
     }
 }
@@ -0,0 +1,236 @@
+package io.advantageous.discovery.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.netty.buffer.ByteBufInputStream;
+import io.vertx.core.buffer.Buffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Token level parser for consul catalog and health responses.
+ * <p>
+ * Only {@code Address}, {@code ServicePort} and {@code ServiceTags} (or {@code Service.Address}, {@code Service.Port},
+ * {@code Service.Tags} and {@code Node.Address} for health entries) are read, every other field is skipped without
+ * being materialized, and an entry is skipped as soon as its tags show it does not match the tag filter.  The cost
+ * of a lookup therefore grows with the number of matching instances instead of the size of the response.
+ */
+final class ConsulResponseParser {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * The URI of an entry, in the form {@code lookupService} has always returned it: the tags unencoded and the
+     * {@code tags} parameter present even when there are none.
+     */
+    private static final Function<ServiceEndpoint, String> URI_FORMAT = endpoint ->
+            DiscoveryService.RESULT_SCHEME + "://" + endpoint.host() + ":" + endpoint.port()
+                    + "?tags=" + String.join(",", endpoint.tags());
+
+    private ConsulResponseParser() {
+        throw new IllegalStateException("this class should not be instantiated.");
+    }
+
+    /**
+     * Parse a response body into service endpoints.
+     *
+     * @param buffer the response body, a JSON array of catalog or health entries
+     * @param tag    only return entries with this tag, or null for every entry
+     * @return the endpoints
+     */
+    static List<ServiceEndpoint> parse(final Buffer buffer, final String tag) {
+        try (InputStream in = new ByteBufInputStream(buffer.getByteBuf());
+             JsonParser parser = JSON_FACTORY.createParser(in)) {
+            return parse(parser, tag);
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to parse consul response", e);
+        }
+    }
+
+    private static List<ServiceEndpoint> parse(final JsonParser parser, final String tag) throws IOException {
+        if (parser.nextToken() != JsonToken.START_ARRAY) {
+            throw new IllegalStateException("consul response was not a JSON array");
+        }
+        final List<ServiceEndpoint> results = new ArrayList<>();
+        final Entry entry = new Entry();
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == null) throw new IllegalStateException("consul response ended early");
+            if (token != JsonToken.START_OBJECT) {
+                parser.skipChildren();
+                continue;
+            }
+            entry.reset();
+            if (readEntry(parser, entry, tag) && entry.matches(tag) && entry.address() != null && entry.port >= 0) {
+                results.add(entry.toEndpoint());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Read one entry, leaving the parser on its END_OBJECT.
+     *
+     * @return false if the entry was skipped because it does not have the tag
+     */
+    private static boolean readEntry(final JsonParser parser, final Entry entry, final String tag) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case "Address":
+                    entry.nodeAddress = stringValue(parser, value);
+                    break;
+                case "ServicePort":
+                    entry.port = intValue(parser, value);
+                    break;
+                case "ServiceTags":
+                    readTags(parser, value, entry.tags);
+                    if (!entry.matches(tag)) {
+                        skipRest(parser);
+                        return false;
+                    }
+                    break;
+                case "Service":
+                    if (!readService(parser, value, entry, tag)) {
+                        skipRest(parser);
+                        return false;
+                    }
+                    break;
+                case "Node":
+                    readNode(parser, value, entry);
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    private static boolean readService(final JsonParser parser,
+                                       final JsonToken start,
+                                       final Entry entry,
+                                       final String tag) throws IOException {
+        if (start != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return true;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            switch (field) {
+                case "Address":
+                    entry.serviceAddress = stringValue(parser, value);
+                    break;
+                case "Port":
+                    entry.port = intValue(parser, value);
+                    break;
+                case "Tags":
+                    readTags(parser, value, entry.tags);
+                    if (!entry.matches(tag)) {
+                        skipRest(parser);
+                        return false;
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        return true;
+    }
+
+    private static void readNode(final JsonParser parser, final JsonToken start, final Entry entry) throws IOException {
+        if (start != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if ("Address".equals(field)) {
+                entry.nodeAddress = stringValue(parser, value);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private static void readTags(final JsonParser parser,
+                                 final JsonToken start,
+                                 final List<String> tags) throws IOException {
+        if (start != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return;
+        }
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (token == JsonToken.VALUE_STRING) {
+                tags.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Skip the remaining fields of the current object, leaving the parser on its END_OBJECT.
+     */
+    private static void skipRest(final JsonParser parser) throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != JsonToken.END_OBJECT) {
+            if (token == null) throw new IllegalStateException("consul response ended early");
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    private static String stringValue(final JsonParser parser, final JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_STRING) return parser.getText();
+        parser.skipChildren();
+        return null;
+    }
+
+    private static int intValue(final JsonParser parser, final JsonToken value) throws IOException {
+        if (value == JsonToken.VALUE_NUMBER_INT) return parser.getIntValue();
+        parser.skipChildren();
+        return -1;
+    }
+
+    /**
+     * The fields of the entry being read, reused for every entry of a response.
+     */
+    private static final class Entry {
+
+        private final List<String> tags = new ArrayList<>();
+        private String nodeAddress;
+        private String serviceAddress;
+        private int port;
+
+        private void reset() {
+            tags.clear();
+            nodeAddress = null;
+            serviceAddress = null;
+            port = -1;
+        }
+
+        private boolean matches(final String tag) {
+            return tag == null || tags.contains(tag);
+        }
+
+        private String address() {
+            return serviceAddress == null || serviceAddress.isEmpty() ? nodeAddress : serviceAddress;
+        }
+
+        private ServiceEndpoint toEndpoint() {
+            return new ServiceEndpoint(address(), port, null, tags,
+                    ServiceEndpoint.DEFAULT_PRIORITY, ServiceEndpoint.DEFAULT_WEIGHT, null, URI_FORMAT);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.spi.DiscoveryMetrics;
+import io.advantageous.discovery.spi.MetricsReporter;
+import io.advantageous.discovery.spi.MetricsSnapshot;
+import io.advantageous.discovery.utils.UriUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default metrics: counters, in flight gauges and latency histograms per scheme and per scheme and backend, exposed
+ * as MXBeans and handed to the {@link MetricsReporter}s found by the service loader.
+ * <p>
+ * Configured with a URI such as {@code metrics:///?name=ads&jmx=true&reportInterval=60000}.  {@code name} tells the
+ * MXBeans of several discovery services apart and defaults to {@code default-1}, {@code default-2} and so on, one per
+ * instance.  {@code reportInterval} is in milliseconds and is also the window of the latency histograms, which cover
+ * the last one to two intervals.
+ */
+public class DefaultDiscoveryMetrics implements DiscoveryMetrics, AutoCloseable {
+
+    static final String SCHEME = "metrics";
+
+    private static final String NAME_KEY = "name";
+    private static final String JMX_KEY = "jmx";
+    private static final String REPORT_INTERVAL_KEY = "reportInterval";
+    private static final String DEFAULT_NAME = "default";
+    private static final AtomicInteger DEFAULT_NAMES = new AtomicInteger();
+    private static final long DEFAULT_REPORT_INTERVAL_MS = 60_000;
+    private static final String DOMAIN = "io.advantageous.discovery";
+
+    private final String name;
+    private final boolean jmx;
+    private final List<MetricsReporter> reporters;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = new ArrayList<>();
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    public DefaultDiscoveryMetrics(final String name,
+                                   final boolean jmx,
+                                   final long reportIntervalMs,
+                                   final List<MetricsReporter> reporters) {
+        if (reportIntervalMs <= 0) throw new IllegalArgumentException("reportInterval must be positive");
+        this.name = name;
+        this.jmx = jmx;
+        this.reporters = new ArrayList<>(reporters);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "lokate-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleAtFixedRate(this::report, reportIntervalMs, reportIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create metrics from a {@code metrics:} configuration URI, with the reporters found by the service loader.
+     *
+     * @param config the configuration URI
+     * @return the metrics
+     */
+    static DefaultDiscoveryMetrics fromConfig(final URI config) {
+        if (!SCHEME.equals(config.getScheme()))
+            throw new IllegalArgumentException("scheme for metrics config must be " + SCHEME);
+        final Map<String, String> params = UriUtils.splitQuery(config.getQuery());
+        final List<MetricsReporter> reporters = new ArrayList<>();
+        ServiceLoader.load(MetricsReporter.class).forEach(reporters::add);
+        return new DefaultDiscoveryMetrics(
+                params.containsKey(NAME_KEY) ? params.get(NAME_KEY)
+                        : DEFAULT_NAME + "-" + DEFAULT_NAMES.incrementAndGet(),
+                Boolean.parseBoolean(params.getOrDefault(JMX_KEY, "true")),
+                Long.parseLong(params.getOrDefault(REPORT_INTERVAL_KEY, String.valueOf(DEFAULT_REPORT_INTERVAL_MS))),
+                reporters);
+    }
+
+    @Override
+    public void lookupStarted(final String scheme) {
+        stats(scheme, null).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void lookupSucceeded(final String scheme, final long elapsedNanos, final int results) {
+        final Stats lookup = stats(scheme, null);
+        lookup.inFlight.decrementAndGet();
+        lookup.successes.increment();
+        if (results == 0) lookup.emptyResults.increment();
+        lookup.current.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    @Override
+    public void lookupFailed(final String scheme, final long elapsedNanos, final Throwable error) {
+        final Stats lookup = stats(scheme, null);
+        lookup.inFlight.decrementAndGet();
+        lookup.failures.increment();
+        lookup.current.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    @Override
+    public void backendStarted(final String scheme, final String backend) {
+        stats(scheme, backend).inFlight.incrementAndGet();
+    }
+
+    @Override
+    public void backendCompleted(final String scheme, final String backend, final long elapsedNanos,
+                                 final boolean success) {
+        final Stats request = stats(scheme, backend);
+        request.inFlight.decrementAndGet();
+        if (success) {
+            request.successes.increment();
+        } else {
+            request.failures.increment();
+        }
+        request.current.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+    }
+
+    /**
+     * The current metrics of every scheme and backend seen so far.
+     *
+     * @return the snapshots
+     */
+    public List<MetricsSnapshot> snapshot() {
+        final List<MetricsSnapshot> snapshots = new ArrayList<>(stats.size());
+        stats.values().forEach(value -> snapshots.add(value.snapshot()));
+        return snapshots;
+    }
+
+    /**
+     * Stop reporting and unregister the MXBeans.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        synchronized (registered) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            registered.forEach(objectName -> {
+                try {
+                    server.unregisterMBean(objectName);
+                } catch (final JMException e) {
+                    logger.debug("failed to unregister {}", objectName, e);
+                }
+            });
+            registered.clear();
+        }
+    }
+
+    private Stats stats(final String scheme, final String backend) {
+        final String key = backend == null ? scheme : scheme + '|' + backend;
+        final Stats existing = stats.get(key);
+        if (existing != null) return existing;
+        final Stats[] created = new Stats[1];
+        final Stats result = stats.computeIfAbsent(key, k -> created[0] = new Stats(scheme, backend));
+        if (result == created[0] && jmx) register(result);
+        return result;
+    }
+
+    private void register(final Stats value) {
+        try {
+            final String type = value.backend == null ? "Lookups" : "Backends";
+            final ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type
+                    + ",name=" + ObjectName.quote(name)
+                    + ",scheme=" + ObjectName.quote(value.scheme)
+                    + (value.backend == null ? "" : ",backend=" + ObjectName.quote(value.backend)));
+            synchronized (registered) {
+                if (scheduler.isShutdown()) return;
+                ManagementFactory.getPlatformMBeanServer().registerMBean(value, objectName);
+                registered.add(objectName);
+            }
+        } catch (final JMException e) {
+            logger.warn("failed to register discovery metrics for {} {} with JMX", value.scheme, value.backend, e);
+        }
+    }
+
+    private void report() {
+        try {
+            if (!reporters.isEmpty()) {
+                final List<MetricsSnapshot> snapshots = snapshot();
+                reporters.forEach(reporter -> {
+                    try {
+                        reporter.report(snapshots);
+                    } catch (final RuntimeException e) {
+                        logger.warn("metrics reporter {} failed", reporter.getClass().getSimpleName(), e);
+                    }
+                });
+            }
+        } finally {
+            stats.values().forEach(Stats::rotate);
+        }
+    }
+
+    /**
+     * The metrics of one scheme or backend.  Latencies are recorded into the current histogram, which becomes the
+     * previous one at each report.
+     */
+    private static final class Stats implements LookupStatsMXBean {
+
+        private final String scheme;
+        private final String backend;
+        private final LongAdder successes = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder emptyResults = new LongAdder();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile LatencyHistogram current = new LatencyHistogram();
+        private volatile LatencyHistogram previous = new LatencyHistogram();
+
+        private Stats(final String scheme, final String backend) {
+            this.scheme = scheme;
+            this.backend = backend;
+        }
+
+        private void rotate() {
+            previous = current;
+            current = new LatencyHistogram();
+        }
+
+        private MetricsSnapshot snapshot() {
+            return new MetricsSnapshot(scheme, backend, getSuccesses(), getFailures(), getEmptyResults(),
+                    getInFlight(), getLatencyP50Micros(), getLatencyP99Micros(), getLatencyP999Micros(),
+                    getLatencyMaxMicros());
+        }
+
+        @Override
+        public String getScheme() {
+            return scheme;
+        }
+
+        @Override
+        public String getBackend() {
+            return backend;
+        }
+
+        @Override
+        public long getSuccesses() {
+            return successes.sum();
+        }
+
+        @Override
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        @Override
+        public long getEmptyResults() {
+            return emptyResults.sum();
+        }
+
+        @Override
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public long getLatencyP50Micros() {
+            return current.percentile(50, previous);
+        }
+
+        @Override
+        public long getLatencyP99Micros() {
+            return current.percentile(99, previous);
+        }
+
+        @Override
+        public long getLatencyP999Micros() {
+            return current.percentile(99.9, previous);
+        }
+
+        @Override
+        public long getLatencyMaxMicros() {
+            return Math.max(current.max(), previous.max());
+        }
+    }
+}
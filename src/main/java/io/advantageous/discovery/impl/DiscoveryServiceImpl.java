@@ -1,15 +1,26 @@
 package io.advantageous.discovery.impl;
 
+import io.advantageous.discovery.DiscoveryQuery;
 import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.discovery.spi.DiscoveryMetrics;
 import io.advantageous.discovery.spi.DiscoveryServiceFactory;
+import io.advantageous.discovery.utils.Lookups;
+import io.advantageous.reakt.Callback;
 import io.advantageous.reakt.CallbackHandler;
 import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Vertx;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.URI;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static io.advantageous.reakt.promise.Promises.invokablePromise;
@@ -24,7 +35,17 @@ import static java.util.ServiceLoader.load;
 @SuppressWarnings("WeakerAccess")
 public class DiscoveryServiceImpl implements DiscoveryService {
 
-    private final Map<String, DiscoveryService> discoveryServices = new HashMap<>();
+    private final ProviderRegistry providers;
+    private final Map<String, DiscoveryServiceFactory> factories = new HashMap<>();
+    private final LookupCache<ServiceEndpoint> lookupCache;
+    private final CompiledQueries compiledQueries = new CompiledQueries(CompiledQueries.DEFAULT_MAX_SIZE);
+    private final Vertx vertx;
+    private final boolean ownsVertx;
+    private DiscoveryMetrics metrics;
+    private boolean ownsMetrics;
+    private QueryRefresher refresher;
+    private LookupSnapshot snapshot;
+    private LookupDeadlines deadlines;
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     /**
@@ -34,32 +55,116 @@ public class DiscoveryServiceImpl implements DiscoveryService {
      * @param endpointConfigurations URIs that configure the various discovery service factories
      */
     public DiscoveryServiceImpl(final URI... endpointConfigurations) {
+        this(Vertx.vertx(), true, DiscoveryMetrics.NONE, endpointConfigurations);
+    }
+
+    /**
+     * Create a DiscoveryService whose discovery services share a Vert.x instance.  The Vert.x instance is not closed
+     * when this service is closed.
+     *
+     * @param vertx                  the shared Vert.x instance
+     * @param endpointConfigurations URIs that configure the various discovery service factories
+     */
+    public DiscoveryServiceImpl(final Vertx vertx, final URI... endpointConfigurations) {
+        this(Objects.requireNonNull(vertx, "vertx must not be null"), false, DiscoveryMetrics.NONE,
+                endpointConfigurations);
+    }
+
+    /**
+     * Create a DiscoveryService that records its metrics with your own implementation, e.g. one that feeds an
+     * existing metrics library.  Neither the Vert.x instance nor the metrics are closed when this service is closed,
+     * and a {@code metrics:} configuration URI is not allowed.
+     *
+     * @param vertx                  the shared Vert.x instance
+     * @param metrics                records the lookups of this service and of its discovery services
+     * @param endpointConfigurations URIs that configure the various discovery service factories
+     */
+    public DiscoveryServiceImpl(final Vertx vertx,
+                                final DiscoveryMetrics metrics,
+                                final URI... endpointConfigurations) {
+        this(Objects.requireNonNull(vertx, "vertx must not be null"), false,
+                Objects.requireNonNull(metrics, "metrics must not be null"), endpointConfigurations);
+    }
+
+    private DiscoveryServiceImpl(final Vertx vertx,
+                                 final boolean ownsVertx,
+                                 final DiscoveryMetrics metrics,
+                                 final URI... endpointConfigurations) {
+        this.vertx = vertx;
+        this.ownsVertx = ownsVertx;
+        this.metrics = metrics;
+        this.providers = new ProviderRegistry(vertx, ProviderRegistry.DEFAULT_DRAIN_TIMEOUT_MS);
+        try {
+            this.lookupCache = configure(endpointConfigurations);
+        } catch (final RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private LookupCache<ServiceEndpoint> configure(final URI... endpointConfigurations) {
 
         /*
         Load all the factories listed in META-INF services into map
          */
-        final Map<String, DiscoveryServiceFactory> factoryMap = new HashMap<>();
-        load(DiscoveryServiceFactory.class).forEach((factory -> factoryMap.put(factory.getScheme(), factory)));
+        load(DiscoveryServiceFactory.class).forEach((factory -> this.factories.put(factory.getScheme(), factory)));
         load(DiscoveryServiceFactory.class, DiscoveryServiceImpl.class.getClassLoader()).forEach(factory ->
-                factoryMap.put(factory.getScheme(), factory)
+                this.factories.put(factory.getScheme(), factory)
         );
 
         /*
-        Create a configuration map that groups the URIs with the same scheme
+        Create a configuration map that groups the URIs with the same scheme, pulling out the cache, metrics,
+        refresh, snapshot and deadline configuration
          */
         final Map<String, List<URI>> configMap = new HashMap<>();
         Arrays.asList(endpointConfigurations).forEach(uri ->
                 configMap.computeIfAbsent(uri.getScheme(), scheme -> new ArrayList<>()).add(uri)
         );
+        final List<URI> cacheConfigs = configMap.remove(LookupCache.SCHEME);
+        final LookupCache<ServiceEndpoint> cache;
+        if (cacheConfigs == null) {
+            cache = LookupCache.noCache();
+        } else if (cacheConfigs.size() == 1) {
+            cache = LookupCache.fromConfig(cacheConfigs.get(0));
+        } else {
+            throw new IllegalArgumentException("only one " + LookupCache.SCHEME + " configuration URI is allowed");
+        }
+        final List<URI> metricsConfigs = configMap.remove(DefaultDiscoveryMetrics.SCHEME);
+        if (metricsConfigs != null) {
+            if (metricsConfigs.size() > 1) throw new IllegalArgumentException("only one "
+                    + DefaultDiscoveryMetrics.SCHEME + " configuration URI is allowed");
+            if (this.metrics != DiscoveryMetrics.NONE) throw new IllegalArgumentException("no "
+                    + DefaultDiscoveryMetrics.SCHEME + " configuration URI is allowed when metrics are supplied");
+            this.metrics = DefaultDiscoveryMetrics.fromConfig(metricsConfigs.get(0));
+            this.ownsMetrics = true;
+        }
+        final List<URI> refreshConfigs = configMap.remove(QueryRefresher.SCHEME);
+        if (refreshConfigs == null) {
+            this.refresher = QueryRefresher.defaults(this.vertx);
+        } else if (refreshConfigs.size() == 1) {
+            this.refresher = QueryRefresher.fromConfig(this.vertx, refreshConfigs.get(0));
+        } else {
+            throw new IllegalArgumentException("only one " + QueryRefresher.SCHEME + " configuration URI is allowed");
+        }
+        final List<URI> snapshotConfigs = configMap.remove(LookupSnapshot.SCHEME);
+        if (snapshotConfigs != null) {
+            if (snapshotConfigs.size() > 1) throw new IllegalArgumentException("only one "
+                    + LookupSnapshot.SCHEME + " configuration URI is allowed");
+            this.snapshot = LookupSnapshot.fromConfig(this.vertx, snapshotConfigs.get(0));
+        }
+        final List<URI> deadlineConfigs = configMap.remove(LookupDeadlines.SCHEME);
+        if (deadlineConfigs == null) {
+            this.deadlines = LookupDeadlines.defaults(this.vertx);
+        } else if (deadlineConfigs.size() == 1) {
+            this.deadlines = LookupDeadlines.fromConfig(this.vertx, deadlineConfigs.get(0));
+        } else {
+            throw new IllegalArgumentException("only one " + LookupDeadlines.SCHEME + " configuration URI is allowed");
+        }
 
         /*
-        Create each discovery service using the grouped configuration and put them in the registry map.
+        Create each discovery service using the grouped configuration and put them in the registry.
          */
-        configMap.entrySet().forEach((entry) -> this.registerService(entry.getKey(),
-                factoryMap.computeIfAbsent(entry.getKey(), (scheme) -> {
-                    throw new IllegalArgumentException("no factory for scheme " + scheme);
-                }).create(entry.getValue()))
-        );
+        configMap.forEach((scheme, uris) -> this.registerService(scheme, createProvider(scheme, uris)));
 
         /*
         Create a basic echo service to return a literal of the requested URI
@@ -76,6 +181,30 @@ public class DiscoveryServiceImpl implements DiscoveryService {
                 promise.resolve(Collections.singletonList(URI.create(schemeSpecificPart)));
             }
         }));
+
+        /*
+        Create the composite service that races a query across the other services
+         */
+        this.registerService(AnyDiscoveryService.SCHEME, new AnyDiscoveryService(this.vertx, this::lookupEndpoints));
+        return cache;
+    }
+
+    private DiscoveryService createProvider(final String scheme, final List<URI> uris) {
+        final DiscoveryServiceFactory factory = this.factories.get(scheme);
+        if (factory == null) throw new IllegalArgumentException("no factory for scheme " + scheme);
+        return factory.create(this.vertx, uris, this.metrics);
+    }
+
+    /**
+     * Lookup a service with a query string.  The compiled form of the query is cached, so repeated queries are not
+     * parsed again.
+     *
+     * @param query the query
+     * @return a Promise for a URI that matches your query
+     */
+    @Override
+    public Promise<List<URI>> lookupService(final String query) {
+        return Lookups.uris(lookupEndpoints(query));
     }
 
     /**
@@ -86,36 +215,499 @@ public class DiscoveryServiceImpl implements DiscoveryService {
      */
     @Override
     public Promise<List<URI>> lookupService(final URI query) {
-        logger.debug("looking up service for query: {}", query);
+        return Lookups.uris(lookupEndpoints(query));
+    }
 
+    @Override
+    public Promise<List<URI>> lookupService(final DiscoveryQuery query) {
+        return Lookups.uris(lookupEndpoints(query));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final String query) {
         return invokablePromise(callback -> {
-            if (!query.getScheme().equals(QUERY_SCHEME)) {
-                callback.reject("discovery uris must begin with \"" + QUERY_SCHEME + ":\"");
+            final DiscoveryQuery compiled;
+            try {
+                compiled = this.compiledQueries.compile(query);
+            } catch (final IllegalArgumentException e) {
+                callback.reject(e.getMessage());
                 return;
             }
-            final String scheme = URI.create(query.getSchemeSpecificPart()).getScheme();
-            if (!this.discoveryServices.containsKey(scheme)) {
-                callback.reject("discovery scheme not registered: " + QUERY_SCHEME + ":" + scheme);
+            lookup(compiled, callback);
+        });
+    }
+
+    /**
+     * Lookup a service with a URI Query, returning typed endpoints.  This is what the cache holds, so the URIs of
+     * cached endpoints are only built if {@link #lookupService(URI)} asks for them.
+     *
+     * @param query the URI that defines your query
+     * @return a Promise for the endpoints that match your query
+     */
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query) {
+        return invokablePromise(callback -> {
+            final DiscoveryQuery compiled;
+            try {
+                compiled = this.compiledQueries.compile(query);
+            } catch (final IllegalArgumentException e) {
+                callback.reject(e.getMessage());
                 return;
             }
-            final DiscoveryService discoveryServiceProvider = this.discoveryServices.get(scheme);
-            final String querySpecific = query.getSchemeSpecificPart();
-            discoveryServiceProvider.lookupService(querySpecific).asHandler().thenCallback(callback).invoke();
+            lookup(compiled, callback);
+        });
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final DiscoveryQuery query) {
+        return invokablePromise(callback -> lookup(query, callback));
+    }
+
+    /**
+     * Lookup a service with a URI Query within a time budget, which takes the place of the {@code timeout} parameter
+     * of the query and of the default budget.
+     *
+     * @param query   the URI that defines your query
+     * @param timeout the time budget of the lookup
+     * @return a Promise for the endpoints that match your query
+     */
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query, final Duration timeout) {
+        return invokablePromise(callback -> {
+            final DiscoveryQuery compiled;
+            try {
+                compiled = this.compiledQueries.compile(query).withTimeout(timeout);
+            } catch (final IllegalArgumentException e) {
+                callback.reject(e.getMessage());
+                return;
+            }
+            lookup(compiled, callback);
+        });
+    }
+
+    /**
+     * Resolve a lookup from the registered queries, the cache or the snapshot, or else with its discovery service.
+     * A lookup that has to wait is rejected once its budget is spent, unless the cache still has a result within its
+     * stale if error window, and the discovery service is given the same budget so it stops waiting on its backend by
+     * then.
+     */
+    private void lookup(final DiscoveryQuery query, final Callback<List<ServiceEndpoint>> callback) {
+        logger.debug("looking up service for query: {}", query);
+
+        final List<ServiceEndpoint> registered = this.refresher.get(query.key());
+        if (registered != null) {
+            callback.resolve(registered);
+            return;
+        }
+        if (!this.providers.contains(query.scheme())) {
+            callback.reject("discovery scheme not registered: " + QUERY_SCHEME + ":" + query.scheme());
+            return;
+        }
+        final long timeoutMs = this.deadlines.timeoutMs(query);
+        final List<ServiceEndpoint> saved = bootstrap(query, timeoutMs);
+        if (saved != null) {
+            callback.resolve(saved);
+            return;
+        }
+        final List<ServiceEndpoint> cached = this.lookupCache.get(query.key());
+        if (cached != null) {
+            callback.resolve(cached);
+            return;
+        }
+        this.lookupCache.lookup(query.key(), query.scheme(), () -> loadEndpoints(query, timeoutMs),
+                this.deadlines.guard(callback, timeoutMs, query, () -> this.lookupCache.getIfError(query.key())));
+    }
+
+    /**
+     * The snapshot results of a query that has not been looked up live yet.  When there are some, a live lookup is
+     * started in the background, and the query is served from the snapshot until it succeeds.
+     */
+    private List<ServiceEndpoint> bootstrap(final DiscoveryQuery query, final long timeoutMs) {
+        final List<ServiceEndpoint> saved = this.snapshot == null ? null : this.snapshot.bootstrap(query.key());
+        if (saved != null) {
+            this.lookupCache.lookup(query.key(), query.scheme(), () -> loadEndpoints(query, timeoutMs),
+                    Promises.<List<ServiceEndpoint>>promise()
+                            .catchError(error -> logger.debug("live lookup of {} failed", query, error))
+                            .asHandler());
+        }
+        return saved;
+    }
 
+    /**
+     * Look a query up with its discovery service within its budget, recording the latency and outcome in the metrics
+     * and the results in the snapshot.  Cache hits and lookups that join one already in flight never get here, so
+     * only the lookups that reach a discovery service are measured.
+     */
+    private Promise<List<ServiceEndpoint>> loadEndpoints(final DiscoveryQuery query, final long timeoutMs) {
+        final Promise<List<ServiceEndpoint>> loaded = this.deadlines.bound(onProvider(query.scheme(),
+                provider -> timeoutMs > 0
+                        ? provider.lookupEndpoints(query.providerQuery(), Duration.ofMillis(timeoutMs))
+                        : provider.lookupEndpoints(query.providerQuery())), timeoutMs, query);
+        final DiscoveryMetrics metrics = this.metrics;
+        final LookupSnapshot snapshot = this.snapshot;
+        if (metrics == DiscoveryMetrics.NONE && snapshot == null) return loaded;
+        final String scheme = query.scheme();
+        return invokablePromise(promise -> {
+            metrics.lookupStarted(scheme);
+            final long start = System.nanoTime();
+            loaded.asHandler().invokeWithPromise(Promises.<List<ServiceEndpoint>>promise()
+                    .then(results -> {
+                        metrics.lookupSucceeded(scheme, System.nanoTime() - start, results.size());
+                        if (snapshot != null) snapshot.record(query.key(), results);
+                        promise.resolve(results);
+                    })
+                    .catchError(error -> {
+                        metrics.lookupFailed(scheme, System.nanoTime() - start, error);
+                        promise.reject(error);
+                    }));
         });
     }
 
     /**
-     * Register a service for a scheme
+     * Call the provider for a scheme, counting the call as in flight on it until the result arrives, so a provider
+     * that is replaced or removed meanwhile is not closed under the call.
+     */
+    private <T> Promise<T> onProvider(final String scheme, final Function<DiscoveryService, Promise<T>> call) {
+        return invokablePromise(promise -> {
+            final ProviderRegistry.Provider provider = this.providers.acquire(scheme);
+            if (provider == null) {
+                promise.reject("discovery scheme not registered: " + QUERY_SCHEME + ":" + scheme);
+                return;
+            }
+            try {
+                call.apply(provider.service()).asHandler().invokeWithPromise(Promises.<T>promise()
+                        .then(result -> {
+                            provider.release();
+                            promise.resolve(result);
+                        })
+                        .catchError(error -> {
+                            provider.release();
+                            promise.reject(error);
+                        }));
+            } catch (final RuntimeException e) {
+                provider.release();
+                promise.reject(e);
+            }
+        });
+    }
+
+    /**
+     * Lookup many services at once.  Registered, snapshot and cached results are used when present, the other queries
+     * are grouped by scheme and each group is handed to its discovery service as one batch, asking once for queries
+     * that only differ in their budget.  The batch is rejected once the smallest budget of the queries it has to
+     * wait on is spent.
+     *
+     * @param queries the URIs that define your queries
+     * @return a Promise for the results of each query, in query order
+     */
+    @Override
+    public Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries) {
+        logger.debug("looking up services for queries: {}", queries);
+
+        return invokablePromise(callback -> {
+            final Set<URI> distinct = new LinkedHashSet<>(queries);
+            final Map<URI, List<URI>> results = new ConcurrentHashMap<>();
+            final Map<String, Map<URI, List<URI>>> misses = new LinkedHashMap<>();
+            long timeoutMs = 0;
+            for (final URI query : distinct) {
+                final DiscoveryQuery compiled;
+                try {
+                    compiled = this.compiledQueries.compile(query);
+                } catch (final IllegalArgumentException e) {
+                    callback.reject(e.getMessage());
+                    return;
+                }
+                final String scheme = compiled.scheme();
+                if (!this.providers.contains(scheme)) {
+                    callback.reject("discovery scheme not registered: " + QUERY_SCHEME + ":" + scheme);
+                    return;
+                }
+                List<ServiceEndpoint> cached = this.refresher.get(compiled.key());
+                if (cached == null) cached = bootstrap(compiled, this.deadlines.timeoutMs(compiled));
+                if (cached == null) cached = this.lookupCache.get(compiled.key());
+                if (cached != null) {
+                    results.put(query, ServiceEndpoint.toURIs(cached));
+                } else {
+                    misses.computeIfAbsent(scheme, key -> new LinkedHashMap<>())
+                            .computeIfAbsent(compiled.providerQuery(), key -> new ArrayList<>()).add(query);
+                    final long queryTimeoutMs = this.deadlines.timeoutMs(compiled);
+                    if (queryTimeoutMs > 0 && (timeoutMs == 0 || queryTimeoutMs < timeoutMs)) {
+                        timeoutMs = queryTimeoutMs;
+                    }
+                }
+            }
+            if (misses.isEmpty()) {
+                final Map<URI, List<URI>> ordered = new LinkedHashMap<>();
+                distinct.forEach(query -> ordered.put(query, results.get(query)));
+                callback.resolve(ordered);
+                return;
+            }
+            final Callback<Map<URI, List<URI>>> promise = this.deadlines.guard(callback, timeoutMs, misses.values());
+            final long batchTimeoutMs = timeoutMs;
+
+            Lookups.all(misses.keySet(),
+                    scheme -> loadBatch(scheme, misses.get(scheme).keySet(), batchTimeoutMs),
+                    Integer.MAX_VALUE
+            ).asHandler().invokeWithPromise(Promises.<Map<String, Map<URI, List<URI>>>>promise()
+                    .then(byScheme -> {
+                        for (final Map.Entry<String, Map<URI, List<URI>>> batch : misses.entrySet()) {
+                            final Map<URI, List<URI>> found = byScheme.get(batch.getKey());
+                            for (final URI providerQuery : batch.getValue().keySet()) {
+                                if (found == null || found.get(providerQuery) == null) {
+                                    promise.reject("discovery service " + QUERY_SCHEME + ":" + batch.getKey()
+                                            + " returned no result for " + providerQuery);
+                                    return;
+                                }
+                            }
+                        }
+                        misses.forEach((scheme, batch) -> batch.forEach((providerQuery, asked) -> {
+                            final List<URI> uris = byScheme.get(scheme).get(providerQuery);
+                            final String key = this.compiledQueries.compile(asked.get(0)).key();
+                            final List<ServiceEndpoint> endpoints = Collections.unmodifiableList(uris.stream()
+                                    .map(ServiceEndpoint::fromURI)
+                                    .collect(Collectors.toList()));
+                            this.lookupCache.put(key, scheme, endpoints);
+                            if (this.snapshot != null) this.snapshot.record(key, endpoints);
+                            asked.forEach(query -> results.put(query, uris));
+                        }));
+                        final Map<URI, List<URI>> ordered = new LinkedHashMap<>();
+                        distinct.forEach(query -> ordered.put(query, results.get(query)));
+                        promise.resolve(ordered);
+                    })
+                    .catchError(promise::reject));
+        });
+    }
+
+    /**
+     * Look a group of queries up with their discovery service as one batch within the budget, recording each query in
+     * the metrics as a lookup of its own that took as long as the batch.
+     */
+    private Promise<Map<URI, List<URI>>> loadBatch(final String scheme,
+                                                   final Collection<URI> providerQueries,
+                                                   final long timeoutMs) {
+        final Promise<Map<URI, List<URI>>> loaded = onProvider(scheme, provider -> timeoutMs > 0
+                ? provider.lookupServices(providerQueries, Duration.ofMillis(timeoutMs))
+                : provider.lookupServices(providerQueries));
+        final DiscoveryMetrics metrics = this.metrics;
+        if (metrics == DiscoveryMetrics.NONE) return loaded;
+        return invokablePromise(promise -> {
+            providerQueries.forEach(query -> metrics.lookupStarted(scheme));
+            final long start = System.nanoTime();
+            loaded.asHandler().invokeWithPromise(Promises.<Map<URI, List<URI>>>promise()
+                    .then(found -> {
+                        final long elapsed = System.nanoTime() - start;
+                        providerQueries.forEach(query -> {
+                            final List<URI> uris = found.get(query);
+                            metrics.lookupSucceeded(scheme, elapsed, uris == null ? 0 : uris.size());
+                        });
+                        promise.resolve(found);
+                    })
+                    .catchError(error -> {
+                        final long elapsed = System.nanoTime() - start;
+                        providerQueries.forEach(query -> metrics.lookupFailed(scheme, elapsed, error));
+                        promise.reject(error);
+                    }));
+        });
+    }
+
+    /**
+     * Register queries to be kept in memory and refreshed in the background.  Each query is looked up now, in
+     * parallel, and then refreshed on a Vert.x timer whose interval shrinks while its endpoints are changing and grows
+     * while they are stable.  Lookups of a registered query return its last results without waiting on the backend.
+     * A query the snapshot has results for is resolved with them while its first live lookup runs in the background.
+     *
+     * @param queries the URIs that define your queries
+     * @return a Promise for the first results of each query, in query order, rejected if any lookup fails
+     */
+    @Override
+    public Promise<Map<URI, List<URI>>> registerQueries(final Collection<URI> queries) {
+        logger.debug("registering queries: {}", queries);
+
+        return invokablePromise(promise -> {
+            final Map<URI, DiscoveryQuery> compiled = new LinkedHashMap<>();
+            for (final URI query : queries) {
+                final DiscoveryQuery discoveryQuery;
+                try {
+                    discoveryQuery = this.compiledQueries.compile(query);
+                } catch (final IllegalArgumentException e) {
+                    promise.reject(e.getMessage());
+                    return;
+                }
+                if (!this.providers.contains(discoveryQuery.scheme())) {
+                    promise.reject("discovery scheme not registered: " + QUERY_SCHEME + ":" + discoveryQuery.scheme());
+                    return;
+                }
+                compiled.put(query, discoveryQuery);
+            }
+            Lookups.all(compiled.keySet(), query -> Lookups.uris(register(compiled.get(query))), Integer.MAX_VALUE)
+                    .asHandler().invokeWithPromise(Promises.<Map<URI, List<URI>>>promise()
+                            .then(promise::resolve)
+                            .catchError(promise::reject));
+        });
+    }
+
+    /**
+     * Register a query with the refresher.  Like a lookup, a query the snapshot has results for resolves with them at
+     * once, so registering during a backend outage at start up does not fail.
+     */
+    private Promise<List<ServiceEndpoint>> register(final DiscoveryQuery query) {
+        final Promise<List<ServiceEndpoint>> registered = this.refresher.register(query,
+                () -> loadEndpoints(query, this.deadlines.timeoutMs(query)));
+        final List<ServiceEndpoint> saved = this.snapshot == null ? null : this.snapshot.bootstrap(query.key());
+        if (saved == null) return registered;
+        return invokablePromise(promise -> {
+            promise.resolve(saved);
+            registered.asHandler().invokeWithPromise(Promises.<List<ServiceEndpoint>>promise()
+                    .catchError(error -> logger.debug("first live lookup of {} failed", query, error)));
+        });
+    }
+
+    /**
+     * Watch a service with a URI Query.  The watch is delegated to the service registered for the query scheme.
+     *
+     * @param query    the URI that defines your query
+     * @param listener called with the endpoints that match your query whenever they change
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Consumer<List<URI>> listener) {
+        logger.debug("watching service for query: {}", query);
+
+        final DiscoveryQuery compiled = this.compiledQueries.compile(query);
+        return watchProvider(compiled).watchService(compiled.providerQuery(), listener);
+    }
+
+    /**
+     * Watch a service with a URI Query, polling every {@code pollInterval} if the service registered for the query
+     * scheme cannot push changes.
+     *
+     * @param query        the URI that defines your query
+     * @param pollInterval the delay between polls
+     * @param listener     called with the endpoints that match your query whenever they change
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Duration pollInterval,
+                                     final Consumer<List<URI>> listener) {
+        logger.debug("watching service for query: {}", query);
+
+        final DiscoveryQuery compiled = this.compiledQueries.compile(query);
+        return watchProvider(compiled).watchService(compiled.providerQuery(), pollInterval, listener);
+    }
+
+    private DiscoveryService watchProvider(final DiscoveryQuery compiled) {
+        final DiscoveryService discoveryServiceProvider = this.providers.get(compiled.scheme());
+        if (discoveryServiceProvider == null) {
+            throw new IllegalArgumentException("discovery scheme not registered: " + QUERY_SCHEME + ":"
+                    + compiled.scheme());
+        }
+        return discoveryServiceProvider;
+    }
+
+    /**
+     * Stop refreshing registered queries, write the snapshot, close every registered discovery service, rejecting
+     * their lookups in flight, stop the metrics if this service created them, and close the Vert.x instance if this
+     * service created it.
+     */
+    @Override
+    public void close() {
+        if (this.refresher != null) this.refresher.close();
+        if (this.snapshot != null) this.snapshot.close();
+        if (this.providers != null) this.providers.close();
+        if (this.lookupCache != null) this.lookupCache.clear();
+        if (this.ownsMetrics && this.metrics instanceof DefaultDiscoveryMetrics) {
+            ((DefaultDiscoveryMetrics) this.metrics).close();
+        }
+        if (this.ownsVertx) this.vertx.close();
+    }
+
+    /**
+     * Register a discovery service for a scheme that has none.
      *
      * @param scheme  the discovery scheme for queries
      * @param service the service to register
+     * @return false if the scheme already has a discovery service, which is left in place
      */
-    void registerService(final String scheme, final DiscoveryService service) {
-        Objects.requireNonNull(scheme, "scheme must not be null");
-        Objects.requireNonNull(service, "service must be set.");
+    public boolean addProvider(final String scheme, final DiscoveryService service) {
+        final boolean added = this.providers.add(scheme, service);
+        if (added) logger.info("adding {} to handle discovery for the schema {}", service.getClass().getSimpleName(),
+                scheme);
+        return added;
+    }
+
+    /**
+     * Register a discovery service for a scheme, replacing the current one.  Lookups already running on the
+     * replaced service complete before it is closed, new lookups go to the new service, and cached results are kept.
+     *
+     * @param scheme  the discovery scheme for queries
+     * @param service the service to register
+     */
+    public void replaceProvider(final String scheme, final DiscoveryService service) {
+        this.providers.replace(scheme, service);
         logger.info("registering {} to handle discovery for the schema {}", service.getClass().getSimpleName(), scheme);
-        this.discoveryServices.put(scheme, service);
+    }
+
+    /**
+     * Remove the discovery service for a scheme.  It is closed once the lookups already running on it complete.
+     *
+     * @param scheme the discovery scheme for queries
+     * @return false if the scheme has no discovery service
+     */
+    public boolean removeProvider(final String scheme) {
+        logger.info("removing the discovery service for the schema {}", scheme);
+        return this.providers.remove(scheme);
+    }
+
+    /**
+     * Create discovery services from configuration URIs with the registered factories, and replace the services of
+     * their schemes with them, e.g. to move to new Consul agents after a configuration push.  Every service is
+     * created before any is replaced, so a bad configuration changes nothing.  The cache, metrics, refresh, snapshot
+     * and deadline configuration cannot be changed this way.
+     *
+     * @param endpointConfigurations URIs that configure the discovery service factories
+     */
+    public void reconfigure(final URI... endpointConfigurations) {
+        final Map<String, List<URI>> configMap = new LinkedHashMap<>();
+        Arrays.asList(endpointConfigurations).forEach(uri ->
+                configMap.computeIfAbsent(uri.getScheme(), scheme -> new ArrayList<>()).add(uri)
+        );
+        configMap.keySet().forEach(scheme -> {
+            if (LookupCache.SCHEME.equals(scheme) || DefaultDiscoveryMetrics.SCHEME.equals(scheme)
+                    || QueryRefresher.SCHEME.equals(scheme) || LookupSnapshot.SCHEME.equals(scheme)
+                    || LookupDeadlines.SCHEME.equals(scheme)) {
+                throw new IllegalArgumentException(scheme + " configuration cannot be changed at runtime");
+            }
+        });
+        final Map<String, DiscoveryService> created = new LinkedHashMap<>();
+        try {
+            configMap.forEach((scheme, uris) -> created.put(scheme, createProvider(scheme, uris)));
+        } catch (final RuntimeException e) {
+            created.values().forEach(DiscoveryService::close);
+            throw e;
+        }
+        created.forEach(this::replaceProvider);
+    }
+
+    /**
+     * Register a service for a scheme, replacing the current one.
+     *
+     * @param scheme  the discovery scheme for queries
+     * @param service the service to register
+     */
+    void registerService(final String scheme, final DiscoveryService service) {
+        replaceProvider(scheme, service);
+    }
+
+    LookupSnapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    QueryRefresher getRefresher() {
+        return this.refresher;
+    }
+
+    DiscoveryMetrics getMetrics() {
+        return this.metrics;
     }
 
     /**
@@ -124,6 +716,6 @@ public class DiscoveryServiceImpl implements DiscoveryService {
      * @return the list
      */
     List<Class> getRegisteredServiceClasses() {
-        return this.discoveryServices.values().stream().map(DiscoveryService::getClass).collect(Collectors.toList());
+        return this.providers.services().stream().map(DiscoveryService::getClass).collect(Collectors.toList());
     }
 }
@@ -1,23 +1,37 @@
 package io.advantageous.discovery.impl;
 
 import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.spi.DiscoveryMetrics;
+import io.advantageous.discovery.utils.Lookups;
 import io.advantageous.discovery.utils.UriUtils;
 import io.advantageous.reakt.Callback;
 import io.advantageous.reakt.promise.Promise;
 import io.advantageous.reakt.promise.Promises;
 import io.vertx.core.Vertx;
-import io.vertx.core.dns.SrvRecord;
+import io.vertx.core.dns.DnsException;
+import io.vertx.core.dns.DnsResponseCode;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.io.IOException;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static io.advantageous.reakt.promise.Promises.invokablePromise;
@@ -37,64 +51,217 @@ class DnsDiscoveryService implements DiscoveryService {
     private static final String A_SCHEME = "A";
     private static final String SRV_SCHEME = "SRV";
     private static final String CONFIG_ONLY = "CONFIG";
+    private static final String HEDGE_KEY = "hedge";
+    private static final String HEDGE_PERCENTILE_KEY = "hedgePercentile";
+    private static final String HEDGE_DELAY_KEY = "hedgeDelay";
+    private static final double DEFAULT_HEDGE_PERCENTILE = 95;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 50;
+    private static final long MIN_HEDGE_DELAY_MS = 5;
+    private static final String TIMEOUT_KEY = "timeout";
+    private static final String ATTEMPTS_KEY = "attempts";
+    private static final String ROTATE_KEY = "rotate";
+    private static final String CACHE_SIZE_KEY = "cacheSize";
+    private static final int DEFAULT_CACHE_SIZE = 4_096;
+    private static final String RESOLV_CONF_KEY = "resolvConf";
+    private static final String WATCH_RESOLV_CONF_KEY = "watchResolvConf";
+    private static final String DEFAULT_RESOLV_CONF = "/etc/resolv.conf";
+    private static final String BATCH_CONCURRENCY_KEY = "batchConcurrency";
+    private static final int DEFAULT_BATCH_CONCURRENCY = 16;
+
+    /**
+     * The URIs of A and SRV results, in the form {@link #lookupService} has always returned them.
+     */
+    private static final Function<ServiceEndpoint, String> A_URI = endpoint ->
+            RESULT_SCHEME + "://" + endpoint.host() + ":" + endpoint.port() + "/";
+    private static final Function<ServiceEndpoint, String> SRV_URI = endpoint ->
+            RESULT_SCHEME + "://" + endpoint.host() + ":" + endpoint.port() + "/" + endpoint.name()
+                    + "?priority=" + endpoint.priority() + "&weight=" + endpoint.weight();
 
     private final Vertx vertx;
-    private final List<URI> dnsHosts;
+    private final boolean ownsVertx;
+    private final Path resolvConfFile;
+    private final List<URI> configuredHosts;
+    private final boolean hedge;
+    private final long timeoutMs;
+    private final int attempts;
+    private final Boolean rotate;
+    private final int batchConcurrency;
+    private final AtomicInteger rotation = new AtomicInteger();
+    private final FileWatcher resolvConfWatcher;
+    private volatile ResolvConf resolvConf;
+    private volatile List<URI> dnsHosts;
+    private final NameserverStats nameserverStats;
+    private final DiscoveryMetrics metrics;
+    private final NioDnsResolver resolver;
+    private final PendingLookups pendingLookups = new PendingLookups();
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
 
     DnsDiscoveryService(final URI... configs) {
+        this(checkConfigs(configs), Vertx.vertx(), true, DiscoveryMetrics.NONE);
+    }
 
+    DnsDiscoveryService(final Vertx vertx, final URI... configs) {
+        this(vertx, DiscoveryMetrics.NONE, configs);
+    }
 
-        this.vertx = Vertx.vertx();
-        this.dnsHosts = readDnsConf();
+    DnsDiscoveryService(final Vertx vertx, final DiscoveryMetrics metrics, final URI... configs) {
+        this(checkConfigs(configs), Objects.requireNonNull(vertx, "vertx must not be null"), false,
+                Objects.requireNonNull(metrics, "metrics must not be null"));
+    }
+
+    private DnsDiscoveryService(final URI[] configs,
+                                final Vertx vertx,
+                                final boolean ownsVertx,
+                                final DiscoveryMetrics metrics) {
+
+        this.vertx = vertx;
+        this.ownsVertx = ownsVertx;
+        this.metrics = metrics;
+
+        /*
+        Resolver options can be set on any of the configuration URIs, e.g. dns://CONFIG?hedge=true&timeout=2000
+         */
+        final Map<String, String> options = new HashMap<>();
+        Arrays.stream(configs).forEach(uri -> options.putAll(UriUtils.splitQuery(uri.getQuery())));
+        this.resolvConfFile = Paths.get(options.getOrDefault(RESOLV_CONF_KEY, DEFAULT_RESOLV_CONF));
+        this.hedge = Boolean.parseBoolean(options.getOrDefault(HEDGE_KEY, "false"));
+        this.batchConcurrency = Integer.parseInt(options.getOrDefault(BATCH_CONCURRENCY_KEY,
+                String.valueOf(DEFAULT_BATCH_CONCURRENCY)));
+        this.nameserverStats = new NameserverStats(
+                Double.parseDouble(options.getOrDefault(HEDGE_PERCENTILE_KEY,
+                        String.valueOf(DEFAULT_HEDGE_PERCENTILE))),
+                Long.parseLong(options.getOrDefault(HEDGE_DELAY_KEY, String.valueOf(DEFAULT_HEDGE_DELAY_MS))),
+                MIN_HEDGE_DELAY_MS);
+        /*
+        timeout, attempts and rotate override the options of resolv.conf, which can change on reload.
+         */
+        this.timeoutMs = Long.parseLong(options.getOrDefault(TIMEOUT_KEY, "0"));
+        this.attempts = Integer.parseInt(options.getOrDefault(ATTEMPTS_KEY, "0"));
+        this.rotate = options.containsKey(ROTATE_KEY) ? Boolean.valueOf(options.get(ROTATE_KEY)) : null;
 
         if (configs.length == 1 && configs[0].getHost().equals(CONFIG_ONLY)) {
             //No op
             logger.debug("Using config only");
+            this.configuredHosts = Collections.emptyList();
         } else {
-            this.dnsHosts.addAll(Arrays.stream(configs)
-                    .peek(uri -> {
-                        if (!SCHEME.equals(uri.getScheme()))
-                            throw new IllegalArgumentException("scheme for docker service config must be " + SCHEME);
-                    })
-                    .map(uri -> URI.create(uri.getSchemeSpecificPart())).collect(Collectors.toList())
-            );
+            this.configuredHosts = Arrays.stream(configs)
+                    .map(uri -> URI.create(uri.getSchemeSpecificPart())).collect(Collectors.toList());
         }
+        this.reloadResolvConf();
+        this.resolver = new NioDnsResolver(vertx, this.timeoutMs(),
+                Integer.parseInt(options.getOrDefault(CACHE_SIZE_KEY, String.valueOf(DEFAULT_CACHE_SIZE))));
+        this.resolvConfWatcher = Boolean.parseBoolean(options.getOrDefault(WATCH_RESOLV_CONF_KEY, "false"))
+                ? watch(this.resolvConfFile) : null;
+    }
 
+    private FileWatcher watch(final Path file) {
+        try {
+            return new FileWatcher(file, this::reloadResolvConf);
+        } catch (final IllegalStateException e) {
+            logger.warn("changes to " + file + " will not be picked up", e);
+            return null;
+        }
     }
 
-    static List<URI> readDnsConf() {
-        final File file = new File("/etc/resolv.conf");
-        if (file.exists()) {
-            try {
-                return Files.lines(file.toPath()).filter(line -> line.startsWith("nameserver"))
-                        .map(line -> {
-                            final String uriToParse = line.replace("nameserver ", "").trim();
-                            final String[] split = uriToParse.split(":");
-                            try {
-                                if (split.length == 1) {
-                                    return new URI("dns", "", split[0], 53, "", "", "");
-                                } else if (split.length >= 2) {
-                                    return new URI("dns", "", split[0], Integer.parseInt(split[1]), "", "", "");
-                                } else {
-                                    throw new IllegalStateException("Unable to parse URI from /etc/resolv.conf");
-                                }
-                            } catch (URISyntaxException e) {
-                                throw new IllegalStateException("failed to convert to URI");
-                            }
-
-                        })
-                        .collect(Collectors.toList());
-            } catch (IOException e) {
-                throw new IllegalStateException("can not read /etc/resolv.conf", e);
-            }
-        } else {
-            throw new IllegalStateException("" + file + " not found");
+    /**
+     * Read resolv.conf again.  Lookups already started keep the name servers they started with.  When the name
+     * servers change, the answers cached from the old ones are dropped.
+     */
+    void reloadResolvConf() {
+        final ResolvConf conf = ResolvConf.read(this.resolvConfFile);
+        final ResolvConf previous = this.resolvConf;
+        if (previous != null && previous.equals(conf)) return;
+        final List<URI> hosts = new ArrayList<>(conf.nameservers());
+        hosts.addAll(this.configuredHosts);
+        this.resolvConf = conf;
+        this.dnsHosts = Collections.unmodifiableList(hosts);
+        if (previous != null && !previous.nameservers().equals(conf.nameservers()) && this.resolver != null) {
+            this.resolver.clearCache();
+        }
+        if (previous != null) {
+            logger.info("reloaded {}, name servers {}, search {}", this.resolvConfFile, hosts, conf.search());
+        } else if (hosts.isEmpty()) {
+            logger.warn("no name servers in {} or the configuration", this.resolvConfFile);
         }
     }
 
+    private long timeoutMs() {
+        return this.timeoutMs > 0 ? this.timeoutMs : this.resolvConf.timeoutMs();
+    }
+
+    private int attempts() {
+        return this.attempts > 0 ? this.attempts : this.resolvConf.attempts();
+    }
+
+    private boolean rotate() {
+        return this.rotate != null ? this.rotate : this.resolvConf.rotate();
+    }
+
+    private static URI[] checkConfigs(final URI[] configs) {
+        Arrays.stream(configs).forEach(uri -> {
+            if (!SCHEME.equals(uri.getScheme()))
+                throw new IllegalArgumentException("scheme for docker service config must be " + SCHEME);
+        });
+        return configs;
+    }
+
+    static List<URI> readDnsConf() {
+        return readDnsConf(new File(DEFAULT_RESOLV_CONF));
+    }
+
+    static List<URI> readDnsConf(final File file) {
+        return new ArrayList<>(ResolvConf.read(file.toPath()).nameservers());
+    }
+
+    /**
+     * Lookup many services in parallel, with at most {@code batchConcurrency} (default 16) queries in flight so a
+     * large batch does not flood the name servers.
+     *
+     * @param queries the dns queries
+     * @return a promise for the results of each query, in query order
+     */
+    @Override
+    public Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries) {
+        return Lookups.all(queries, this::lookupService, batchConcurrency);
+    }
+
+    /**
+     * Lookup many services in parallel like {@link #lookupServices(Collection)}, giving each query the time budget.
+     *
+     * @param queries the dns queries
+     * @param timeout the time budget of the batch
+     * @return a promise for the results of each query, in query order
+     */
+    @Override
+    public Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries, final Duration timeout) {
+        Objects.requireNonNull(timeout, "timeout must not be null");
+        return Lookups.all(queries, query -> lookupService(query, timeout), batchConcurrency);
+    }
+
     @Override
     public Promise<List<URI>> lookupService(final URI query) {
+        return Lookups.uris(lookupEndpoints(query));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query) {
+        return lookup(query, 0);
+    }
+
+    /**
+     * Lookup a service within a time budget.  Each name server is given at most the budget that is left, no other
+     * name server is tried once it is spent, and the lookup is then rejected with a {@link TimeoutException}.
+     *
+     * @param query   the dns query
+     * @param timeout the time budget of the lookup
+     * @return a promise for the endpoints
+     */
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query, final Duration timeout) {
+        return lookup(query, Objects.requireNonNull(timeout, "timeout must not be null").toMillis());
+    }
+
+    private Promise<List<ServiceEndpoint>> lookup(final URI query, final long budgetMs) {
 
         return invokablePromise(promise -> {
 
@@ -107,6 +274,8 @@ class DnsDiscoveryService implements DiscoveryService {
                 return;
             }
 
+            if (!this.pendingLookups.begin(promise)) return;
+
             final URI dnsQuery = URI.create(query.getSchemeSpecificPart());
 
             switch (dnsQuery.getScheme()) {
@@ -114,80 +283,257 @@ class DnsDiscoveryService implements DiscoveryService {
                 case A_SCHEME:
                     final String portString = UriUtils.splitQuery(dnsQuery.getQuery()).get(PORT_QUERY_KEY);
                     if (portString == null) {
-                        promise.reject("a port must be set in the query string for a A RECORD query.");
+                        this.pendingLookups.reject(promise,
+                                "a port must be set in the query string for a A RECORD query.");
                         return;
                     }
                     final int port;
                     try {
                         port = Integer.parseInt(portString);
                     } catch (final NumberFormatException e) {
-                        promise.reject("the port in the query string must be an integer", e);
+                        this.pendingLookups.reject(promise, "the port in the query string must be an integer", e);
                         return;
                     }
 
-                    resolveA(0, dnsQuery.getPath().substring(1), port, promise);
+                    resolveA(dnsQuery.getPath().substring(1), port, budgetMs, promise);
                     break;
 
                 case SRV_SCHEME:
-                    resolveSRV(0, dnsQuery.getPath().substring(1), promise);
+                    resolveSRV(dnsQuery.getPath().substring(1), budgetMs, promise);
                     break;
 
                 default:
-                    promise.reject(new IllegalArgumentException("dns queries must have a schema of A or SRV"));
+                    this.pendingLookups.reject(promise,
+                            new IllegalArgumentException("dns queries must have a schema of A or SRV"));
             }
         });
     }
 
-    private void resolveA(final int hostIndex,
-                          final String serviceName,
+    private void resolveA(final String serviceName,
                           final int port,
-                          final Callback<List<URI>> promise) {
+                          final long budgetMs,
+                          final Callback<List<ServiceEndpoint>> promise) {
+        new Search(promise, serviceName, DnsMessage.TYPE_A, budgetMs,
+                list -> list.stream()
+                        .map(record -> new ServiceEndpoint(record.address(), port, null, null,
+                                ServiceEndpoint.DEFAULT_PRIORITY, ServiceEndpoint.DEFAULT_WEIGHT, null, A_URI))
+                        .peek(endpoint -> this.logger.debug("found service in dns A: {}", endpoint))
+                        .collect(Collectors.toList())
+        ).start();
+    }
+
+    private void resolveSRV(final String serviceName,
+                            final long budgetMs,
+                            final Callback<List<ServiceEndpoint>> promise) {
+        new Search(promise, serviceName, DnsMessage.TYPE_SRV, budgetMs,
+                list -> list.stream()
+                        .map(srv -> new ServiceEndpoint(srv.target(), srv.port(), srv.serviceName(), null,
+                                srv.priority(), srv.weight(), null, SRV_URI))
+                        .peek(endpoint -> this.logger.debug("found service in dns SRV: {}", endpoint))
+                        .collect(Collectors.toList())
+        ).start();
+    }
 
-        if (hostIndex >= this.dnsHosts.size()) {
-            promise.resolve(Collections.emptyList());
-            return;
+    /**
+     * The name servers for one lookup: best ranked first, or with {@code rotate} starting one further along the
+     * configured order for each lookup.
+     */
+    private List<URI> nameservers() {
+        final List<URI> configured = this.dnsHosts;
+        final List<URI> ordered;
+        if (rotate() && configured.size() > 1) {
+            final int offset = Math.floorMod(rotation.getAndIncrement(), configured.size());
+            ordered = new ArrayList<>(configured.subList(offset, configured.size()));
+            ordered.addAll(configured.subList(0, offset));
+        } else {
+            ordered = nameserverStats.rank(configured);
+        }
+        return ordered;
+    }
+
+    /**
+     * One lookup of a name.  The names made from the search domains of resolv.conf are looked up in parallel, and the
+     * first name in search order with records wins once every name before it has come back without any.  The lookup
+     * resolves to an empty list if no name has records, and is rejected with a {@link TimeoutException} if the budget
+     * was spent on a name before one with records was found.
+     */
+    private final class Search {
+
+        private final Callback<List<ServiceEndpoint>> promise;
+        private final Function<List<DnsMessage.Record>, List<ServiceEndpoint>> mapper;
+        private final List<DnsLookup> lookups = new ArrayList<>();
+        private final List<List<DnsMessage.Record>> answers;
+        private volatile boolean done;
+        private Throwable timeout;
+
+        private Search(final Callback<List<ServiceEndpoint>> promise,
+                       final String name,
+                       final int type,
+                       final long budgetMs,
+                       final Function<List<DnsMessage.Record>, List<ServiceEndpoint>> mapper) {
+            this.promise = promise;
+            this.mapper = mapper;
+            final List<String> candidates = resolvConf.candidates(name);
+            final List<URI> servers = nameservers();
+            final List<URI> hosts = new ArrayList<>();
+            for (int attempt = attempts(); attempt > 0; attempt--) {
+                hosts.addAll(servers);
+            }
+            final boolean hedgeServers = hedge && servers.size() > 1;
+            final long queryTimeoutMs = timeoutMs();
+            for (int index = 0; index < candidates.size(); index++) {
+                this.lookups.add(new DnsLookup(this, index, candidates.get(index), type, budgetMs, hosts,
+                        hedgeServers, queryTimeoutMs));
+            }
+            this.answers = new ArrayList<>(Collections.nCopies(candidates.size(), null));
         }
 
-        final URI currentHost = this.dnsHosts.get(hostIndex);
+        private void start() {
+            lookups.forEach(DnsLookup::start);
+        }
 
-        this.vertx.createDnsClient(currentHost.getPort(), currentHost.getHost()).resolveA(serviceName,
-                convertPromise(Promises.<List<String>>promise()
-                        .then(list -> promise.resolve(list.stream()
-                                .map(ipAddress -> URI.create(RESULT_SCHEME + "://" + ipAddress + ":" + port + "/"))
-                                .peek(uri -> this.logger.debug("found service in dns A: {}", uri.toString()))
-                                .collect(Collectors.toList())
-                        ))
-                        .catchError(error -> {
-                            this.logger.warn("dns lookup failed: ", error);
-                            resolveA(hostIndex + 1, serviceName, port, promise);
-                        })
-                )
-        );
+        private synchronized void complete(final int index, final List<DnsMessage.Record> records,
+                                           final Throwable error) {
+            if (done) return;
+            answers.set(index, records);
+            if (error != null) timeout = error;
+            for (final List<DnsMessage.Record> answer : answers) {
+                if (answer == null) return;
+                if (!answer.isEmpty()) {
+                    done = true;
+                    pendingLookups.resolve(promise, mapper.apply(answer));
+                    return;
+                }
+            }
+            done = true;
+            if (timeout != null) {
+                pendingLookups.reject(promise, timeout);
+            } else {
+                pendingLookups.resolve(promise, Collections.emptyList());
+            }
+        }
     }
 
-    private void resolveSRV(final int hostIndex, final String serviceName, final Callback<List<URI>> promise) {
+    /**
+     * One name looked up across the name servers in order.  A failed server moves the lookup on to the next one, and
+     * a name error ends it, since every server would give the same answer.  In hedge mode, the next server is also
+     * asked if the first has not answered within the hedge delay, and the first good answer wins.  If every server
+     * fails the name has no records.  With a budget, no server waits longer than the budget that is left, and the
+     * name times out once it is spent.
+     */
+    private final class DnsLookup {
+
+        private final Search search;
+        private final int index;
+        private final String name;
+        private final int type;
+        private final long budgetMs;
+        private final long startNanos = System.nanoTime();
+        private final List<URI> hosts;
+        private final boolean hedgeServers;
+        private final long queryTimeoutMs;
+        private final AtomicInteger next = new AtomicInteger();
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private DnsLookup(final Search search,
+                          final int index,
+                          final String name,
+                          final int type,
+                          final long budgetMs,
+                          final List<URI> hosts,
+                          final boolean hedgeServers,
+                          final long queryTimeoutMs) {
+            this.search = search;
+            this.index = index;
+            this.name = name;
+            this.type = type;
+            this.budgetMs = budgetMs;
+            this.hosts = hosts;
+            this.hedgeServers = hedgeServers;
+            this.queryTimeoutMs = queryTimeoutMs;
+        }
+
+        private void start() {
+            send();
+            if (hedgeServers) {
+                vertx.setTimer(nameserverStats.hedgeDelayMs(), timer -> {
+                    if (!done.get() && !search.done) send();
+                });
+            }
+        }
 
-        if (hostIndex >= dnsHosts.size()) {
-            promise.resolve(Collections.emptyList());
-            return;
+        private void send() {
+            final long remainingMs = budgetMs > 0 ? budgetMs - elapsedMs(startNanos) : queryTimeoutMs;
+            if (remainingMs <= 0) {
+                if (outstanding.get() == 0 && done.compareAndSet(false, true)) {
+                    search.complete(index, Collections.emptyList(), new TimeoutException("dns lookup of " + name
+                            + " timed out after " + budgetMs + " ms"));
+                }
+                return;
+            }
+            final int hostIndex = next.getAndIncrement();
+            if (hostIndex >= hosts.size()) {
+                if (outstanding.get() == 0 && done.compareAndSet(false, true)) {
+                    search.complete(index, Collections.emptyList(), null);
+                }
+                return;
+            }
+            if (pendingLookups.isClosed() || search.done) return;
+
+            final URI currentHost = hosts.get(hostIndex);
+            final String backend = currentHost.getAuthority();
+            final long timeoutMs = Math.min(queryTimeoutMs, remainingMs);
+            final long start = System.nanoTime();
+            outstanding.incrementAndGet();
+            metrics.backendStarted(SCHEME, backend);
+
+            resolver.query(currentHost, name, type, timeoutMs,
+                    convertPromise(Promises.<List<DnsMessage.Record>>promise()
+                            .then(list -> {
+                                outstanding.decrementAndGet();
+                                nameserverStats.success(currentHost, elapsedMs(start));
+                                metrics.backendCompleted(SCHEME, backend, System.nanoTime() - start, true);
+                                if (done.compareAndSet(false, true)) {
+                                    search.complete(index, list, null);
+                                }
+                            })
+                            .catchError(error -> {
+                                outstanding.decrementAndGet();
+                                if (isNameError(error)) {
+                                    nameserverStats.success(currentHost, elapsedMs(start));
+                                    metrics.backendCompleted(SCHEME, backend, System.nanoTime() - start, true);
+                                    if (done.compareAndSet(false, true)) {
+                                        search.complete(index, Collections.emptyList(), null);
+                                    }
+                                    return;
+                                }
+                                nameserverStats.failure(currentHost, elapsedMs(start));
+                                metrics.backendCompleted(SCHEME, backend, System.nanoTime() - start, false);
+                                logger.warn("dns lookup failed: ", error);
+                                if (!done.get()) send();
+                            })
+                    ));
         }
+    }
 
-        final URI currentHost = dnsHosts.get(hostIndex);
+    private static boolean isNameError(final Throwable error) {
+        return error instanceof DnsException && ((DnsException) error).code() == DnsResponseCode.NXDOMAIN;
+    }
 
-        this.vertx.createDnsClient(currentHost.getPort(), currentHost.getHost()).resolveSRV(serviceName,
-                convertPromise(Promises.<List<SrvRecord>>promise()
-                        .then(list -> promise.resolve(list.stream()
-                                .map(srv -> URI.create(RESULT_SCHEME + "://" + srv.target() + ":" + srv.port() + "/" +
-                                        srv.name() + "?priority=" + srv.priority() + "&weight=" + srv.weight()))
-                                .peek(uri -> this.logger.debug("found service in dns SRV: {}", uri.toString()))
-                                .collect(Collectors.toList())
-                        ))
-                        .catchError(error -> {
-                            this.logger.warn("dns lookup failed: ", error);
-                            resolveSRV(hostIndex + 1, serviceName, promise);
-                        })
-                )
-        );
+    private static long elapsedMs(final long startNanos) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
     }
 
+    /**
+     * Reject the lookups in flight and close the resolver.  The vert.x instance is only closed if this service
+     * created it.
+     */
+    @Override
+    public void close() {
+        if (this.resolvConfWatcher != null) this.resolvConfWatcher.close();
+        this.pendingLookups.close();
+        this.resolver.close();
+        if (this.ownsVertx) this.vertx.close();
+    }
 }
@@ -1,7 +1,9 @@
 package io.advantageous.discovery.impl;
 
 import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.spi.DiscoveryMetrics;
 import io.advantageous.discovery.spi.DiscoveryServiceFactory;
+import io.vertx.core.Vertx;
 
 import java.net.URI;
 import java.util.List;
@@ -15,8 +17,24 @@ public class DnsDiscoveryServiceFactory implements DiscoveryServiceFactory {
 
     @Override
     public DiscoveryService create(final List<URI> uris) {
+        checkUris(uris);
+        return new DnsDiscoveryService(uris.toArray(new URI[uris.size()]));
+    }
+
+    @Override
+    public DiscoveryService create(final Vertx vertx, final List<URI> uris) {
+        checkUris(uris);
+        return new DnsDiscoveryService(vertx, uris.toArray(new URI[uris.size()]));
+    }
+
+    @Override
+    public DiscoveryService create(final Vertx vertx, final List<URI> uris, final DiscoveryMetrics metrics) {
+        checkUris(uris);
+        return new DnsDiscoveryService(vertx, metrics, uris.toArray(new URI[uris.size()]));
+    }
+
+    private static void checkUris(final List<URI> uris) {
         if (uris == null || uris.size() == 0)
             throw new IllegalArgumentException("you must specify a configuration URI for the dns discovery service");
-        return new DnsDiscoveryService(uris.toArray(new URI[uris.size()]));
     }
 }
@@ -0,0 +1,326 @@
+package io.advantageous.discovery.impl;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Minimal DNS wire format codec for the A and SRV queries used by discovery.
+ * <p>
+ * Queries carry an EDNS0 OPT record advertising a large UDP payload so that big SRV sets fit in one datagram.
+ * Responses are decoded into the records of the queried type, plus the negative caching TTL from the SOA record of
+ * the authority section when there is one (RFC 2308).
+ */
+final class DnsMessage {
+
+    static final int TYPE_A = 1;
+    static final int TYPE_SOA = 6;
+    static final int TYPE_SRV = 33;
+    static final int TYPE_OPT = 41;
+
+    static final int RCODE_NO_ERROR = 0;
+    static final int RCODE_NX_DOMAIN = 3;
+
+    static final int EDNS_UDP_PAYLOAD_SIZE = 4096;
+
+    private static final int CLASS_IN = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int FLAG_RESPONSE = 0x8000;
+    private static final int FLAG_TRUNCATED = 0x0200;
+    private static final int FLAG_RECURSION_DESIRED = 0x0100;
+    private static final int MAX_POINTERS = 64;
+
+    private final int id;
+    private final boolean truncated;
+    private final int responseCode;
+    private final String questionName;
+    private final int questionType;
+    private final List<Record> answers;
+    private final long negativeTtl;
+
+    private DnsMessage(final int id,
+                       final boolean truncated,
+                       final int responseCode,
+                       final String questionName,
+                       final int questionType,
+                       final List<Record> answers,
+                       final long negativeTtl) {
+        this.id = id;
+        this.truncated = truncated;
+        this.responseCode = responseCode;
+        this.questionName = questionName;
+        this.questionType = questionType;
+        this.answers = answers;
+        this.negativeTtl = negativeTtl;
+    }
+
+    /**
+     * Encode a recursive query for one name and type.
+     *
+     * @param id   the query id
+     * @param name the name to resolve
+     * @param type the record type
+     * @param edns true to add an EDNS0 OPT record, which is left out for the TCP fallback
+     * @return the encoded query, ready to be written
+     */
+    static ByteBuffer encodeQuery(final int id, final String name, final int type, final boolean edns) {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + name.length() + 2 + 4 + (edns ? 11 : 0));
+        buffer.putShort((short) id);
+        buffer.putShort((short) FLAG_RECURSION_DESIRED);
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) 0);
+        buffer.putShort((short) (edns ? 1 : 0));
+        writeName(buffer, name);
+        buffer.putShort((short) type);
+        buffer.putShort((short) CLASS_IN);
+        if (edns) {
+            buffer.put((byte) 0);
+            buffer.putShort((short) TYPE_OPT);
+            buffer.putShort((short) EDNS_UDP_PAYLOAD_SIZE);
+            buffer.putInt(0);
+            buffer.putShort((short) 0);
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Decode a response.  Only records of the question type are kept in the answers.
+     *
+     * @param buffer the response, positioned at its start
+     * @return the decoded message
+     * @throws IllegalArgumentException if the response is malformed
+     */
+    static DnsMessage decode(final ByteBuffer buffer) {
+        try {
+            final int start = buffer.position();
+            final int id = buffer.getShort() & 0xFFFF;
+            final int flags = buffer.getShort() & 0xFFFF;
+            if ((flags & FLAG_RESPONSE) == 0) throw new IllegalArgumentException("dns message is not a response");
+            final int questionCount = buffer.getShort() & 0xFFFF;
+            final int answerCount = buffer.getShort() & 0xFFFF;
+            final int authorityCount = buffer.getShort() & 0xFFFF;
+            buffer.getShort();
+
+            String questionName = "";
+            int questionType = 0;
+            for (int i = 0; i < questionCount; i++) {
+                questionName = readName(buffer, start);
+                questionType = buffer.getShort() & 0xFFFF;
+                buffer.getShort();
+            }
+
+            final boolean truncated = (flags & FLAG_TRUNCATED) != 0;
+            final List<Record> answers = new ArrayList<>(answerCount);
+            long negativeTtl = -1;
+            if (!truncated) {
+                for (int i = 0; i < answerCount; i++) {
+                    final Record record = readRecord(buffer, start);
+                    if (record != null && record.type == questionType) answers.add(record);
+                }
+                for (int i = 0; i < authorityCount; i++) {
+                    final Record record = readRecord(buffer, start);
+                    if (record != null && record.type == TYPE_SOA) negativeTtl = record.ttl;
+                }
+            }
+            return new DnsMessage(id, truncated, flags & 0xF, questionName, questionType,
+                    Collections.unmodifiableList(answers), negativeTtl);
+        } catch (final BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("malformed dns response", e);
+        }
+    }
+
+    private static Record readRecord(final ByteBuffer buffer, final int start) {
+        final String name = readName(buffer, start);
+        final int type = buffer.getShort() & 0xFFFF;
+        buffer.getShort();
+        final long ttl = buffer.getInt() & 0xFFFFFFFFL;
+        final int length = buffer.getShort() & 0xFFFF;
+        final int end = buffer.position() + length;
+        Record record = null;
+        switch (type) {
+            case TYPE_A:
+                if (length == 4) {
+                    record = Record.a(name, ttl, (buffer.get() & 0xFF) + "." + (buffer.get() & 0xFF) + "." +
+                            (buffer.get() & 0xFF) + "." + (buffer.get() & 0xFF));
+                }
+                break;
+            case TYPE_SRV:
+                final int priority = buffer.getShort() & 0xFFFF;
+                final int weight = buffer.getShort() & 0xFFFF;
+                final int port = buffer.getShort() & 0xFFFF;
+                record = Record.srv(name, ttl, priority, weight, port, readName(buffer, start));
+                break;
+            case TYPE_SOA:
+                readName(buffer, start);
+                readName(buffer, start);
+                buffer.position(buffer.position() + 16);
+                final long minimum = buffer.getInt() & 0xFFFFFFFFL;
+                record = new Record(name, TYPE_SOA, Math.min(ttl, minimum), null, 0, 0, 0, null);
+                break;
+            default:
+                break;
+        }
+        buffer.position(end);
+        return record;
+    }
+
+    private static void writeName(final ByteBuffer buffer, final String name) {
+        for (final String label : name.split("\\.")) {
+            if (label.isEmpty()) continue;
+            final byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+            if (bytes.length > 63) throw new IllegalArgumentException("dns label too long: " + label);
+            buffer.put((byte) bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.put((byte) 0);
+    }
+
+    private static String readName(final ByteBuffer buffer, final int start) {
+        final StringBuilder name = new StringBuilder();
+        int position = buffer.position();
+        int resumeAt = -1;
+        int pointers = 0;
+        while (true) {
+            final int length = buffer.get(position) & 0xFF;
+            if (length == 0) {
+                position++;
+                break;
+            }
+            if ((length & 0xC0) == 0xC0) {
+                if (++pointers > MAX_POINTERS) throw new IllegalArgumentException("dns name compression loop");
+                if (resumeAt == -1) resumeAt = position + 2;
+                position = start + (((length & 0x3F) << 8) | (buffer.get(position + 1) & 0xFF));
+                continue;
+            }
+            if (name.length() > 0) name.append('.');
+            for (int i = 1; i <= length; i++) {
+                name.append((char) (buffer.get(position + i) & 0xFF));
+            }
+            position += length + 1;
+        }
+        buffer.position(resumeAt == -1 ? position : resumeAt);
+        return name.toString();
+    }
+
+    int id() {
+        return id;
+    }
+
+    boolean truncated() {
+        return truncated;
+    }
+
+    int responseCode() {
+        return responseCode;
+    }
+
+    String questionName() {
+        return questionName;
+    }
+
+    int questionType() {
+        return questionType;
+    }
+
+    List<Record> answers() {
+        return answers;
+    }
+
+    /**
+     * The TTL to cache a negative answer for, the lesser of the SOA TTL and minimum, or -1 without an SOA.
+     *
+     * @return the negative caching TTL in seconds
+     */
+    long negativeTtl() {
+        return negativeTtl;
+    }
+
+    /**
+     * An A or SRV resource record.
+     */
+    static final class Record {
+
+        private final String name;
+        private final int type;
+        private final long ttl;
+        private final String address;
+        private final int priority;
+        private final int weight;
+        private final int port;
+        private final String target;
+
+        private Record(final String name,
+                       final int type,
+                       final long ttl,
+                       final String address,
+                       final int priority,
+                       final int weight,
+                       final int port,
+                       final String target) {
+            this.name = name;
+            this.type = type;
+            this.ttl = ttl;
+            this.address = address;
+            this.priority = priority;
+            this.weight = weight;
+            this.port = port;
+            this.target = target;
+        }
+
+        static Record a(final String name, final long ttl, final String address) {
+            return new Record(name, TYPE_A, ttl, address, 0, 0, 0, null);
+        }
+
+        static Record srv(final String name, final long ttl, final int priority, final int weight, final int port,
+                          final String target) {
+            return new Record(name, TYPE_SRV, ttl, null, priority, weight, port, target);
+        }
+
+        String name() {
+            return name;
+        }
+
+        int type() {
+            return type;
+        }
+
+        long ttl() {
+            return ttl;
+        }
+
+        String address() {
+            return address;
+        }
+
+        int priority() {
+            return priority;
+        }
+
+        int weight() {
+            return weight;
+        }
+
+        int port() {
+            return port;
+        }
+
+        String target() {
+            return target;
+        }
+
+        /**
+         * The name part of an SRV record name such as {@code _service._proto.name}, as reported by Vert.x.
+         *
+         * @return the name part
+         */
+        String serviceName() {
+            final String[] parts = name.split("\\.", 3);
+            return parts.length > 2 ? parts[2] : name;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+
+/**
+ * A view of a discovery service that completes lookups and calls watch listeners on a caller supplied executor, so
+ * the Vert.x event loops that do the DNS and Consul I/O never run caller code.
+ * <p>
+ * A lookup that completes while it is being started, on the thread that started it (e.g. a cache hit), is completed
+ * there without a hand-off, since that thread belongs to the caller.  If the executor refuses a completion, the
+ * lookup is rejected with the {@link RejectedExecutionException} on the thread that completed it.  Closing a view
+ * leaves the discovery service open.
+ */
+public class ExecutorDiscoveryService implements DiscoveryService {
+
+    private final DiscoveryService delegate;
+    private final Executor executor;
+
+    /**
+     * @param delegate the discovery service that does the lookups
+     * @param executor runs the completions
+     */
+    public ExecutorDiscoveryService(final DiscoveryService delegate, final Executor executor) {
+        this.delegate = Objects.requireNonNull(delegate, "delegate must not be null");
+        this.executor = Objects.requireNonNull(executor, "executor must not be null");
+    }
+
+    @Override
+    public Promise<List<URI>> lookupService(final String query) {
+        return complete(() -> delegate.lookupService(query));
+    }
+
+    @Override
+    public Promise<List<URI>> lookupService(final URI query) {
+        return complete(() -> delegate.lookupService(query));
+    }
+
+    @Override
+    public Promise<List<URI>> lookupService(final DiscoveryQuery query) {
+        return complete(() -> delegate.lookupService(query));
+    }
+
+    @Override
+    public Promise<List<URI>> lookupService(final URI query, final Duration timeout) {
+        return complete(() -> delegate.lookupService(query, timeout));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final String query) {
+        return complete(() -> delegate.lookupEndpoints(query));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query) {
+        return complete(() -> delegate.lookupEndpoints(query));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final DiscoveryQuery query) {
+        return complete(() -> delegate.lookupEndpoints(query));
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query, final Duration timeout) {
+        return complete(() -> delegate.lookupEndpoints(query, timeout));
+    }
+
+    @Override
+    public Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries) {
+        return complete(() -> delegate.lookupServices(queries));
+    }
+
+    @Override
+    public Promise<Map<URI, List<URI>>> lookupServices(final Collection<URI> queries, final Duration timeout) {
+        return complete(() -> delegate.lookupServices(queries, timeout));
+    }
+
+    @Override
+    public Promise<Map<URI, List<URI>>> registerQueries(final Collection<URI> queries) {
+        return complete(() -> delegate.registerQueries(queries));
+    }
+
+    /**
+     * Watch a service, calling the listener on the executor.
+     *
+     * @param query    the URI that defines your query
+     * @param listener called with the endpoints that match your query
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Consumer<List<URI>> listener) {
+        Objects.requireNonNull(listener, "listener was null");
+        return delegate.watchService(query, uris -> executor.execute(() -> listener.accept(uris)));
+    }
+
+    /**
+     * Watch a service, polling every {@code pollInterval} if the discovery service cannot push changes, and calling
+     * the listener on the executor.
+     *
+     * @param query        the URI that defines your query
+     * @param pollInterval the delay between polls
+     * @param listener     called with the endpoints that match your query
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Duration pollInterval,
+                                     final Consumer<List<URI>> listener) {
+        Objects.requireNonNull(listener, "listener was null");
+        return delegate.watchService(query, pollInterval, uris -> executor.execute(() -> listener.accept(uris)));
+    }
+
+    /**
+     * A view of the same discovery service with another executor.
+     *
+     * @param completionExecutor runs the completions
+     * @return the view
+     */
+    @Override
+    public DiscoveryService completeOn(final Executor completionExecutor) {
+        return new ExecutorDiscoveryService(delegate, completionExecutor);
+    }
+
+    /**
+     * Does nothing.  Views are handed out per lookup, so the discovery service they view is closed by its owner.
+     */
+    @Override
+    public void close() {
+    }
+
+    private <T> Promise<T> complete(final Supplier<Promise<T>> lookup) {
+        return invokablePromise(promise -> {
+            final Thread caller = Thread.currentThread();
+            final boolean[] starting = {true};
+            final Consumer<Runnable> handOff = completion -> {
+                if (Thread.currentThread() == caller && starting[0]) {
+                    completion.run();
+                    return;
+                }
+                try {
+                    executor.execute(completion);
+                } catch (final RejectedExecutionException e) {
+                    promise.reject(e);
+                }
+            };
+            try {
+                lookup.get().asHandler().invokeWithPromise(Promises.<T>promise()
+                        .then(result -> handOff.accept(() -> promise.resolve(result)))
+                        .catchError(error -> handOff.accept(() -> promise.reject(error))));
+            } catch (final RuntimeException e) {
+                promise.reject(e);
+            } finally {
+                starting[0] = false;
+            }
+        });
+    }
+}
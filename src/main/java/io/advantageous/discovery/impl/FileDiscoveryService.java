@@ -0,0 +1,314 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.discovery.utils.UriUtils;
+import io.advantageous.reakt.promise.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+
+/**
+ * Service discovery from local files, for hosts that can not reach a discovery backend.
+ * <p>
+ * Each file configured with {@code file:///etc/lokate/services.conf} maps services to endpoints, one service per
+ * line, e.g. {@code ads = http://10.0.0.1:8080?tags=prod http://10.0.0.2:8080}.  The endpoints are separated by
+ * white space and read like lookup results, so they can carry {@code tags}, {@code priority} and {@code weight}.  A
+ * service on several lines, or in several files, has the endpoints of all of them in order.  Blank lines and lines
+ * starting with {@code #} are ignored.
+ * <p>
+ * The files are indexed in memory, so a lookup such as {@code discovery:file:///ads?tag=prod} is a map lookup that
+ * completes on the calling thread.  A service that is not listed has no endpoints.  Unless {@code watch=false}, the
+ * directory of each file is watched and the files are read again when one changes; services whose endpoints did not
+ * change keep their entries, and watchers are only called when their result changed.  A file that can not be read or
+ * parsed on reload is logged and the last good index kept.
+ */
+class FileDiscoveryService implements DiscoveryService {
+
+    static final String SCHEME = "file";
+
+    private static final String TAG_QUERY_KEY = "tag";
+    private static final String WATCH_KEY = "watch";
+
+    private final List<Path> files;
+    private final List<FileWatcher> watchers = new ArrayList<>();
+    private final List<FileWatch> watches = new CopyOnWriteArrayList<>();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private volatile Map<String, Entry> index = Collections.emptyMap();
+    private volatile boolean closed;
+
+    FileDiscoveryService(final URI... configs) {
+        Objects.requireNonNull(configs, "you must specify a configuration URI for the file discovery service");
+        if (configs.length == 0)
+            throw new IllegalArgumentException("you must specify a configuration URI for the file discovery service");
+        final List<Path> paths = new ArrayList<>(configs.length);
+        boolean watch = true;
+        for (final URI config : configs) {
+            Objects.requireNonNull(config, "you must specify a configuration URI for the file discovery service");
+            if (!SCHEME.equals(config.getScheme()))
+                throw new IllegalArgumentException("scheme for file service config must be " + SCHEME);
+            if (config.getPath() == null || config.getPath().isEmpty())
+                throw new IllegalArgumentException("file service config must have a path, e.g. file:///etc/services");
+            paths.add(Paths.get(config.getPath()));
+            watch &= Boolean.parseBoolean(UriUtils.splitQuery(config.getQuery()).getOrDefault(WATCH_KEY, "true"));
+        }
+        this.files = Collections.unmodifiableList(paths);
+        this.index = read(this.files);
+        if (watch) watch();
+    }
+
+    /**
+     * Watch the directory of each file once, so files that share a directory share a watch thread and a change
+     * reloads them once.  If a directory can not be watched, the watchers already started are closed.
+     */
+    private void watch() {
+        final Set<Path> directories = new HashSet<>();
+        try {
+            for (final Path file : this.files) {
+                if (directories.add(file.toAbsolutePath().getParent())) {
+                    this.watchers.add(new FileWatcher(file, this::reload));
+                }
+            }
+        } catch (final RuntimeException e) {
+            this.watchers.forEach(FileWatcher::close);
+            throw e;
+        }
+    }
+
+    /**
+     * Read the files and index their services.
+     *
+     * @param files the files, in configuration order
+     * @return the endpoints of each service
+     * @throws IllegalStateException    if a file can not be read
+     * @throws IllegalArgumentException if a file can not be parsed
+     */
+    static Map<String, Entry> read(final List<Path> files) {
+        final Map<String, List<ServiceEndpoint>> services = new LinkedHashMap<>();
+        for (final Path file : files) {
+            final List<String> lines;
+            try {
+                lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            } catch (final NoSuchFileException e) {
+                throw new IllegalStateException(file + " not found", e);
+            } catch (final IOException e) {
+                throw new IllegalStateException("can not read " + file, e);
+            }
+            for (int i = 0; i < lines.size(); i++) {
+                parseLine(file, i + 1, lines.get(i).trim(), services);
+            }
+        }
+        final Map<String, Entry> index = new HashMap<>(services.size() * 2);
+        services.forEach((service, endpoints) -> index.put(service, new Entry(endpoints)));
+        return Collections.unmodifiableMap(index);
+    }
+
+    private static void parseLine(final Path file, final int lineNumber, final String line,
+                                  final Map<String, List<ServiceEndpoint>> services) {
+        if (line.isEmpty() || line.startsWith("#")) return;
+        final int equals = line.indexOf('=');
+        final String service = equals < 0 ? "" : line.substring(0, equals).trim();
+        if (service.isEmpty()) {
+            throw new IllegalArgumentException(file + ":" + lineNumber + " must map a service to endpoints, "
+                    + "e.g. ads = http://10.0.0.1:8080");
+        }
+        final List<ServiceEndpoint> endpoints = services.computeIfAbsent(service, key -> new ArrayList<>());
+        for (final String endpoint : line.substring(equals + 1).trim().split("\\s+")) {
+            if (endpoint.isEmpty()) continue;
+            final URI uri;
+            try {
+                uri = URI.create(endpoint);
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException(file + ":" + lineNumber + " has a bad endpoint " + endpoint, e);
+            }
+            if (uri.getHost() == null || uri.getPort() < 0) {
+                throw new IllegalArgumentException(file + ":" + lineNumber + " endpoint " + endpoint
+                        + " must have a host and a port");
+            }
+            endpoints.add(ServiceEndpoint.fromURI(uri));
+        }
+    }
+
+    /**
+     * Read the files again and swap in the new index, keeping the entries of services that did not change, then call
+     * the watchers whose results changed.
+     */
+    synchronized void reload() {
+        if (closed) return;
+        final Map<String, Entry> previous = this.index;
+        final Map<String, Entry> read = read(this.files);
+        final Map<String, Entry> next = new HashMap<>(read.size() * 2);
+        final Set<String> changed = new HashSet<>(previous.keySet());
+        changed.removeAll(read.keySet());
+        read.forEach((service, entry) -> {
+            final Entry old = previous.get(service);
+            if (old != null && old.endpoints.equals(entry.endpoints)) {
+                next.put(service, old);
+            } else {
+                next.put(service, entry);
+                changed.add(service);
+            }
+        });
+        if (changed.isEmpty()) return;
+        this.index = Collections.unmodifiableMap(next);
+        logger.info("reloaded {}, changed services {}", this.files, changed);
+        this.watches.stream().filter(watch -> changed.contains(watch.service)).forEach(FileWatch::update);
+    }
+
+    @Override
+    public Promise<List<URI>> lookupService(final URI query) {
+        return invokablePromise(promise -> {
+            try {
+                final Entry entry = this.entry(query);
+                final String tag = UriUtils.splitQuery(query.getQuery()).get(TAG_QUERY_KEY);
+                promise.resolve(entry == null ? Collections.emptyList()
+                        : tag == null ? entry.uris : ServiceEndpoint.toURIs(entry.tagged(tag)));
+            } catch (final IllegalArgumentException e) {
+                promise.reject(e);
+            }
+        });
+    }
+
+    @Override
+    public Promise<List<ServiceEndpoint>> lookupEndpoints(final URI query) {
+        return invokablePromise(promise -> {
+            try {
+                final Entry entry = this.entry(query);
+                final String tag = UriUtils.splitQuery(query.getQuery()).get(TAG_QUERY_KEY);
+                promise.resolve(entry == null ? Collections.emptyList()
+                        : tag == null ? entry.endpoints : entry.tagged(tag));
+            } catch (final IllegalArgumentException e) {
+                promise.reject(e);
+            }
+        });
+    }
+
+    int watcherCount() {
+        return this.watchers.size();
+    }
+
+    Entry entry(final URI query) {
+        return this.index.get(service(query));
+    }
+
+    private static String service(final URI query) {
+        if (query == null) throw new IllegalArgumentException("query was null");
+        if (!SCHEME.equals(query.getScheme()))
+            throw new IllegalArgumentException("query did not have the scheme " + SCHEME);
+        final String path = query.getPath();
+        if (path == null || path.length() <= 1)
+            throw new IllegalArgumentException("file queries must name a service, e.g. file:///ads");
+        return path.substring(1);
+    }
+
+    /**
+     * Watch a service.  The listener is called with the current endpoints at once, then from the file watch thread
+     * whenever a reload changes them.
+     *
+     * @param query    the file query, e.g. {@code file:///ads?tag=prod}
+     * @param listener called with the endpoints that match your query
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Consumer<List<URI>> listener) {
+        Objects.requireNonNull(listener, "listener was null");
+        if (closed) throw new IllegalStateException("discovery service is closed");
+        final FileWatch watch = new FileWatch(service(query),
+                UriUtils.splitQuery(query.getQuery()).get(TAG_QUERY_KEY), listener);
+        this.watches.add(watch);
+        watch.update();
+        return () -> this.watches.remove(watch);
+    }
+
+    /**
+     * Watch a service.  Changes are pushed from the file watch thread, so the poll interval is not used.
+     *
+     * @param query        the file query, e.g. {@code file:///ads?tag=prod}
+     * @param pollInterval not used
+     * @param listener     called with the endpoints that match your query
+     * @return a subscription used to stop watching
+     */
+    @Override
+    public Subscription watchService(final URI query, final Duration pollInterval,
+                                     final Consumer<List<URI>> listener) {
+        return watchService(query, listener);
+    }
+
+    /**
+     * Stop watching the files.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.watchers.forEach(FileWatcher::close);
+        this.watches.clear();
+    }
+
+    /**
+     * The endpoints of one service, with their URIs worked out once.
+     */
+    static final class Entry {
+
+        private final List<ServiceEndpoint> endpoints;
+        private final List<URI> uris;
+
+        private Entry(final List<ServiceEndpoint> endpoints) {
+            this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+            this.uris = Collections.unmodifiableList(ServiceEndpoint.toURIs(endpoints));
+        }
+
+        private List<ServiceEndpoint> tagged(final String tag) {
+            return endpoints.stream().filter(endpoint -> endpoint.tags().contains(tag)).collect(Collectors.toList());
+        }
+
+        List<ServiceEndpoint> endpoints() {
+            return endpoints;
+        }
+    }
+
+    private final class FileWatch {
+
+        private final String service;
+        private final String tag;
+        private final Consumer<List<URI>> listener;
+        private List<URI> current;
+
+        private FileWatch(final String service, final String tag, final Consumer<List<URI>> listener) {
+            this.service = service;
+            this.tag = tag;
+            this.listener = listener;
+        }
+
+        private synchronized void update() {
+            final Entry entry = index.get(service);
+            final List<URI> results = entry == null ? Collections.emptyList()
+                    : tag == null ? entry.uris : ServiceEndpoint.toURIs(entry.tagged(tag));
+            if (results.equals(current)) return;
+            current = results;
+            listener.accept(results);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.spi.DiscoveryServiceFactory;
+
+import java.net.URI;
+import java.util.List;
+
+public class FileDiscoveryServiceFactory implements DiscoveryServiceFactory {
+
+    @Override
+    public String getScheme() {
+        return FileDiscoveryService.SCHEME;
+    }
+
+    @Override
+    public DiscoveryService create(final List<URI> uris) {
+        if (uris == null || uris.size() == 0)
+            throw new IllegalArgumentException("you must specify a configuration URI for the file discovery service");
+        return new FileDiscoveryService(uris.toArray(new URI[uris.size()]));
+    }
+}
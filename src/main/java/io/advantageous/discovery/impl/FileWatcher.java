@@ -0,0 +1,83 @@
+package io.advantageous.discovery.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Watches a file for changes with a {@link WatchService} on its directory, and calls a listener from a daemon thread
+ * when the directory changes.
+ * <p>
+ * The whole directory is watched because files are rarely edited in place: editors and container runtimes replace
+ * them with a rename, and Kubernetes swaps a symbolic link to a new directory.  The listener can be called when the
+ * file did not change, so it should compare what it reads with what it had.
+ */
+final class FileWatcher implements AutoCloseable {
+
+    private final Path file;
+    private final WatchService watchService;
+    private final Runnable listener;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    /**
+     * Start watching.
+     *
+     * @param file     the file to watch
+     * @param listener called, on the watch thread, when the directory of the file changes
+     * @throws IllegalStateException if the directory can not be watched
+     */
+    FileWatcher(final Path file, final Runnable listener) {
+        this.file = file.toAbsolutePath();
+        this.listener = listener;
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.file.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        } catch (final IOException e) {
+            throw new IllegalStateException("can not watch " + this.file, e);
+        }
+        final Thread thread = new Thread(this::watchLoop, "lokate-file-watch");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watchLoop() {
+        while (true) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            key.pollEvents();
+            try {
+                listener.run();
+            } catch (final RuntimeException e) {
+                logger.warn("failed to reload " + file, e);
+            }
+            if (!key.reset()) {
+                logger.warn("stopped watching {}, its directory is gone", file);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Stop watching.
+     */
+    @Override
+    public void close() {
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            logger.debug("failed to close the watch service of " + file, e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package io.advantageous.discovery.impl;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Lock free latency histogram in microseconds with log linear buckets: exact below 16 micros, then 8 buckets per power
+ * of two, so any recorded value is reported within 12.5%.  Recording is an index computation and one atomic add.
+ */
+final class LatencyHistogram {
+
+    private static final int LINEAR = 16;
+    private static final int SUB_BUCKETS = 8;
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    void record(final long micros) {
+        final long value = Math.max(0, micros);
+        counts.incrementAndGet(index(value));
+        max.accumulate(value);
+    }
+
+    long max() {
+        return max.get();
+    }
+
+    /**
+     * The value at a percentile of this histogram and the others combined.
+     *
+     * @param percentile the percentile, between 0 and 100
+     * @param others     more histograms to include
+     * @return the upper bound of the bucket holding the percentile, or 0 if nothing was recorded
+     */
+    long percentile(final double percentile, final LatencyHistogram... others) {
+        final long[] merged = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            for (final LatencyHistogram other : others) count += other.counts.get(i);
+            merged[i] = count;
+            total += count;
+        }
+        if (total == 0) return 0;
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += merged[i];
+            if (seen >= rank) return upperBound(i);
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+    static int index(final long value) {
+        if (value < LINEAR) return (int) value;
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) return BUCKETS - 1;
+        final int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR + (exponent - 4) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBound(final int index) {
+        if (index < LINEAR) return index;
+        final int exponent = (index - LINEAR) / SUB_BUCKETS + 4;
+        final int sub = (index - LINEAR) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,281 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.utils.UriUtils;
+import io.advantageous.reakt.Callback;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * TTL bounded LRU cache of lookup results that also coalesces concurrent misses for the same key into a single
+ * backend call.
+ * <p>
+ * Configured with a URI such as {@code cache:///?ttl=5000&maxSize=1024&dns.ttl=30000}, where {@code ttl} is the
+ * default time to live in milliseconds, {@code <scheme>.ttl} overrides it for one discovery scheme and
+ * {@code maxSize} bounds the number of cached queries.  A TTL of zero disables caching but keeps the coalescing.
+ * <p>
+ * Expired results can still be served.  For {@code staleWhileRevalidate} milliseconds after it expires, a result is
+ * returned at once while a background lookup refreshes it.  For {@code staleIfError} milliseconds after it expires,
+ * a result is returned in place of a failed lookup.  Both default to zero.
+ * <p>
+ * Cache hits take no lock, they only stamp the entry with the time it was used.  A store that finds the cache full
+ * drops the entries past their stale windows and then the least recently used one, which costs a scan of the cache
+ * but only happens after a backend lookup.
+ *
+ * @param <T> the type of the results
+ */
+class LookupCache<T> {
+
+    static final String SCHEME = "cache";
+
+    private static final String TTL_KEY = "ttl";
+    private static final String MAX_SIZE_KEY = "maxSize";
+    private static final String STALE_WHILE_REVALIDATE_KEY = "staleWhileRevalidate";
+    private static final String STALE_IF_ERROR_KEY = "staleIfError";
+    private static final String SCHEME_TTL_SUFFIX = "." + TTL_KEY;
+    private static final int DEFAULT_MAX_SIZE = 1024;
+
+    private final long defaultTtl;
+    private final Map<String, Long> schemeTtls;
+    private final long staleWhileRevalidate;
+    private final long staleIfError;
+    private final int maxSize;
+    private final Map<String, Entry<T>> entries = new ConcurrentHashMap<>();
+    private final Object evictionLock = new Object();
+    private final Map<String, List<Callback<List<T>>>> inFlight = new ConcurrentHashMap<>();
+
+    LookupCache(final long defaultTtl, final Map<String, Long> schemeTtls, final int maxSize) {
+        this(defaultTtl, schemeTtls, maxSize, 0, 0);
+    }
+
+    LookupCache(final long defaultTtl,
+                final Map<String, Long> schemeTtls,
+                final int maxSize,
+                final long staleWhileRevalidate,
+                final long staleIfError) {
+        if (maxSize < 0) throw new IllegalArgumentException("cache maxSize must not be negative");
+        if (staleWhileRevalidate < 0 || staleIfError < 0)
+            throw new IllegalArgumentException("cache stale windows must not be negative");
+        this.defaultTtl = defaultTtl;
+        this.schemeTtls = new HashMap<>(schemeTtls);
+        this.staleWhileRevalidate = staleWhileRevalidate;
+        this.staleIfError = staleIfError;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Create a cache that does not store results and only coalesces concurrent lookups.
+     *
+     * @return the cache
+     */
+    static <T> LookupCache<T> noCache() {
+        return new LookupCache<>(0, Collections.emptyMap(), 0);
+    }
+
+    /**
+     * Create a cache from a {@code cache:} configuration URI.
+     *
+     * @param config the configuration URI
+     * @return the cache
+     */
+    static <T> LookupCache<T> fromConfig(final URI config) {
+        if (!SCHEME.equals(config.getScheme()))
+            throw new IllegalArgumentException("scheme for cache config must be " + SCHEME);
+        final Map<String, String> params = UriUtils.splitQuery(config.getQuery());
+        final Map<String, Long> schemeTtls = new HashMap<>();
+        params.forEach((key, value) -> {
+            if (key.endsWith(SCHEME_TTL_SUFFIX)) {
+                schemeTtls.put(key.substring(0, key.length() - SCHEME_TTL_SUFFIX.length()), Long.parseLong(value));
+            }
+        });
+        return new LookupCache<>(
+                Long.parseLong(params.getOrDefault(TTL_KEY, "0")),
+                schemeTtls,
+                Integer.parseInt(params.getOrDefault(MAX_SIZE_KEY, String.valueOf(DEFAULT_MAX_SIZE))),
+                Long.parseLong(params.getOrDefault(STALE_WHILE_REVALIDATE_KEY, "0")),
+                Long.parseLong(params.getOrDefault(STALE_IF_ERROR_KEY, "0"))
+        );
+    }
+
+    /**
+     * Resolve the callback from the cache, by joining a lookup already in flight for the key, or by invoking the
+     * loader and sharing its result with every caller that arrives before it completes.  A result within its stale
+     * while revalidate window resolves the callback at once and is refreshed in the background, and a result within
+     * its stale if error window resolves the callback if the loader fails.
+     *
+     * @param key      the normalized query
+     * @param scheme   the discovery scheme of the query, used to pick the TTL
+     * @param loader   supplies the backend lookup on a miss
+     * @param callback the callback to resolve
+     */
+    void lookup(final String key,
+                final String scheme,
+                final Supplier<Promise<List<T>>> loader,
+                final Callback<List<T>> callback) {
+
+        final Entry<T> entry = entry(key);
+        if (entry != null) {
+            final long now = System.currentTimeMillis();
+            if (now < entry.expiresAt) {
+                callback.resolve(entry.results);
+                return;
+            }
+            if (now < entry.expiresAt + staleWhileRevalidate) {
+                callback.resolve(entry.results);
+                load(key, scheme, loader, null);
+                return;
+            }
+        }
+        load(key, scheme, loader, callback);
+    }
+
+    /**
+     * Invoke the loader unless a lookup for the key is already in flight, and add the callback, if any, to the
+     * callers waiting for it.
+     */
+    private void load(final String key,
+                      final String scheme,
+                      final Supplier<Promise<List<T>>> loader,
+                      final Callback<List<T>> callback) {
+
+        final boolean[] leader = new boolean[1];
+        inFlight.compute(key, (k, waiters) -> {
+            if (waiters == null) {
+                leader[0] = true;
+                waiters = new ArrayList<>();
+            }
+            if (callback != null) waiters.add(callback);
+            return waiters;
+        });
+        if (!leader[0]) return;
+
+        final Promise<List<T>> promise = Promises.<List<T>>promise()
+                .then(results -> {
+                    final List<T> shared = Collections.unmodifiableList(results);
+                    put(key, scheme, shared);
+                    inFlight.remove(key).forEach(waiter -> waiter.resolve(shared));
+                })
+                .catchError(error -> fail(key, error));
+        try {
+            loader.get().asHandler().invokeWithPromise(promise);
+        } catch (final RuntimeException e) {
+            fail(key, e);
+        }
+    }
+
+    private void fail(final String key, final Throwable error) {
+        final List<Callback<List<T>>> waiters = inFlight.remove(key);
+        if (waiters == null) return;
+        final Entry<T> entry = entry(key);
+        if (entry != null && System.currentTimeMillis() < entry.expiresAt + staleIfError) {
+            waiters.forEach(waiter -> waiter.resolve(entry.results));
+        } else {
+            waiters.forEach(waiter -> waiter.reject(error));
+        }
+    }
+
+    /**
+     * Remove every cached result.
+     */
+    void clear() {
+        entries.clear();
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * The cached result for a key, if it has not expired.
+     *
+     * @param key the normalized query
+     * @return the results, or null
+     */
+    List<T> get(final String key) {
+        final Entry<T> entry = entry(key);
+        return entry == null || entry.expiresAt <= System.currentTimeMillis() ? null : entry.results;
+    }
+
+    /**
+     * The cached result for a key, if it has not expired or is within its stale if error window.
+     *
+     * @param key the normalized query
+     * @return the results, or null
+     */
+    List<T> getIfError(final String key) {
+        final Entry<T> entry = entry(key);
+        return entry == null || entry.expiresAt + staleIfError <= System.currentTimeMillis() ? null : entry.results;
+    }
+
+    /**
+     * The cached entry for a key, fresh or stale, removing it once it is past both stale windows.
+     */
+    private Entry<T> entry(final String key) {
+        final Entry<T> entry = entries.get(key);
+        if (entry == null) return null;
+        if (pastStaleWindows(entry, System.currentTimeMillis())) {
+            entries.remove(key, entry);
+            return null;
+        }
+        entry.usedNanos = System.nanoTime();
+        return entry;
+    }
+
+    private boolean pastStaleWindows(final Entry<T> entry, final long now) {
+        return entry.expiresAt + Math.max(staleWhileRevalidate, staleIfError) <= now;
+    }
+
+    /**
+     * Cache a result looked up outside of {@link #lookup}, e.g. by a batch lookup.
+     *
+     * @param key     the normalized query
+     * @param scheme  the discovery scheme of the query
+     * @param results the results
+     */
+    void put(final String key, final String scheme, final List<T> results) {
+        final long ttl = Math.max(0, schemeTtls.getOrDefault(scheme, defaultTtl));
+        if (maxSize == 0 || (ttl == 0 && staleWhileRevalidate == 0 && staleIfError == 0)) return;
+        entries.put(key, new Entry<>(results, System.currentTimeMillis() + ttl));
+        if (entries.size() > maxSize) evict();
+    }
+
+    /**
+     * Bring the cache back to its maximum size, dropping the entries past their stale windows first and then the
+     * least recently used ones.
+     */
+    private void evict() {
+        synchronized (evictionLock) {
+            final long now = System.currentTimeMillis();
+            entries.values().removeIf(entry -> pastStaleWindows(entry, now));
+            while (entries.size() > maxSize) {
+                Map.Entry<String, Entry<T>> eldest = null;
+                for (final Map.Entry<String, Entry<T>> candidate : entries.entrySet()) {
+                    if (eldest == null || candidate.getValue().usedNanos - eldest.getValue().usedNanos < 0) {
+                        eldest = candidate;
+                    }
+                }
+                if (eldest == null) return;
+                entries.remove(eldest.getKey(), eldest.getValue());
+            }
+        }
+    }
+
+    private static final class Entry<T> {
+        private final List<T> results;
+        private final long expiresAt;
+        private volatile long usedNanos = System.nanoTime();
+
+        private Entry(final List<T> results, final long expiresAt) {
+            this.results = results;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import io.advantageous.discovery.utils.UriUtils;
+import io.advantageous.reakt.Callback;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Vertx;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+
+/**
+ * Bounds how long a lookup may take.  A query without a {@code timeout} parameter or a budget set with
+ * {@link DiscoveryQuery#withTimeout} gets the default budget, and a lookup still pending when its budget is spent is
+ * rejected with a {@link TimeoutException} on a Vert.x timer, whatever the discovery service it waits on does.
+ * <p>
+ * Configured with a URI such as {@code deadline:///?timeout=5000}, where {@code timeout} is the default budget in
+ * milliseconds.  A default of zero leaves lookups without a budget of their own unbounded.
+ */
+class LookupDeadlines {
+
+    static final String SCHEME = "deadline";
+    static final long DEFAULT_TIMEOUT_MS = 30_000;
+
+    private static final String TIMEOUT_KEY = "timeout";
+
+    private final Vertx vertx;
+    private final long defaultTimeoutMs;
+
+    LookupDeadlines(final Vertx vertx, final long defaultTimeoutMs) {
+        if (defaultTimeoutMs < 0) throw new IllegalArgumentException("deadline timeout must not be negative");
+        this.vertx = vertx;
+        this.defaultTimeoutMs = defaultTimeoutMs;
+    }
+
+    /**
+     * Create deadlines with the default budget of 30 seconds.
+     *
+     * @param vertx the Vert.x instance whose timers enforce the deadlines
+     * @return the deadlines
+     */
+    static LookupDeadlines defaults(final Vertx vertx) {
+        return new LookupDeadlines(vertx, DEFAULT_TIMEOUT_MS);
+    }
+
+    /**
+     * Create deadlines from a {@code deadline:} configuration URI.
+     *
+     * @param vertx  the Vert.x instance whose timers enforce the deadlines
+     * @param config the configuration URI
+     * @return the deadlines
+     */
+    static LookupDeadlines fromConfig(final Vertx vertx, final URI config) {
+        if (!SCHEME.equals(config.getScheme()))
+            throw new IllegalArgumentException("scheme for deadline config must be " + SCHEME);
+        final Map<String, String> params = UriUtils.splitQuery(config.getQuery());
+        return new LookupDeadlines(vertx,
+                Long.parseLong(params.getOrDefault(TIMEOUT_KEY, String.valueOf(DEFAULT_TIMEOUT_MS))));
+    }
+
+    /**
+     * The budget of a query.
+     *
+     * @param query the query
+     * @return the budget in milliseconds, or 0 if the query is unbounded
+     */
+    long timeoutMs(final DiscoveryQuery query) {
+        return query.timeoutMs() > 0 ? query.timeoutMs() : defaultTimeoutMs;
+    }
+
+    /**
+     * Wrap a callback so that it is rejected with a {@link TimeoutException} if it has not been completed within the
+     * budget.  Whichever of the result or the timer comes first completes the callback, the other is dropped.
+     *
+     * @param callback  the callback
+     * @param timeoutMs the budget in milliseconds, 0 for none
+     * @param what      what is being looked up, for the error message
+     * @param <T>       the type of the result
+     * @return the callback to hand to the lookup
+     */
+    <T> Callback<T> guard(final Callback<T> callback, final long timeoutMs, final Object what) {
+        return guard(callback, timeoutMs, what, () -> null);
+    }
+
+    /**
+     * Wrap a callback like {@link #guard(Callback, long, Object)}, but resolve it with the fallback, if there is one
+     * when the budget is spent, instead of rejecting it.
+     *
+     * @param callback  the callback
+     * @param timeoutMs the budget in milliseconds, 0 for none
+     * @param what      what is being looked up, for the error message
+     * @param fallback  supplies the result to use in place of a timeout, or null
+     * @param <T>       the type of the result
+     * @return the callback to hand to the lookup
+     */
+    <T> Callback<T> guard(final Callback<T> callback,
+                          final long timeoutMs,
+                          final Object what,
+                          final Supplier<T> fallback) {
+        if (timeoutMs <= 0) return callback;
+        final AtomicBoolean done = new AtomicBoolean();
+        final long timerId = vertx.setTimer(timeoutMs, timer -> {
+            if (done.compareAndSet(false, true)) {
+                final T result = fallback.get();
+                if (result != null) {
+                    callback.resolve(result);
+                } else {
+                    callback.reject(new TimeoutException(
+                            "lookup of " + what + " timed out after " + timeoutMs + " ms"));
+                }
+            }
+        });
+        return Promises.<T>promise()
+                .then(result -> {
+                    if (done.compareAndSet(false, true)) {
+                        vertx.cancelTimer(timerId);
+                        callback.resolve(result);
+                    }
+                })
+                .catchError(error -> {
+                    if (done.compareAndSet(false, true)) {
+                        vertx.cancelTimer(timerId);
+                        callback.reject(error);
+                    }
+                })
+                .asHandler();
+    }
+
+    /**
+     * Bound a lookup by the budget, so it is rejected with a {@link TimeoutException} once the budget is spent even
+     * if what it waits on never answers.
+     *
+     * @param lookup    the lookup
+     * @param timeoutMs the budget in milliseconds, 0 for none
+     * @param what      what is being looked up, for the error message
+     * @param <T>       the type of the result
+     * @return the bounded lookup
+     */
+    <T> Promise<T> bound(final Promise<T> lookup, final long timeoutMs, final Object what) {
+        if (timeoutMs <= 0) return lookup;
+        return invokablePromise(promise -> {
+            final Callback<T> guarded = guard(promise, timeoutMs, what);
+            lookup.asHandler().invokeWithPromise(Promises.<T>promise()
+                    .then(guarded::resolve)
+                    .catchError(guarded::reject));
+        });
+    }
+}
@@ -0,0 +1,244 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.utils.UriUtils;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Snapshot of the latest lookup results, persisted to a local file so a process that starts while its backends are
+ * unreachable can still resolve the queries it used before.
+ * <p>
+ * Results loaded from the file are served for a query until a live lookup of it succeeds.  Live results are
+ * recorded as they arrive and written every {@code interval} milliseconds when they have changed, and again on
+ * close.  The file is replaced atomically, so a reader never sees a partial snapshot, and is read through a memory
+ * mapped buffer.  Results older than {@code maxAge} milliseconds are not loaded.
+ * <p>
+ * Configured with a URI such as {@code snapshot:///var/lib/app/discovery.snapshot?interval=30000&maxAge=86400000}.
+ */
+class LookupSnapshot {
+
+    static final String SCHEME = "snapshot";
+
+    /**
+     * File format: the magic number, the entry count, then for each entry the query key, the time its results were
+     * looked up, the result count and each result as a {@code service:} URI.  Strings are a length followed by
+     * their UTF-8 bytes.
+     */
+    private static final int MAGIC = 0x4c4b5331;
+
+    private static final String INTERVAL_KEY = "interval";
+    private static final String MAX_AGE_KEY = "maxAge";
+    private static final String MAX_ENTRIES_KEY = "maxEntries";
+    private static final long DEFAULT_INTERVAL_MS = 30_000;
+    private static final long DEFAULT_MAX_AGE_MS = 24 * 60 * 60 * 1_000;
+    private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    private final Vertx vertx;
+    private final Path file;
+    private final int maxEntries;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final long timerId;
+    private volatile boolean dirty;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    LookupSnapshot(final Vertx vertx, final Path file, final long interval, final long maxAge, final int maxEntries) {
+        if (interval <= 0) throw new IllegalArgumentException("snapshot interval must be positive");
+        this.vertx = vertx;
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.entries.putAll(read(file, System.currentTimeMillis() - maxAge));
+        if (!this.entries.isEmpty()) logger.info("loaded {} lookup results from {}", this.entries.size(), file);
+        this.timerId = vertx.setPeriodic(interval, id -> {
+            if (this.dirty) vertx.executeBlocking(future -> {
+                writeQuietly();
+                future.complete();
+            }, false, result -> {
+            });
+        });
+    }
+
+    /**
+     * Create a snapshot from a {@code snapshot:} configuration URI and load the file if it exists.
+     *
+     * @param vertx  the Vert.x instance whose timer writes the snapshot
+     * @param config the configuration URI
+     * @return the snapshot
+     */
+    static LookupSnapshot fromConfig(final Vertx vertx, final URI config) {
+        if (!SCHEME.equals(config.getScheme()))
+            throw new IllegalArgumentException("scheme for snapshot config must be " + SCHEME);
+        if (config.getPath() == null || config.getPath().isEmpty() || config.getPath().endsWith("/"))
+            throw new IllegalArgumentException("snapshot config must have a file path, e.g. snapshot:///tmp/lokate");
+        final Map<String, String> params = UriUtils.splitQuery(config.getQuery());
+        return new LookupSnapshot(vertx,
+                Paths.get(config.getPath()),
+                Long.parseLong(params.getOrDefault(INTERVAL_KEY, String.valueOf(DEFAULT_INTERVAL_MS))),
+                Long.parseLong(params.getOrDefault(MAX_AGE_KEY, String.valueOf(DEFAULT_MAX_AGE_MS))),
+                Integer.parseInt(params.getOrDefault(MAX_ENTRIES_KEY, String.valueOf(DEFAULT_MAX_ENTRIES))));
+    }
+
+    /**
+     * The results loaded from the file for a query that has not been looked up live yet.
+     *
+     * @param key the normalized query
+     * @return the results, or null
+     */
+    List<ServiceEndpoint> bootstrap(final String key) {
+        final Entry entry = this.entries.get(key);
+        return entry == null || entry.live ? null : entry.results;
+    }
+
+    /**
+     * Record the results of a live lookup.
+     *
+     * @param key     the normalized query
+     * @param results the results
+     */
+    void record(final String key, final List<ServiceEndpoint> results) {
+        if (this.entries.size() >= this.maxEntries && !this.entries.containsKey(key)) return;
+        this.entries.put(key, new Entry(results, System.currentTimeMillis(), true));
+        this.dirty = true;
+    }
+
+    int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Write the snapshot to a temporary file next to the snapshot file and move it into place.
+     *
+     * @throws IOException if the snapshot could not be written
+     */
+    synchronized void write() throws IOException {
+        this.dirty = false;
+        final Path directory = this.file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        final Path temp = Files.createTempFile(directory, this.file.getFileName().toString(), ".tmp");
+        try {
+            try (FileOutputStream fileOut = new FileOutputStream(temp.toFile());
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+                final Map<String, Entry> current = new HashMap<>(this.entries);
+                out.writeInt(MAGIC);
+                out.writeInt(current.size());
+                for (final Map.Entry<String, Entry> entry : current.entrySet()) {
+                    writeString(out, entry.getKey());
+                    out.writeLong(entry.getValue().updatedAt);
+                    out.writeInt(entry.getValue().results.size());
+                    for (final ServiceEndpoint endpoint : entry.getValue().results) {
+                        writeString(out, endpoint.toURI().toString());
+                    }
+                }
+                out.flush();
+                fileOut.getFD().sync();
+            }
+            Files.move(temp, this.file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (final IOException e) {
+            this.dirty = true;
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the timer and write any results recorded since the last write.
+     */
+    void close() {
+        this.vertx.cancelTimer(this.timerId);
+        if (this.dirty) writeQuietly();
+    }
+
+    /**
+     * Read a snapshot file.  A missing or unreadable file is an empty snapshot.
+     *
+     * @param file         the snapshot file
+     * @param updatedAfter only results looked up after this time are returned
+     * @return the results by normalized query
+     */
+    static Map<String, Entry> read(final Path file, final long updatedAfter) {
+        if (!Files.isRegularFile(file)) return Collections.emptyMap();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC) throw new IOException("not a lookup snapshot");
+            final int count = buffer.getInt();
+            final Map<String, Entry> entries = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                final String key = readString(buffer);
+                final long updatedAt = buffer.getLong();
+                final int size = buffer.getInt();
+                final List<ServiceEndpoint> results = new ArrayList<>(size);
+                for (int j = 0; j < size; j++) {
+                    results.add(ServiceEndpoint.fromURI(URI.create(readString(buffer))));
+                }
+                if (updatedAt > updatedAfter) {
+                    entries.put(key, new Entry(Collections.unmodifiableList(results), updatedAt, false));
+                }
+            }
+            return entries;
+        } catch (final IOException | BufferUnderflowException | IllegalArgumentException e) {
+            LoggerFactory.getLogger(LookupSnapshot.class).warn("ignoring unreadable lookup snapshot {}", file, e);
+            return Collections.emptyMap();
+        }
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (final IOException e) {
+            logger.warn("failed to write lookup snapshot {}", this.file, e);
+        }
+    }
+
+    private static void writeString(final DataOutputStream out, final String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) throw new BufferUnderflowException();
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static final class Entry {
+        private final List<ServiceEndpoint> results;
+        private final long updatedAt;
+        private final boolean live;
+
+        private Entry(final List<ServiceEndpoint> results, final long updatedAt, final boolean live) {
+            this.results = results;
+            this.updatedAt = updatedAt;
+            this.live = live;
+        }
+
+        List<ServiceEndpoint> results() {
+            return results;
+        }
+    }
+}
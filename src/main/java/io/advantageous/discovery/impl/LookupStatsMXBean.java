@@ -0,0 +1,28 @@
+package io.advantageous.discovery.impl;
+
+/**
+ * JMX view of the lookup metrics of a discovery scheme or of one of its backends.  Latencies are in microseconds and
+ * cover the last one to two report intervals.
+ */
+public interface LookupStatsMXBean {
+
+    String getScheme();
+
+    String getBackend();
+
+    long getSuccesses();
+
+    long getFailures();
+
+    long getEmptyResults();
+
+    int getInFlight();
+
+    long getLatencyP50Micros();
+
+    long getLatencyP99Micros();
+
+    long getLatencyP999Micros();
+
+    long getLatencyMaxMicros();
+}
@@ -0,0 +1,211 @@
+package io.advantageous.discovery.impl;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency and error statistics for DNS name servers, also used to rank Consul agents.
+ * <p>
+ * Each name server keeps an exponentially weighted moving average of its latency and error rate, which is used to
+ * rank the servers so the fastest healthy one is asked first.  A window of recent successful latencies across all
+ * servers gives the percentile used as the hedge delay.
+ * <p>
+ * The score of a server fades towards the best score of the servers being ranked while it is not asked, the gap
+ * halving every {@code decayHalfLifeMs}, so an idle server never outranks a busy one that is faster.  Once the gap
+ * has faded to a sixteenth, after four half lives, the server is ranked first once to probe it, so a server demoted
+ * after a burst of errors is tried again.  Its next answer then counts for more than its old history.
+ */
+class NameserverStats {
+
+    /**
+     * Weight of the newest sample in the moving averages.
+     */
+    private static final double ALPHA = 0.2;
+
+    /**
+     * Cost in milliseconds charged for a failed query when ranking, roughly what a retry costs.
+     */
+    private static final double FAILURE_PENALTY_MS = 1_000;
+
+    static final long DEFAULT_DECAY_HALF_LIFE_MS = 30_000;
+
+    /**
+     * What is left of the statistics of an idle server when it is probed again.
+     */
+    private static final double PROBE_DECAY = 1.0 / 16;
+
+    private static final int WINDOW_SIZE = 128;
+    private static final int MIN_SAMPLES = 16;
+
+    private final Map<URI, Stats> stats = new ConcurrentHashMap<>();
+    private final long[] window = new long[WINDOW_SIZE];
+    private final double percentile;
+    private final long defaultHedgeDelayMs;
+    private final long minHedgeDelayMs;
+    private final long decayHalfLifeNanos;
+    private int windowCount;
+    private int windowPosition;
+    private long hedgeDelayMs;
+
+    NameserverStats(final double percentile, final long defaultHedgeDelayMs, final long minHedgeDelayMs) {
+        this(percentile, defaultHedgeDelayMs, minHedgeDelayMs, DEFAULT_DECAY_HALF_LIFE_MS);
+    }
+
+    NameserverStats(final double percentile,
+                    final long defaultHedgeDelayMs,
+                    final long minHedgeDelayMs,
+                    final long decayHalfLifeMs) {
+        if (percentile <= 0 || percentile > 100)
+            throw new IllegalArgumentException("hedge percentile must be greater than 0 and at most 100");
+        if (decayHalfLifeMs <= 0) throw new IllegalArgumentException("decay half life must be positive");
+        this.percentile = percentile;
+        this.defaultHedgeDelayMs = defaultHedgeDelayMs;
+        this.minHedgeDelayMs = minHedgeDelayMs;
+        this.decayHalfLifeNanos = TimeUnit.MILLISECONDS.toNanos(decayHalfLifeMs);
+        this.hedgeDelayMs = defaultHedgeDelayMs;
+    }
+
+    void success(final URI nameserver, final long latencyMs) {
+        final long now = System.nanoTime();
+        stats.computeIfAbsent(nameserver, key -> new Stats(now)).record(latencyMs, false, now);
+        synchronized (window) {
+            window[windowPosition] = latencyMs;
+            windowPosition = (windowPosition + 1) % WINDOW_SIZE;
+            if (windowCount < WINDOW_SIZE) windowCount++;
+            if (windowCount >= MIN_SAMPLES && windowPosition % MIN_SAMPLES == 0) {
+                final long[] sorted = Arrays.copyOf(window, windowCount);
+                Arrays.sort(sorted);
+                final int index = (int) Math.ceil(percentile / 100 * windowCount) - 1;
+                hedgeDelayMs = Math.max(minHedgeDelayMs, sorted[Math.max(0, index)]);
+            }
+        }
+    }
+
+    void failure(final URI nameserver, final long latencyMs) {
+        final long now = System.nanoTime();
+        stats.computeIfAbsent(nameserver, key -> new Stats(now)).record(latencyMs, true, now);
+    }
+
+    /**
+     * The delay after which a query is hedged to the next name server: the configured percentile of recent
+     * latencies, or the default until enough samples have been seen.
+     *
+     * @return the hedge delay in milliseconds
+     */
+    long hedgeDelayMs() {
+        synchronized (window) {
+            return windowCount >= MIN_SAMPLES ? hedgeDelayMs : defaultHedgeDelayMs;
+        }
+    }
+
+    /**
+     * Order name servers by expected cost, the latency average plus the error rate times a failure penalty, faded
+     * towards the best cost by the time since the server was last asked.  Servers that have not been measured yet are
+     * tried first, then the first server that is due for a probe, and ties keep the configured order.
+     *
+     * @param nameservers the configured name servers
+     * @return the name servers, best first
+     */
+    List<URI> rank(final List<URI> nameservers) {
+        final long now = System.nanoTime();
+        final double best = best(nameservers);
+        final Map<URI, Double> scores = new HashMap<>();
+        nameservers.forEach(nameserver -> scores.put(nameserver, score(nameserver, best, now)));
+        final List<URI> ranked = new ArrayList<>(nameservers);
+        ranked.sort(Comparator.comparingDouble(scores::get));
+        if (ranked.isEmpty() || !stats.containsKey(ranked.get(0))) return ranked;
+        for (int i = 1; i < ranked.size(); i++) {
+            final Stats nameserverStats = stats.get(ranked.get(i));
+            if (nameserverStats != null && nameserverStats.probe(now)) {
+                ranked.add(0, ranked.remove(i));
+                break;
+            }
+        }
+        return ranked;
+    }
+
+    /**
+     * The score a server is ranked by, faded towards the best score of every server measured so far.
+     *
+     * @param nameserver the name server
+     * @return the expected cost of asking it, 0 if it was never measured
+     */
+    double score(final URI nameserver) {
+        return score(nameserver, best(stats.keySet()), System.nanoTime());
+    }
+
+    private double best(final Collection<URI> nameservers) {
+        double best = Double.MAX_VALUE;
+        for (final URI nameserver : nameservers) {
+            final Stats nameserverStats = stats.get(nameserver);
+            if (nameserverStats != null) best = Math.min(best, nameserverStats.cost());
+        }
+        return best;
+    }
+
+    private double score(final URI nameserver, final double best, final long now) {
+        final Stats nameserverStats = stats.get(nameserver);
+        return nameserverStats == null ? 0 : nameserverStats.score(best, now);
+    }
+
+    /**
+     * How much of the statistics of a server is left after it has not been asked for a while.
+     */
+    private double decay(final long elapsedNanos) {
+        return Math.pow(0.5, (double) Math.max(0, elapsedNanos) / decayHalfLifeNanos);
+    }
+
+    private final class Stats {
+        private double latency;
+        private double errorRate;
+        private boolean sampled;
+        private long updatedNanos;
+        private long probedNanos;
+
+        private Stats(final long now) {
+            this.updatedNanos = now;
+            this.probedNanos = now;
+        }
+
+        private synchronized void record(final long latencyMs, final boolean failed, final long now) {
+            if (!sampled) {
+                latency = latencyMs;
+                errorRate = failed ? 1 : 0;
+                sampled = true;
+                updatedNanos = now;
+                return;
+            }
+            /* The longer the server was not asked, the more the new sample replaces its history. */
+            final double alpha = 1 - (1 - ALPHA) * decay(now - updatedNanos);
+            latency += alpha * (latencyMs - latency);
+            errorRate += alpha * ((failed ? 1 : 0) - errorRate);
+            updatedNanos = now;
+        }
+
+        private synchronized double cost() {
+            return latency + errorRate * FAILURE_PENALTY_MS;
+        }
+
+        private synchronized double score(final double best, final long now) {
+            final double cost = cost();
+            return cost <= best ? cost : best + (cost - best) * decay(now - updatedNanos);
+        }
+
+        /**
+         * Whether the server has been idle long enough to be probed, counting a probe as asking it.
+         */
+        private synchronized boolean probe(final long now) {
+            if (decay(now - updatedNanos) > PROBE_DECAY || decay(now - probedNanos) > PROBE_DECAY) return false;
+            probedNanos = now;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package io.advantageous.discovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.dns.DnsException;
+import io.vertx.core.dns.DnsResponseCode;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking DNS resolver that multiplexes every outstanding query over one UDP socket, matching responses to
+ * queries by id.
+ * <p>
+ * Answers are cached for the TTL of their records.  Negative answers are cached for the SOA minimum (RFC 2308), per
+ * name server, since discovery fails over to the next name server on a negative answer.  Truncated responses are
+ * retried over TCP within what is left of the query timeout.  Handlers are called on the Vert.x context the resolver
+ * was created on.
+ */
+class NioDnsResolver implements AutoCloseable {
+
+    private static final int MAX_CACHE_TTL_SECONDS = 86_400;
+    private static final int RECEIVE_BUFFER_SIZE = 65_535;
+    private static final int QUERY_IDS = 0x10000;
+    private static final int MAX_ID_ATTEMPTS = 32;
+    private static final int EVICTION_FRACTION = 16;
+
+    private final Vertx vertx;
+    private final Context context;
+    private final long timeoutMs;
+    private final int maxCacheSize;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final Thread selectorThread;
+    private final Map<Integer, PendingQuery> pending = new ConcurrentHashMap<>();
+    private final Map<String, CacheEntry> cache = new ConcurrentHashMap<>();
+    private final Map<URI, InetSocketAddress> addresses = new ConcurrentHashMap<>();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private volatile boolean closed;
+
+    NioDnsResolver(final Vertx vertx, final long timeoutMs, final int maxCacheSize) {
+        this.vertx = vertx;
+        this.context = vertx.getOrCreateContext();
+        this.timeoutMs = timeoutMs;
+        this.maxCacheSize = maxCacheSize;
+        try {
+            this.channel = DatagramChannel.open();
+            this.channel.configureBlocking(false);
+            this.channel.bind(null);
+            this.selector = Selector.open();
+            this.channel.register(selector, SelectionKey.OP_READ);
+        } catch (final IOException e) {
+            throw new IllegalStateException("unable to open dns socket", e);
+        }
+        this.selectorThread = new Thread(this::receiveLoop, "lokate-dns-resolver");
+        this.selectorThread.setDaemon(true);
+        this.selectorThread.start();
+    }
+
+    /**
+     * Resolve a name against one name server, from the cache when possible.
+     *
+     * @param nameserver the name server, as a URI with a host and port
+     * @param name       the name to resolve
+     * @param type       {@link DnsMessage#TYPE_A} or {@link DnsMessage#TYPE_SRV}
+     * @param handler    called with the records of the requested type
+     */
+    void query(final URI nameserver,
+               final String name,
+               final int type,
+               final Handler<AsyncResult<List<DnsMessage.Record>>> handler) {
+        query(nameserver, name, type, timeoutMs, handler);
+    }
+
+    /**
+     * Resolve a name against one name server, from the cache when possible, failing with a timeout after at most
+     * {@code timeoutMs}.  Once the query fails its response is dropped if it arrives.
+     *
+     * @param nameserver the name server, as a URI with a host and port
+     * @param name       the name to resolve
+     * @param type       {@link DnsMessage#TYPE_A} or {@link DnsMessage#TYPE_SRV}
+     * @param timeoutMs  how long to wait for the answer, including the TCP retry of a truncated answer
+     * @param handler    called with the records of the requested type
+     */
+    void query(final URI nameserver,
+               final String name,
+               final int type,
+               final long timeoutMs,
+               final Handler<AsyncResult<List<DnsMessage.Record>>> handler) {
+
+        final String answerKey = type + ":" + name.toLowerCase();
+        final CacheEntry answer = cached(answerKey);
+        if (answer != null) {
+            complete(handler, Future.succeededFuture(answer.records));
+            return;
+        }
+        final String negativeKey = nameserver.getHost() + ":" + nameserver.getPort() + "|" + answerKey;
+        final CacheEntry negative = cached(negativeKey);
+        if (negative != null) {
+            complete(handler, negative.responseCode == DnsMessage.RCODE_NO_ERROR
+                    ? Future.succeededFuture(Collections.emptyList())
+                    : Future.failedFuture(dnsException(negative.responseCode)));
+            return;
+        }
+        if (closed) {
+            complete(handler, Future.failedFuture(new IllegalStateException("dns resolver is closed")));
+            return;
+        }
+
+        final InetSocketAddress address = addresses.computeIfAbsent(nameserver,
+                key -> new InetSocketAddress(key.getHost(), key.getPort()));
+        if (address.isUnresolved()) {
+            addresses.remove(nameserver);
+            complete(handler, Future.failedFuture(
+                    new IllegalArgumentException("unknown name server " + nameserver)));
+            return;
+        }
+        final PendingQuery query = new PendingQuery(address, name, type, answerKey, negativeKey, timeoutMs, handler);
+        final int queryId = reserveId(pending, query);
+        if (queryId == -1) {
+            complete(handler, Future.failedFuture(
+                    new RejectedExecutionException("too many dns queries in flight to pick a free query id")));
+            return;
+        }
+        query.timerId = vertx.setTimer(timeoutMs, timer -> {
+            if (pending.remove(queryId, query)) {
+                complete(handler, Future.failedFuture(query.timeout()));
+            }
+        });
+
+        try {
+            if (channel.send(DnsMessage.encodeQuery(queryId, name, type, true), address) == 0) {
+                throw new IOException("dns socket send buffer is full");
+            }
+        } catch (final IOException | RuntimeException e) {
+            if (pending.remove(queryId, query)) {
+                vertx.cancelTimer(query.timerId);
+                complete(handler, Future.failedFuture(e));
+            }
+        }
+    }
+
+    /**
+     * Reserve a random query id that is not in flight, giving up after a bounded number of draws so a resolver with
+     * (nearly) every id in flight fails the query instead of spinning.
+     *
+     * @param pending the queries in flight by id
+     * @param query   the query to reserve an id for
+     * @param <T>     the query type
+     * @return the id, or -1 if no free id was drawn
+     */
+    static <T> int reserveId(final Map<Integer, T> pending, final T query) {
+        if (pending.size() >= QUERY_IDS) return -1;
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int attempt = 0; attempt < MAX_ID_ATTEMPTS; attempt++) {
+            final int id = random.nextInt(QUERY_IDS);
+            if (pending.putIfAbsent(id, query) == null) return id;
+        }
+        return -1;
+    }
+
+    int cacheSize() {
+        return cache.size();
+    }
+
+    /**
+     * Drop every cached answer, e.g. when the name servers change.
+     */
+    void clearCache() {
+        cache.clear();
+    }
+
+    /**
+     * Fail the outstanding queries and release the socket and the receive thread.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            selector.close();
+            channel.close();
+        } catch (final IOException e) {
+            logger.debug("failed to close dns socket", e);
+        }
+        final List<Integer> ids = new ArrayList<>(pending.keySet());
+        ids.forEach(id -> {
+            final PendingQuery query = pending.remove(id);
+            if (query != null) {
+                vertx.cancelTimer(query.timerId);
+                complete(query.handler, Future.failedFuture(new IllegalStateException("dns resolver was closed")));
+            }
+        });
+        cache.clear();
+    }
+
+    private void receiveLoop() {
+        final ByteBuffer buffer = ByteBuffer.allocate(RECEIVE_BUFFER_SIZE);
+        while (!closed) {
+            try {
+                selector.select();
+                final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    keys.next();
+                    keys.remove();
+                    SocketAddress from;
+                    while ((from = channel.receive(buffer)) != null) {
+                        buffer.flip();
+                        onDatagram(from, buffer);
+                        buffer.clear();
+                    }
+                }
+            } catch (final ClosedSelectorException e) {
+                return;
+            } catch (final IOException e) {
+                if (!closed) logger.warn("dns socket receive failed", e);
+            }
+        }
+    }
+
+    private void onDatagram(final SocketAddress from, final ByteBuffer buffer) {
+        final DnsMessage response;
+        try {
+            response = DnsMessage.decode(buffer);
+        } catch (final IllegalArgumentException e) {
+            logger.debug("dropping malformed dns response from {}", from, e);
+            return;
+        }
+        final PendingQuery query = pending.get(response.id());
+        if (query == null || !query.matches(from, response)) {
+            logger.debug("dropping unexpected dns response {} from {}", response.id(), from);
+            return;
+        }
+        if (!pending.remove(response.id(), query)) return;
+        vertx.cancelTimer(query.timerId);
+
+        if (response.truncated()) {
+            queryOverTcp(response.id(), query);
+        } else {
+            onResponse(query, response);
+        }
+    }
+
+    /**
+     * Retry a query over TCP with what is left of its timeout.  The socket is closed once the time is up, so a server
+     * that accepts the connection and then trickles or withholds its answer can not hold the query past it.
+     */
+    private void queryOverTcp(final int id, final PendingQuery query) {
+        final long remainingMs = query.remainingMs();
+        if (remainingMs <= 0) {
+            complete(query.handler, Future.failedFuture(query.timeout()));
+            return;
+        }
+        final Socket socket = new Socket();
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        final long timerId = vertx.setTimer(remainingMs, timer -> {
+            timedOut.set(true);
+            closeQuietly(socket);
+        });
+        vertx.<DnsMessage>executeBlocking(future -> {
+            try {
+                socket.connect(query.address, (int) Math.max(1, query.remainingMs()));
+                socket.setSoTimeout((int) Math.max(1, query.remainingMs()));
+                final ByteBuffer request = DnsMessage.encodeQuery(id, query.name, query.type, false);
+                final OutputStream out = socket.getOutputStream();
+                out.write(new byte[]{(byte) (request.remaining() >> 8), (byte) request.remaining()});
+                out.write(request.array(), 0, request.remaining());
+                out.flush();
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+                final byte[] response = new byte[in.readUnsignedShort()];
+                in.readFully(response);
+                future.complete(DnsMessage.decode(ByteBuffer.wrap(response)));
+            } catch (final IOException | RuntimeException e) {
+                future.fail(e);
+            } finally {
+                closeQuietly(socket);
+            }
+        }, false, result -> {
+            vertx.cancelTimer(timerId);
+            if (result.succeeded()) {
+                onResponse(query, result.result());
+            } else if (timedOut.get() || result.cause() instanceof SocketTimeoutException) {
+                complete(query.handler, Future.failedFuture(query.timeout()));
+            } else {
+                complete(query.handler, Future.failedFuture(result.cause()));
+            }
+        });
+    }
+
+    private void closeQuietly(final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException e) {
+            logger.debug("failed to close dns tcp socket", e);
+        }
+    }
+
+    private void onResponse(final PendingQuery query, final DnsMessage response) {
+        final int responseCode = response.responseCode();
+        if (responseCode == DnsMessage.RCODE_NO_ERROR && !response.answers().isEmpty()) {
+            final long ttl = response.answers().stream().mapToLong(DnsMessage.Record::ttl).min().orElse(0);
+            store(query.answerKey, new CacheEntry(response.answers(), responseCode, ttl));
+            complete(query.handler, Future.succeededFuture(response.answers()));
+            return;
+        }
+        final boolean negative = responseCode == DnsMessage.RCODE_NO_ERROR
+                || responseCode == DnsMessage.RCODE_NX_DOMAIN;
+        if (negative && response.negativeTtl() > 0) {
+            store(query.negativeKey, new CacheEntry(Collections.emptyList(), responseCode, response.negativeTtl()));
+        }
+        complete(query.handler, responseCode == DnsMessage.RCODE_NO_ERROR
+                ? Future.succeededFuture(Collections.emptyList())
+                : Future.failedFuture(dnsException(responseCode)));
+    }
+
+    private CacheEntry cached(final String key) {
+        final CacheEntry entry = cache.get(key);
+        if (entry == null) return null;
+        if (entry.expiresAt <= System.currentTimeMillis()) {
+            cache.remove(key, entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void store(final String key, final CacheEntry entry) {
+        if (entry.expiresAt <= System.currentTimeMillis() || maxCacheSize <= 0) return;
+        if (cache.size() >= maxCacheSize) evict();
+        cache.put(key, entry);
+    }
+
+    /**
+     * Make room in a full cache: drop the expired answers and, if that is not enough, the sixteenth of the answers
+     * closest to expiring.  The cache is then only scanned again after that many stores, and is never emptied.
+     */
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        final int batch = Math.max(1, maxCacheSize / EVICTION_FRACTION);
+        final PriorityQueue<Map.Entry<String, CacheEntry>> soonest = new PriorityQueue<>(batch + 1,
+                Comparator.comparingLong((Map.Entry<String, CacheEntry> cached) -> cached.getValue().expiresAt)
+                        .reversed());
+        final Iterator<Map.Entry<String, CacheEntry>> entries = cache.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<String, CacheEntry> cached = entries.next();
+            if (cached.getValue().expiresAt <= now) {
+                entries.remove();
+                continue;
+            }
+            soonest.add(cached);
+            if (soonest.size() > batch) soonest.poll();
+        }
+        final int excess = cache.size() - (maxCacheSize - batch);
+        while (soonest.size() > Math.max(0, excess)) soonest.poll();
+        soonest.forEach(cached -> cache.remove(cached.getKey(), cached.getValue()));
+    }
+
+    private void complete(final Handler<AsyncResult<List<DnsMessage.Record>>> handler,
+                          final AsyncResult<List<DnsMessage.Record>> result) {
+        context.runOnContext(v -> handler.handle(result));
+    }
+
+    private static DnsException dnsException(final int responseCode) {
+        DnsResponseCode code;
+        try {
+            code = DnsResponseCode.valueOf(responseCode);
+        } catch (final RuntimeException e) {
+            code = DnsResponseCode.SERVFAIL;
+        }
+        return new DnsException(code);
+    }
+
+    private static final class PendingQuery {
+        private final InetSocketAddress address;
+        private final String name;
+        private final int type;
+        private final String answerKey;
+        private final String negativeKey;
+        private final long timeoutMs;
+        private final long deadlineNanos;
+        private final Handler<AsyncResult<List<DnsMessage.Record>>> handler;
+        private volatile long timerId;
+
+        private PendingQuery(final InetSocketAddress address,
+                             final String name,
+                             final int type,
+                             final String answerKey,
+                             final String negativeKey,
+                             final long timeoutMs,
+                             final Handler<AsyncResult<List<DnsMessage.Record>>> handler) {
+            this.address = address;
+            this.name = name;
+            this.type = type;
+            this.answerKey = answerKey;
+            this.negativeKey = negativeKey;
+            this.timeoutMs = timeoutMs;
+            this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            this.handler = handler;
+        }
+
+        private long remainingMs() {
+            return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+        }
+
+        private TimeoutException timeout() {
+            return new TimeoutException("dns query for " + name + " to " + address + " timed out after " + timeoutMs
+                    + " ms");
+        }
+
+        private boolean matches(final SocketAddress from, final DnsMessage response) {
+            return address.equals(from)
+                    && type == response.questionType()
+                    && trimDot(name).equalsIgnoreCase(trimDot(response.questionName()));
+        }
+
+        private static String trimDot(final String name) {
+            return name.endsWith(".") ? name.substring(0, name.length() - 1) : name;
+        }
+    }
+
+    private static final class CacheEntry {
+        private final List<DnsMessage.Record> records;
+        private final int responseCode;
+        private final long expiresAt;
+
+        private CacheEntry(final List<DnsMessage.Record> records, final int responseCode, final long ttlSeconds) {
+            this.records = records;
+            this.responseCode = responseCode;
+            this.expiresAt = System.currentTimeMillis() +
+                    TimeUnit.SECONDS.toMillis(Math.min(ttlSeconds, MAX_CACHE_TTL_SECONDS));
+        }
+    }
+}
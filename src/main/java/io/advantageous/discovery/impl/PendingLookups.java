@@ -0,0 +1,70 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.reakt.Callback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks the lookups a provider has in flight so that they can be rejected when the provider is closed.  Each
+ * callback is completed at most once, whichever of the lookup or the close gets to it first.
+ */
+class PendingLookups {
+
+    private final Set<Callback<?>> pending = ConcurrentHashMap.newKeySet();
+    private volatile boolean closed;
+
+    /**
+     * Start tracking a lookup.  If the provider is already closed the callback is rejected.
+     *
+     * @param callback the lookup callback
+     * @return true if the lookup may proceed
+     */
+    boolean begin(final Callback<?> callback) {
+        if (closed) {
+            callback.reject(new IllegalStateException("discovery service is closed"));
+            return false;
+        }
+        pending.add(callback);
+        if (closed && pending.remove(callback)) {
+            callback.reject(new IllegalStateException("discovery service is closed"));
+            return false;
+        }
+        return true;
+    }
+
+    <T> void resolve(final Callback<T> callback, final T result) {
+        if (pending.remove(callback)) callback.resolve(result);
+    }
+
+    void reject(final Callback<?> callback, final Throwable error) {
+        if (pending.remove(callback)) callback.reject(error);
+    }
+
+    void reject(final Callback<?> callback, final String message) {
+        if (pending.remove(callback)) callback.reject(message);
+    }
+
+    void reject(final Callback<?> callback, final String message, final Throwable error) {
+        if (pending.remove(callback)) callback.reject(message, error);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    int size() {
+        return pending.size();
+    }
+
+    /**
+     * Reject every lookup still in flight and refuse new ones.
+     */
+    void close() {
+        closed = true;
+        final List<Callback<?>> remaining = new ArrayList<>(pending);
+        remaining.forEach(callback -> reject(callback, new IllegalStateException("discovery service was closed")));
+    }
+}
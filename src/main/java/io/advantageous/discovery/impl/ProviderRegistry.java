@@ -0,0 +1,173 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The discovery services registered for each scheme.
+ * <p>
+ * Reads never lock.  Providers can be added, replaced and removed at any time, each change is atomic, and a
+ * replaced or removed provider is drained: lookups already running on it complete normally, lookups that start
+ * after the change go to its replacement, and it is closed once its last lookup completes or the drain timeout
+ * passes, whichever is first.  Watches on a drained provider end when it is closed.
+ */
+class ProviderRegistry {
+
+    static final long DEFAULT_DRAIN_TIMEOUT_MS = 30_000;
+
+    private final Map<String, Provider> providers = new ConcurrentHashMap<>();
+    private final Vertx vertx;
+    private final long drainTimeoutMs;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    ProviderRegistry(final Vertx vertx, final long drainTimeoutMs) {
+        this.vertx = vertx;
+        this.drainTimeoutMs = drainTimeoutMs;
+    }
+
+    /**
+     * Register a provider for a scheme that has none.
+     *
+     * @param scheme  the discovery scheme
+     * @param service the provider
+     * @return false if the scheme already had a provider, which is left in place
+     */
+    boolean add(final String scheme, final DiscoveryService service) {
+        return this.providers.putIfAbsent(check(scheme, service), new Provider(service)) == null;
+    }
+
+    /**
+     * Register a provider for a scheme, draining the one it replaces.
+     *
+     * @param scheme  the discovery scheme
+     * @param service the provider
+     */
+    void replace(final String scheme, final DiscoveryService service) {
+        final Provider previous = this.providers.put(check(scheme, service), new Provider(service));
+        if (previous != null) previous.retire();
+    }
+
+    /**
+     * Remove the provider for a scheme and drain it.
+     *
+     * @param scheme the discovery scheme
+     * @return false if the scheme had no provider
+     */
+    boolean remove(final String scheme) {
+        final Provider previous = this.providers.remove(scheme);
+        if (previous == null) return false;
+        previous.retire();
+        return true;
+    }
+
+    boolean contains(final String scheme) {
+        return this.providers.containsKey(scheme);
+    }
+
+    /**
+     * The current provider for a scheme, for calls such as watches that are not drained.
+     *
+     * @param scheme the discovery scheme
+     * @return the provider, or null
+     */
+    DiscoveryService get(final String scheme) {
+        final Provider provider = this.providers.get(scheme);
+        return provider == null ? null : provider.service;
+    }
+
+    /**
+     * The current provider for a scheme, counted as in use until {@link Provider#release()} is called.
+     *
+     * @param scheme the discovery scheme
+     * @return the provider, or null if the scheme has none
+     */
+    Provider acquire(final String scheme) {
+        while (true) {
+            final Provider provider = this.providers.get(scheme);
+            if (provider == null || provider.acquire()) return provider;
+        }
+    }
+
+    List<DiscoveryService> services() {
+        final List<DiscoveryService> services = new ArrayList<>(this.providers.size());
+        this.providers.values().forEach(provider -> services.add(provider.service));
+        return services;
+    }
+
+    /**
+     * Remove and close every provider without draining.
+     */
+    void close() {
+        new ArrayList<>(this.providers.keySet()).forEach(scheme -> {
+            final Provider provider = this.providers.remove(scheme);
+            if (provider != null) provider.close();
+        });
+    }
+
+    private static String check(final String scheme, final DiscoveryService service) {
+        Objects.requireNonNull(scheme, "scheme must not be null");
+        Objects.requireNonNull(service, "service must be set.");
+        return scheme;
+    }
+
+    /**
+     * A registered provider and the number of lookups running on it.
+     */
+    final class Provider {
+
+        private final DiscoveryService service;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private volatile boolean retired;
+
+        private Provider(final DiscoveryService service) {
+            this.service = service;
+        }
+
+        DiscoveryService service() {
+            return this.service;
+        }
+
+        private boolean acquire() {
+            this.inFlight.incrementAndGet();
+            if (!this.retired) return true;
+            release();
+            return false;
+        }
+
+        /**
+         * Mark a lookup acquired from the registry as complete.
+         */
+        void release() {
+            if (this.inFlight.decrementAndGet() == 0 && this.retired) close();
+        }
+
+        private void retire() {
+            this.retired = true;
+            if (this.inFlight.get() == 0) {
+                close();
+            } else {
+                vertx.setTimer(drainTimeoutMs, id -> close());
+            }
+        }
+
+        private void close() {
+            if (!this.closed.compareAndSet(false, true)) return;
+            try {
+                this.service.close();
+            } catch (final RuntimeException e) {
+                logger.warn("failed to close {}", this.service.getClass().getSimpleName(), e);
+            }
+        }
+    }
+}
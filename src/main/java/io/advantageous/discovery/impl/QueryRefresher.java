@@ -0,0 +1,216 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.utils.UriUtils;
+import io.advantageous.reakt.Callback;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+
+/**
+ * Keeps the results of registered queries in memory and refreshes them on Vert.x timers.
+ * <p>
+ * The refresh interval of each query adapts to how often its endpoints change: it is halved, down to
+ * {@code minInterval}, after a refresh that changed the endpoints, and doubled, up to {@code maxInterval}, after one
+ * that did not or that failed.  Every delay is spread by plus or minus {@code jitter} so nodes that start together do
+ * not refresh together.  A failed refresh keeps the last results.
+ * <p>
+ * Configured with a URI such as {@code refresh:///?minInterval=1000&maxInterval=60000&jitter=0.2}, intervals in
+ * milliseconds.
+ */
+class QueryRefresher {
+
+    static final String SCHEME = "refresh";
+
+    private static final String MIN_INTERVAL_KEY = "minInterval";
+    private static final String MAX_INTERVAL_KEY = "maxInterval";
+    private static final String JITTER_KEY = "jitter";
+    private static final long DEFAULT_MIN_INTERVAL_MS = 1_000;
+    private static final long DEFAULT_MAX_INTERVAL_MS = 60_000;
+    private static final double DEFAULT_JITTER = 0.2;
+
+    private final Vertx vertx;
+    private final long minInterval;
+    private final long maxInterval;
+    private final double jitter;
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    QueryRefresher(final Vertx vertx, final long minInterval, final long maxInterval, final double jitter) {
+        if (minInterval <= 0 || maxInterval < minInterval)
+            throw new IllegalArgumentException("refresh intervals must be positive with minInterval <= maxInterval");
+        if (jitter < 0 || jitter >= 1) throw new IllegalArgumentException("refresh jitter must be in [0, 1)");
+        this.vertx = vertx;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Create a refresher with the default intervals.
+     *
+     * @param vertx the Vert.x instance whose timers drive the refreshes
+     * @return the refresher
+     */
+    static QueryRefresher defaults(final Vertx vertx) {
+        return new QueryRefresher(vertx, DEFAULT_MIN_INTERVAL_MS, DEFAULT_MAX_INTERVAL_MS, DEFAULT_JITTER);
+    }
+
+    /**
+     * Create a refresher from a {@code refresh:} configuration URI.
+     *
+     * @param vertx  the Vert.x instance whose timers drive the refreshes
+     * @param config the configuration URI
+     * @return the refresher
+     */
+    static QueryRefresher fromConfig(final Vertx vertx, final URI config) {
+        if (!SCHEME.equals(config.getScheme()))
+            throw new IllegalArgumentException("scheme for refresh config must be " + SCHEME);
+        final Map<String, String> params = UriUtils.splitQuery(config.getQuery());
+        return new QueryRefresher(vertx,
+                Long.parseLong(params.getOrDefault(MIN_INTERVAL_KEY, String.valueOf(DEFAULT_MIN_INTERVAL_MS))),
+                Long.parseLong(params.getOrDefault(MAX_INTERVAL_KEY, String.valueOf(DEFAULT_MAX_INTERVAL_MS))),
+                Double.parseDouble(params.getOrDefault(JITTER_KEY, String.valueOf(DEFAULT_JITTER))));
+    }
+
+    /**
+     * Register a query, look it up now and keep refreshing it.  Registering a query again does not start another
+     * refresh schedule.
+     *
+     * @param query  the query
+     * @param loader supplies the backend lookup
+     * @return a promise for the first results, rejected if the first lookup fails, in which case the query is still
+     * refreshed and is served once a refresh succeeds
+     */
+    Promise<List<ServiceEndpoint>> register(final DiscoveryQuery query,
+                                            final Supplier<Promise<List<ServiceEndpoint>>> loader) {
+        return invokablePromise(promise -> {
+            final Registration[] created = new Registration[1];
+            final Registration registration = this.registrations.computeIfAbsent(query.key(),
+                    key -> created[0] = new Registration(query, loader));
+            if (registration != created[0] && registration.results != null) {
+                promise.resolve(registration.results);
+                return;
+            }
+            registration.refresh(promise, registration == created[0]);
+        });
+    }
+
+    /**
+     * The last results of a registered query.
+     *
+     * @param key the normalized query
+     * @return the results, or null if the query is not registered or has not been resolved yet
+     */
+    List<ServiceEndpoint> get(final String key) {
+        final Registration registration = this.registrations.get(key);
+        return registration == null ? null : registration.results;
+    }
+
+    /**
+     * The current refresh interval of a registered query, before jitter.
+     *
+     * @param key the normalized query
+     * @return the interval in milliseconds, or -1 if the query is not registered
+     */
+    long interval(final String key) {
+        final Registration registration = this.registrations.get(key);
+        return registration == null ? -1 : registration.interval;
+    }
+
+    /**
+     * Cancel every refresh.
+     */
+    void close() {
+        this.closed = true;
+        this.registrations.values().forEach(registration -> this.vertx.cancelTimer(registration.timerId));
+        this.registrations.clear();
+    }
+
+    static long nextInterval(final long interval, final boolean changed, final long min, final long max) {
+        return changed ? Math.max(min, interval / 2) : Math.min(max, interval * 2);
+    }
+
+    /**
+     * Spread an interval uniformly over plus or minus {@code jitter} of itself.
+     *
+     * @param interval the interval
+     * @param jitter   the fraction of the interval to spread over
+     * @param random   a random number in [0, 1)
+     * @return the delay, at least one millisecond
+     */
+    static long jittered(final long interval, final double jitter, final double random) {
+        return Math.max(1, Math.round(interval * (1 - jitter + 2 * jitter * random)));
+    }
+
+    private final class Registration {
+
+        private final DiscoveryQuery query;
+        private final Supplier<Promise<List<ServiceEndpoint>>> loader;
+        private volatile List<ServiceEndpoint> results;
+        private volatile long interval = minInterval;
+        private volatile long timerId = -1;
+
+        private Registration(final DiscoveryQuery query, final Supplier<Promise<List<ServiceEndpoint>>> loader) {
+            this.query = query;
+            this.loader = loader;
+        }
+
+        /**
+         * Look the query up, store the results, adapt the interval and, when this refresh owns the schedule, set
+         * the timer for the next one.  Refreshes from the timer have no callback.
+         */
+        private void refresh(final Callback<List<ServiceEndpoint>> callback, final boolean schedule) {
+            final Promise<List<ServiceEndpoint>> refreshed = Promises.<List<ServiceEndpoint>>promise()
+                    .then(found -> {
+                        final List<ServiceEndpoint> previous = this.results;
+                        final List<ServiceEndpoint> shared = Collections.unmodifiableList(found);
+                        final boolean changed = previous != null
+                                && !new HashSet<>(previous).equals(new HashSet<>(shared));
+                        this.results = shared;
+                        if (previous != null) {
+                            this.interval = nextInterval(this.interval, changed, minInterval, maxInterval);
+                        }
+                        if (schedule) scheduleNext();
+                        if (callback != null) callback.resolve(shared);
+                    })
+                    .catchError(error -> failed(error, callback, schedule));
+            try {
+                this.loader.get().asHandler().invokeWithPromise(refreshed);
+            } catch (final RuntimeException e) {
+                failed(e, callback, schedule);
+            }
+        }
+
+        private void failed(final Throwable error, final Callback<List<ServiceEndpoint>> callback,
+                            final boolean schedule) {
+            logger.debug("refresh of {} failed", this.query, error);
+            this.interval = nextInterval(this.interval, false, minInterval, maxInterval);
+            if (schedule) scheduleNext();
+            if (callback != null) callback.reject(error);
+        }
+
+        private void scheduleNext() {
+            if (closed) return;
+            final long delay = jittered(this.interval, jitter, ThreadLocalRandom.current().nextDouble());
+            this.timerId = vertx.setTimer(delay, id -> {
+                if (!closed) refresh(null, true);
+            });
+        }
+    }
+}
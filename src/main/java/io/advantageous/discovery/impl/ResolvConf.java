@@ -0,0 +1,200 @@
+package io.advantageous.discovery.impl;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * The resolver settings of a resolv.conf file: {@code nameserver}, {@code search} (or {@code domain}) and the
+ * {@code ndots}, {@code timeout}, {@code attempts} and {@code rotate} options.
+ * <p>
+ * Parsing follows the resolver: the last {@code search} or {@code domain} line wins, options accumulate, unknown
+ * lines and options are ignored, and a missing file means no name servers and the default options.  An IPv4 name
+ * server may carry a port, e.g. {@code nameserver 127.0.0.1:8600}.
+ */
+final class ResolvConf {
+
+    static final int DEFAULT_NDOTS = 1;
+    static final long DEFAULT_TIMEOUT_MS = 5_000;
+    static final int DEFAULT_ATTEMPTS = 2;
+
+    /**
+     * The resolver caps ndots, timeout and attempts at these values.
+     */
+    private static final int MAX_NDOTS = 15;
+    private static final int MAX_TIMEOUT_SECONDS = 30;
+    private static final int MAX_ATTEMPTS = 5;
+
+    static final ResolvConf EMPTY = new ResolvConf(Collections.emptyList(), Collections.emptyList(),
+            DEFAULT_NDOTS, DEFAULT_TIMEOUT_MS, DEFAULT_ATTEMPTS, false);
+
+    private final List<URI> nameservers;
+    private final List<String> search;
+    private final int ndots;
+    private final long timeoutMs;
+    private final int attempts;
+    private final boolean rotate;
+
+    private ResolvConf(final List<URI> nameservers,
+                       final List<String> search,
+                       final int ndots,
+                       final long timeoutMs,
+                       final int attempts,
+                       final boolean rotate) {
+        this.nameservers = Collections.unmodifiableList(nameservers);
+        this.search = Collections.unmodifiableList(search);
+        this.ndots = ndots;
+        this.timeoutMs = timeoutMs;
+        this.attempts = attempts;
+        this.rotate = rotate;
+    }
+
+    /**
+     * Read a resolv.conf file.
+     *
+     * @param file the file, usually {@code /etc/resolv.conf}
+     * @return the settings, {@link #EMPTY} if the file does not exist
+     * @throws IllegalStateException if the file can not be read or a name server can not be parsed
+     */
+    static ResolvConf read(final Path file) {
+        try {
+            return parse(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        } catch (final NoSuchFileException e) {
+            return EMPTY;
+        } catch (final IOException e) {
+            throw new IllegalStateException("can not read " + file, e);
+        }
+    }
+
+    static ResolvConf parse(final String text) {
+        final List<URI> nameservers = new ArrayList<>();
+        List<String> search = Collections.emptyList();
+        int ndots = DEFAULT_NDOTS;
+        long timeoutMs = DEFAULT_TIMEOUT_MS;
+        int attempts = DEFAULT_ATTEMPTS;
+        boolean rotate = false;
+
+        for (final String rawLine : text.split("\n")) {
+            final String line = rawLine.trim();
+            if (line.isEmpty() || line.startsWith("#") || line.startsWith(";")) continue;
+            final String[] fields = line.split("\\s+");
+            switch (fields[0]) {
+                case "nameserver":
+                    if (fields.length > 1) nameservers.add(nameserver(fields[1]));
+                    break;
+                case "domain":
+                case "search":
+                    search = Arrays.stream(fields).skip(1)
+                            .map(domain -> domain.endsWith(".") ? domain.substring(0, domain.length() - 1) : domain)
+                            .filter(domain -> !domain.isEmpty())
+                            .collect(Collectors.toList());
+                    break;
+                case "options":
+                    for (int i = 1; i < fields.length; i++) {
+                        final String option = fields[i];
+                        if (option.equals("rotate")) {
+                            rotate = true;
+                        } else if (option.startsWith("ndots:")) {
+                            ndots = Math.min(MAX_NDOTS, value(option, ndots));
+                        } else if (option.startsWith("timeout:")) {
+                            final int seconds = value(option, (int) (timeoutMs / 1000));
+                            timeoutMs = Math.max(1, Math.min(MAX_TIMEOUT_SECONDS, seconds)) * 1000L;
+                        } else if (option.startsWith("attempts:") || option.startsWith("attempt:")) {
+                            attempts = Math.min(MAX_ATTEMPTS, value(option, attempts));
+                        }
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return new ResolvConf(nameservers, search, ndots, timeoutMs, Math.max(1, attempts), rotate);
+    }
+
+    private static URI nameserver(final String address) {
+        final int colon = address.lastIndexOf(':');
+        final boolean ipv6 = address.indexOf(':') != colon;
+        final String host = ipv6 ? "[" + address + "]" : colon < 0 ? address : address.substring(0, colon);
+        try {
+            final int port = ipv6 || colon < 0 ? 53 : Integer.parseInt(address.substring(colon + 1));
+            return new URI("dns", null, host, port, null, null, null);
+        } catch (URISyntaxException | NumberFormatException e) {
+            throw new IllegalStateException("Unable to parse name server " + address, e);
+        }
+    }
+
+    private static int value(final String option, final int defaultValue) {
+        try {
+            return Math.max(0, Integer.parseInt(option.substring(option.indexOf(':') + 1)));
+        } catch (final NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * The names to try for a name, in the order the resolver tries them.  A name ending in a dot is absolute and only
+     * tried as is.  A name with at least {@code ndots} dots is tried as is before the search domains are appended,
+     * and a name with fewer after.
+     *
+     * @param name the name as given in the query
+     * @return the candidate names, without trailing dots
+     */
+    List<String> candidates(final String name) {
+        if (name.endsWith(".")) return Collections.singletonList(name.substring(0, name.length() - 1));
+        if (search.isEmpty()) return Collections.singletonList(name);
+        final List<String> candidates = new ArrayList<>(search.size() + 1);
+        final boolean qualified = name.chars().filter(c -> c == '.').count() >= ndots;
+        if (qualified) candidates.add(name);
+        search.forEach(domain -> candidates.add(name + "." + domain));
+        if (!qualified) candidates.add(name);
+        return candidates;
+    }
+
+    List<URI> nameservers() {
+        return nameservers;
+    }
+
+    List<String> search() {
+        return search;
+    }
+
+    int ndots() {
+        return ndots;
+    }
+
+    long timeoutMs() {
+        return timeoutMs;
+    }
+
+    int attempts() {
+        return attempts;
+    }
+
+    boolean rotate() {
+        return rotate;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ResolvConf)) return false;
+        final ResolvConf that = (ResolvConf) o;
+        return ndots == that.ndots && timeoutMs == that.timeoutMs && attempts == that.attempts
+                && rotate == that.rotate && nameservers.equals(that.nameservers) && search.equals(that.search);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(nameservers, search, ndots, timeoutMs, attempts, rotate);
+    }
+}
@@ -0,0 +1,210 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.ServiceSelector;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+
+/**
+ * Service selector that keeps an immutable snapshot of endpoints, replaced whole on every refresh, so selection only
+ * reads a volatile field and a few atomics.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ServiceSelectorImpl implements ServiceSelector {
+
+    private final DiscoveryService discoveryService;
+    private final URI query;
+    private final Strategy strategy;
+    private final AtomicInteger next = new AtomicInteger();
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final Subscription subscription;
+    private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), Collections.emptyMap());
+
+    public ServiceSelectorImpl(final DiscoveryService discoveryService,
+                               final URI query,
+                               final Strategy strategy,
+                               final Duration refreshInterval) {
+        this.discoveryService = Objects.requireNonNull(discoveryService, "discoveryService must not be null");
+        this.query = Objects.requireNonNull(query, "query must not be null");
+        this.strategy = Objects.requireNonNull(strategy, "strategy must not be null");
+        this.subscription = discoveryService.watchService(query, refreshInterval, this::update);
+    }
+
+    @Override
+    public Endpoint select() {
+        final Snapshot current = this.snapshot;
+        final SelectorEndpoint[] endpoints = current.endpoints;
+        final int size = endpoints.length;
+        if (size == 0) return null;
+
+        final SelectorEndpoint endpoint;
+        switch (strategy) {
+            case POWER_OF_TWO_CHOICES:
+                if (size == 1) {
+                    endpoint = endpoints[0];
+                } else {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    final int first = random.nextInt(size);
+                    final int second = (first + 1 + random.nextInt(size - 1)) % size;
+                    endpoint = endpoints[first].inFlight.get() <= endpoints[second].inFlight.get()
+                            ? endpoints[first] : endpoints[second];
+                }
+                break;
+            case WEIGHTED:
+                endpoint = current.weighted();
+                break;
+            default:
+                endpoint = endpoints[Math.floorMod(next.getAndIncrement(), size)];
+        }
+        endpoint.inFlight.incrementAndGet();
+        return endpoint;
+    }
+
+    @Override
+    public List<URI> endpoints() {
+        return snapshot.uris;
+    }
+
+    @Override
+    public Promise<List<URI>> refresh() {
+        return invokablePromise(promise -> discoveryService.lookupService(query).asHandler()
+                .invokeWithPromise(Promises.<List<URI>>promise()
+                        .then(results -> {
+                            update(results);
+                            promise.resolve(results);
+                        })
+                        .catchError(error -> {
+                            logger.warn("failed to refresh endpoints for {}", query, error);
+                            promise.reject(error);
+                        })));
+    }
+
+    @Override
+    public void close() {
+        subscription.cancel();
+    }
+
+    /**
+     * Replace the snapshot, keeping the in flight counts of endpoints that are still present.
+     *
+     * @param results the new lookup results
+     */
+    void update(final List<URI> results) {
+        final Snapshot previous = this.snapshot;
+        this.snapshot = new Snapshot(results, previous.byUri);
+        logger.debug("endpoints for {} are now {}", query, results);
+    }
+
+    private static final class SelectorEndpoint implements Endpoint {
+
+        private final URI uri;
+        private final int priority;
+        private final int weight;
+        private final AtomicInteger inFlight;
+
+        private SelectorEndpoint(final URI uri, final AtomicInteger inFlight) {
+            this.uri = uri;
+            this.inFlight = inFlight;
+            final ServiceEndpoint endpoint = ServiceEndpoint.fromURI(uri);
+            this.priority = endpoint.priority();
+            this.weight = Math.max(0, endpoint.weight());
+        }
+
+        @Override
+        public URI uri() {
+            return uri;
+        }
+
+        @Override
+        public int inFlight() {
+            return inFlight.get();
+        }
+
+        @Override
+        public void release() {
+            inFlight.updateAndGet(count -> count > 0 ? count - 1 : 0);
+        }
+
+        @Override
+        public String toString() {
+            return uri.toString();
+        }
+    }
+
+    /**
+     * The endpoints of one lookup result plus the precomputed RFC 2782 selection table for the lowest priority.
+     */
+    private static final class Snapshot {
+
+        private final List<URI> uris;
+        private final SelectorEndpoint[] endpoints;
+        private final Map<URI, SelectorEndpoint> byUri;
+        private final SelectorEndpoint[] weightedCandidates;
+        private final int[] cumulativeWeights;
+        private final int totalWeight;
+
+        private Snapshot(final List<URI> results, final Map<URI, SelectorEndpoint> previous) {
+            this.uris = Collections.unmodifiableList(new ArrayList<>(results));
+            this.byUri = new HashMap<>();
+            this.endpoints = new SelectorEndpoint[uris.size()];
+            for (int i = 0; i < endpoints.length; i++) {
+                final URI uri = uris.get(i);
+                final SelectorEndpoint old = previous.get(uri);
+                endpoints[i] = new SelectorEndpoint(uri, old == null ? new AtomicInteger() : old.inFlight);
+                byUri.put(uri, endpoints[i]);
+            }
+
+            /* RFC 2782: use the lowest priority, zero weights first so they are only picked when the draw is 0. */
+            final int lowest = Arrays.stream(endpoints).mapToInt(endpoint -> endpoint.priority).min().orElse(0);
+            final List<SelectorEndpoint> candidates = Arrays.stream(endpoints)
+                    .filter(endpoint -> endpoint.priority == lowest)
+                    .sorted(Comparator.comparingInt(endpoint -> endpoint.weight == 0 ? 0 : 1))
+                    .collect(Collectors.toList());
+            this.weightedCandidates = candidates.toArray(new SelectorEndpoint[candidates.size()]);
+            this.cumulativeWeights = new int[weightedCandidates.length];
+            int sum = 0;
+            for (int i = 0; i < weightedCandidates.length; i++) {
+                sum += weightedCandidates[i].weight;
+                cumulativeWeights[i] = sum;
+            }
+            this.totalWeight = sum;
+        }
+
+        private SelectorEndpoint weighted() {
+            final ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (totalWeight == 0) return weightedCandidates[random.nextInt(weightedCandidates.length)];
+            final int draw = random.nextInt(totalWeight + 1);
+            int low = 0;
+            int high = cumulativeWeights.length - 1;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (cumulativeWeights[middle] >= draw) {
+                    high = middle;
+                } else {
+                    low = middle + 1;
+                }
+            }
+            return weightedCandidates[low];
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package io.advantageous.discovery.spi;
+
+/**
+ * Receives timings and outcomes of lookups.  Discovery services report every lookup that reaches a provider, and
+ * providers report every request they send to one of their backends (a name server or a Consul agent).
+ * <p>
+ * Calls are made on the lookup path, often on an event loop, so implementations must be cheap and must not block.
+ * Every method has an empty default, so an implementation only overrides what it records.
+ */
+public interface DiscoveryMetrics {
+
+    /**
+     * Metrics that record nothing.
+     */
+    DiscoveryMetrics NONE = new DiscoveryMetrics() {
+    };
+
+    /**
+     * A lookup was handed to the provider for a scheme.
+     *
+     * @param scheme the discovery scheme, e.g. {@code dns}
+     */
+    default void lookupStarted(String scheme) {
+    }
+
+    /**
+     * A lookup succeeded.
+     *
+     * @param scheme       the discovery scheme
+     * @param elapsedNanos the time since {@link #lookupStarted(String)}
+     * @param results      the number of endpoints found
+     */
+    default void lookupSucceeded(String scheme, long elapsedNanos, int results) {
+    }
+
+    /**
+     * A lookup failed.
+     *
+     * @param scheme       the discovery scheme
+     * @param elapsedNanos the time since {@link #lookupStarted(String)}
+     * @param error        the cause
+     */
+    default void lookupFailed(String scheme, long elapsedNanos, Throwable error) {
+    }
+
+    /**
+     * A request was sent to a backend.
+     *
+     * @param scheme  the discovery scheme
+     * @param backend the backend, e.g. {@code 10.0.0.2:53}
+     */
+    default void backendStarted(String scheme, String backend) {
+    }
+
+    /**
+     * A request to a backend completed.
+     *
+     * @param scheme       the discovery scheme
+     * @param backend      the backend
+     * @param elapsedNanos the time since {@link #backendStarted(String, String)}
+     * @param success      false if the request failed or timed out
+     */
+    default void backendCompleted(String scheme, String backend, long elapsedNanos, boolean success) {
+    }
+}
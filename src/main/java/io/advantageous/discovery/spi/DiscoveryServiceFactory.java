@@ -1,6 +1,7 @@
 package io.advantageous.discovery.spi;
 
 import io.advantageous.discovery.DiscoveryService;
+import io.vertx.core.Vertx;
 
 import java.net.URI;
 import java.util.List;
@@ -13,7 +14,37 @@ public interface DiscoveryServiceFactory {
 
     String getScheme();
 
+    /**
+     * Create a discovery service that owns its own Vert.x instance and closes it when it is closed.
+     *
+     * @param uris the configuration URIs for this factory's scheme
+     * @return the discovery service
+     */
     DiscoveryService create(List<URI> uris);
 
+    /**
+     * Create a discovery service that runs on a shared Vert.x instance.  The discovery service must not close it.
+     * Factories that do not use Vert.x can rely on the default, which ignores the instance.
+     *
+     * @param vertx the shared Vert.x instance
+     * @param uris  the configuration URIs for this factory's scheme
+     * @return the discovery service
+     */
+    default DiscoveryService create(Vertx vertx, List<URI> uris) {
+        return create(uris);
+    }
+
+    /**
+     * Create a discovery service that runs on a shared Vert.x instance and records its backend requests.
+     * Factories that do not instrument their backends can rely on the default, which ignores the metrics.
+     *
+     * @param vertx   the shared Vert.x instance
+     * @param uris    the configuration URIs for this factory's scheme
+     * @param metrics the metrics to record backend requests to
+     * @return the discovery service
+     */
+    default DiscoveryService create(Vertx vertx, List<URI> uris, DiscoveryMetrics metrics) {
+        return create(vertx, uris);
+    }
 
 }
@@ -0,0 +1,18 @@
+package io.advantageous.discovery.spi;
+
+import java.util.List;
+
+/**
+ * Publishes discovery metrics somewhere, e.g. to a statsd agent or a log.  Reporters are found with the service
+ * loader ({@code META-INF/services/io.advantageous.discovery.spi.MetricsReporter}) and called from a background
+ * thread at the report interval of the {@code metrics:} configuration.
+ */
+public interface MetricsReporter {
+
+    /**
+     * Publish the current metrics.
+     *
+     * @param snapshots one snapshot per scheme and per scheme and backend
+     */
+    void report(List<MetricsSnapshot> snapshots);
+}
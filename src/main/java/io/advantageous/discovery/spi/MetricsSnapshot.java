@@ -0,0 +1,103 @@
+package io.advantageous.discovery.spi;
+
+/**
+ * The metrics of a scheme, or of one backend of a scheme, at a point in time.  Counters are totals since the
+ * discovery service was created; latencies are in microseconds.
+ */
+public final class MetricsSnapshot {
+
+    private final String scheme;
+    private final String backend;
+    private final long successes;
+    private final long failures;
+    private final long emptyResults;
+    private final int inFlight;
+    private final long latencyP50;
+    private final long latencyP99;
+    private final long latencyP999;
+    private final long latencyMax;
+
+    public MetricsSnapshot(final String scheme,
+                           final String backend,
+                           final long successes,
+                           final long failures,
+                           final long emptyResults,
+                           final int inFlight,
+                           final long latencyP50,
+                           final long latencyP99,
+                           final long latencyP999,
+                           final long latencyMax) {
+        this.scheme = scheme;
+        this.backend = backend;
+        this.successes = successes;
+        this.failures = failures;
+        this.emptyResults = emptyResults;
+        this.inFlight = inFlight;
+        this.latencyP50 = latencyP50;
+        this.latencyP99 = latencyP99;
+        this.latencyP999 = latencyP999;
+        this.latencyMax = latencyMax;
+    }
+
+    public String scheme() {
+        return scheme;
+    }
+
+    /**
+     * @return the backend, or null for the metrics of the whole scheme
+     */
+    public String backend() {
+        return backend;
+    }
+
+    public long successes() {
+        return successes;
+    }
+
+    public long failures() {
+        return failures;
+    }
+
+    /**
+     * @return the successful lookups that found no endpoints, always 0 for backends
+     */
+    public long emptyResults() {
+        return emptyResults;
+    }
+
+    public int inFlight() {
+        return inFlight;
+    }
+
+    public long latencyP50() {
+        return latencyP50;
+    }
+
+    public long latencyP99() {
+        return latencyP99;
+    }
+
+    public long latencyP999() {
+        return latencyP999;
+    }
+
+    public long latencyMax() {
+        return latencyMax;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot{" +
+                "scheme='" + scheme + '\'' +
+                ", backend='" + backend + '\'' +
+                ", successes=" + successes +
+                ", failures=" + failures +
+                ", emptyResults=" + emptyResults +
+                ", inFlight=" + inFlight +
+                ", latencyP50=" + latencyP50 +
+                ", latencyP99=" + latencyP99 +
+                ", latencyP999=" + latencyP999 +
+                ", latencyMax=" + latencyMax +
+                '}';
+    }
+}
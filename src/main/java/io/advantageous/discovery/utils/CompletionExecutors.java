@@ -0,0 +1,49 @@
+package io.advantageous.discovery.utils;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Executors for {@link io.advantageous.discovery.DiscoveryService#completeOn(Executor)} that complete lookups on a
+ * Vert.x context.
+ */
+public class CompletionExecutors {
+
+    private CompletionExecutors() {
+        throw new IllegalStateException("this class should not be instantiated.");
+    }
+
+    /**
+     * An executor that runs tasks on a Vert.x context, inline when it is already running on that context.
+     *
+     * @param context the context to complete on, e.g. that of the verticle doing the lookups
+     * @return the executor
+     */
+    public static Executor onContext(final Context context) {
+        Objects.requireNonNull(context, "context must not be null");
+        return task -> {
+            if (Vertx.currentContext() == context) {
+                task.run();
+            } else {
+                context.runOnContext(event -> task.run());
+            }
+        };
+    }
+
+    /**
+     * An executor that runs tasks on the Vert.x context of the calling thread.
+     *
+     * @return the executor
+     * @throws IllegalStateException if the calling thread is not running on a Vert.x context
+     */
+    public static Executor onCurrentContext() {
+        final Context context = Vertx.currentContext();
+        if (context == null) {
+            throw new IllegalStateException("not called on a Vert.x context");
+        }
+        return onContext(context);
+    }
+}
@@ -0,0 +1,218 @@
+package io.advantageous.discovery.utils;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.reakt.Callback;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+
+/**
+ * Helpers for composing lookups.
+ */
+public class Lookups {
+
+    private Lookups() {
+        throw new IllegalStateException("this class should not be instantiated.");
+    }
+
+    /**
+     * Run a lookup for every distinct key, with at most {@code maxConcurrency} in flight at once, and resolve with
+     * the results in key order.  The promise is rejected with the first failure.
+     *
+     * @param keys           the keys to look up
+     * @param lookup         starts the lookup for one key
+     * @param maxConcurrency the most lookups in flight at once
+     * @param <K>            the key type
+     * @param <V>            the result type
+     * @return a promise for the results by key
+     */
+    public static <K, V> Promise<Map<K, V>> all(final Collection<K> keys,
+                                                final Function<K, Promise<V>> lookup,
+                                                final int maxConcurrency) {
+        if (maxConcurrency < 1) throw new IllegalArgumentException("maxConcurrency must be at least 1");
+        return invokablePromise(promise -> {
+            final List<K> distinct = new ArrayList<>(new LinkedHashSet<>(keys));
+            if (distinct.isEmpty()) {
+                promise.resolve(Collections.emptyMap());
+                return;
+            }
+            final Batch<K, V> batch = new Batch<>(distinct, lookup, promise);
+            for (int i = 0; i < Math.min(maxConcurrency, distinct.size()); i++) {
+                batch.next();
+            }
+        });
+    }
+
+    /**
+     * The URIs of a lookup for endpoints, for providers that implement {@code lookupService} on top of
+     * {@code lookupEndpoints}.
+     *
+     * @param endpoints a promise for the endpoints
+     * @return a promise for their URIs
+     */
+    public static Promise<List<URI>> uris(final Promise<List<ServiceEndpoint>> endpoints) {
+        return invokablePromise(promise -> endpoints.asHandler().invokeWithPromise(
+                Promises.<List<ServiceEndpoint>>promise()
+                        .then(results -> promise.resolve(ServiceEndpoint.toURIs(results)))
+                        .catchError(promise::reject)));
+    }
+
+    /**
+     * Watch a service by looking it up every {@code interval}, for discovery services that cannot push changes.  The
+     * listener is called with the first result and again whenever the set of URIs changes.  The next lookup is only
+     * scheduled once the previous one completes, and a failed lookup keeps the last result.
+     *
+     * @param service  the discovery service to poll
+     * @param query    the URI that defines your query
+     * @param interval the delay between the end of one lookup and the start of the next
+     * @param listener called with the URIs that match your query
+     * @return a subscription used to stop polling
+     */
+    public static Subscription poll(final DiscoveryService service,
+                                    final URI query,
+                                    final Duration interval,
+                                    final Consumer<List<URI>> listener) {
+        Objects.requireNonNull(service, "service was null");
+        Objects.requireNonNull(query, "query was null");
+        Objects.requireNonNull(listener, "listener was null");
+        if (interval.isNegative() || interval.isZero())
+            throw new IllegalArgumentException("the poll interval must be positive");
+        final PollingWatch watch = new PollingWatch(service, query, interval.toMillis(), listener);
+        watch.schedule(0);
+        return watch::cancel;
+    }
+
+    /**
+     * One polled watch.  Its lookups never overlap, so the last result is only written by one lookup at a time.
+     */
+    private static final class PollingWatch {
+
+        /**
+         * Shared timer thread for polled watches, started with the first one.
+         */
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "lokate-watch-poll");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        private static final Logger LOGGER = LoggerFactory.getLogger(PollingWatch.class);
+
+        private final DiscoveryService service;
+        private final URI query;
+        private final long intervalMs;
+        private final Consumer<List<URI>> listener;
+        private volatile List<URI> current;
+        private volatile ScheduledFuture<?> next;
+        private volatile boolean cancelled;
+
+        private PollingWatch(final DiscoveryService service,
+                             final URI query,
+                             final long intervalMs,
+                             final Consumer<List<URI>> listener) {
+            this.service = service;
+            this.query = query;
+            this.intervalMs = intervalMs;
+            this.listener = listener;
+        }
+
+        private void schedule(final long delayMs) {
+            if (cancelled) return;
+            next = SCHEDULER.schedule(this::poll, delayMs, TimeUnit.MILLISECONDS);
+            if (cancelled) next.cancel(false);
+        }
+
+        private void poll() {
+            if (cancelled) return;
+            try {
+                service.lookupService(query).asHandler().invokeWithPromise(Promises.<List<URI>>promise()
+                        .then(results -> {
+                            final List<URI> previous = current;
+                            if (!cancelled && (previous == null
+                                    || !new HashSet<>(previous).equals(new HashSet<>(results)))) {
+                                current = results;
+                                listener.accept(results);
+                            }
+                            schedule(intervalMs);
+                        })
+                        .catchError(error -> {
+                            LOGGER.warn("failed to poll {}, keeping the last result", query, error);
+                            schedule(intervalMs);
+                        }));
+            } catch (final RuntimeException e) {
+                LOGGER.warn("failed to poll {}, keeping the last result", query, e);
+                schedule(intervalMs);
+            }
+        }
+
+        private void cancel() {
+            cancelled = true;
+            final ScheduledFuture<?> scheduled = next;
+            if (scheduled != null) scheduled.cancel(false);
+        }
+    }
+
+    private static final class Batch<K, V> {
+
+        private final List<K> keys;
+        private final Function<K, Promise<V>> lookup;
+        private final Callback<Map<K, V>> callback;
+        private final Map<K, V> results = new ConcurrentHashMap<>();
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicInteger remaining;
+        private final AtomicBoolean failed = new AtomicBoolean();
+
+        private Batch(final List<K> keys, final Function<K, Promise<V>> lookup, final Callback<Map<K, V>> callback) {
+            this.keys = keys;
+            this.lookup = lookup;
+            this.callback = callback;
+            this.remaining = new AtomicInteger(keys.size());
+        }
+
+        private void next() {
+            final int index = started.getAndIncrement();
+            if (index >= keys.size() || failed.get()) return;
+            final K key = keys.get(index);
+            lookup.apply(key).asHandler().invokeWithPromise(Promises.<V>promise()
+                    .then(result -> {
+                        results.put(key, result);
+                        if (remaining.decrementAndGet() == 0) {
+                            final Map<K, V> ordered = new LinkedHashMap<>();
+                            keys.forEach(k -> ordered.put(k, results.get(k)));
+                            callback.resolve(ordered);
+                        } else {
+                            next();
+                        }
+                    })
+                    .catchError(error -> {
+                        if (failed.compareAndSet(false, true)) callback.reject(error);
+                    }));
+        }
+    }
+}
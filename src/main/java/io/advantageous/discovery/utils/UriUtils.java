@@ -1,5 +1,6 @@
 package io.advantageous.discovery.utils;
 
+import java.net.URI;
 import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -10,14 +11,102 @@ public class UriUtils {
         throw new IllegalStateException("this class should not be instantiated.");
     }
 
+    /**
+     * Split a query string into its parameters, separated by {@code &} or {@code ;}.  A parameter without a value
+     * maps to the empty string.  Scans the string once, without a regular expression.
+     *
+     * @param query the query string, or null
+     * @return the parameters in order
+     */
     public static Map<String, String> splitQuery(String query) {
-        if (query == null) return Collections.emptyMap();
+        if (query == null || query.isEmpty()) return Collections.emptyMap();
         final Map<String, String> queryPairs = new LinkedHashMap<>();
-        final String[] pairs = query.split("&|;");
-        for (final String pair : pairs) {
-            final int idx = pair.indexOf('=');
-            queryPairs.put(pair.substring(0, idx), pair.substring(idx + 1));
+        final int length = query.length();
+        int start = 0;
+        while (start <= length) {
+            int end = start;
+            int idx = -1;
+            while (end < length) {
+                final char c = query.charAt(end);
+                if (c == '&' || c == ';') break;
+                if (c == '=' && idx < 0) idx = end;
+                end++;
+            }
+            if (end > start) {
+                if (idx < 0) {
+                    queryPairs.put(query.substring(start, end), "");
+                } else {
+                    queryPairs.put(query.substring(start, idx), query.substring(idx + 1, end));
+                }
+            }
+            start = end + 1;
         }
         return queryPairs;
     }
+
+    /**
+     * The value of one query parameter.  Works on opaque URIs such as {@code dns:A:///web?port=80} too, whose query
+     * {@link URI#getQuery()} does not return.  A {@code ?} inside parentheses, such as that of a query nested in a
+     * composite query, does not start the query.
+     *
+     * @param uri the URI
+     * @param key the parameter name
+     * @return the value, the empty string for a parameter without a value, or null if the parameter is absent
+     */
+    public static String queryParameter(final URI uri, final String key) {
+        final String query = rawQuery(uri.toString());
+        return query == null ? null : splitQuery(query).get(key);
+    }
+
+    /**
+     * A copy of a URI without one query parameter.  The other parameters are kept as given, in order.
+     *
+     * @param uri the URI, which may be opaque
+     * @param key the parameter name
+     * @return the URI without the parameter, or the same URI if it does not have it
+     */
+    public static URI removeQueryParameter(final URI uri, final String key) {
+        final String string = uri.toString();
+        final String query = rawQuery(string);
+        if (query == null || !splitQuery(query).containsKey(key)) return uri;
+        final int start = queryStart(string);
+        final StringBuilder result = new StringBuilder(string.length()).append(string, 0, start);
+        char separator = '?';
+        int from = 0;
+        while (from <= query.length()) {
+            int end = from;
+            while (end < query.length() && query.charAt(end) != '&' && query.charAt(end) != ';') end++;
+            final String parameter = query.substring(from, end);
+            final int equals = parameter.indexOf('=');
+            if (!parameter.isEmpty() && !(equals < 0 ? parameter : parameter.substring(0, equals)).equals(key)) {
+                result.append(separator).append(parameter);
+                separator = '&';
+            }
+            from = end + 1;
+        }
+        result.append(string, start + 1 + query.length(), string.length());
+        return URI.create(result.toString());
+    }
+
+    private static String rawQuery(final String uri) {
+        final int start = queryStart(uri);
+        if (start < 0) return null;
+        final int fragment = uri.indexOf('#', start);
+        return uri.substring(start + 1, fragment < 0 ? uri.length() : fragment);
+    }
+
+    private static int queryStart(final String uri) {
+        int depth = 0;
+        for (int i = 0; i < uri.length(); i++) {
+            final char c = uri.charAt(i);
+            if (c == '(') {
+                depth++;
+            } else if (c == ')') {
+                depth--;
+            } else if (c == '?' && depth <= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
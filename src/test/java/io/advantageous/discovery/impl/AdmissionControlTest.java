@@ -0,0 +1,124 @@
+package io.advantageous.discovery.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AdmissionControlTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    @Test
+    public void testQueuesThenRefuses() {
+        final AdmissionControl admission = new AdmissionControl(1, 2, 1, false);
+        final List<String> started = new ArrayList<>();
+        assertTrue(admission.submit(() -> started.add("a")));
+        assertTrue(admission.submit(() -> started.add("b")));
+        assertTrue(admission.submit(() -> started.add("c")));
+        assertFalse(admission.submit(() -> started.add("d")));
+        assertEquals(Arrays.asList("a", "b"), started);
+        assertEquals(2, admission.inFlight());
+        assertEquals(1, admission.queued());
+
+        admission.release(FAST, false);
+        assertEquals(Arrays.asList("a", "b", "c"), started);
+        assertEquals(2, admission.inFlight());
+        assertEquals(0, admission.queued());
+    }
+
+    @Test
+    public void testQueuedRequestsRunInOrder() {
+        final AdmissionControl admission = new AdmissionControl(1, 1, 8, false);
+        final List<String> started = new ArrayList<>();
+        admission.submit(() -> started.add("a"));
+        admission.submit(() -> started.add("b"));
+        admission.submit(() -> started.add("c"));
+        admission.release();
+        admission.release();
+        assertEquals(Arrays.asList("a", "b", "c"), started);
+        assertEquals(1, admission.inFlight());
+    }
+
+    @Test
+    public void testNoQueueRefusesAtTheLimit() {
+        final AdmissionControl admission = new AdmissionControl(1, 1, 0, false);
+        assertTrue(admission.submit(() -> { }));
+        assertFalse(admission.submit(() -> { }));
+    }
+
+    @Test
+    public void testFixedLimitIgnoresLatency() {
+        final AdmissionControl admission = new AdmissionControl(1, 16, 0, false);
+        for (int i = 0; i < 100; i++) {
+            admission.submit(() -> { });
+            admission.release(i < 50 ? FAST : SLOW * 10, i % 2 == 0);
+        }
+        assertEquals(16, admission.limit());
+    }
+
+    @Test
+    public void testAdaptiveLimitShrinksAsLatencyRisesAndRecovers() {
+        final AdmissionControl admission = new AdmissionControl(2, 32, 64, true);
+        saturate(admission, FAST, 200);
+        assertEquals(32, admission.limit());
+
+        saturate(admission, SLOW, 50);
+        final int overloaded = admission.limit();
+        assertTrue("limit " + overloaded, overloaded < 24);
+        assertTrue(overloaded >= 2);
+
+        saturate(admission, FAST, 200);
+        assertEquals(32, admission.limit());
+    }
+
+    @Test
+    public void testFailuresBackOffToTheMinimum() {
+        final AdmissionControl admission = new AdmissionControl(4, 32, 0, true);
+        for (int i = 0; i < 100; i++) {
+            admission.submit(() -> { });
+            admission.release(FAST, true);
+        }
+        assertEquals(4, admission.limit());
+    }
+
+    @Test
+    public void testIdleSlotsDoNotGrowTheLimit() {
+        final AdmissionControl admission = new AdmissionControl(2, 32, 0, true);
+        for (int i = 0; i < 10; i++) {
+            admission.submit(() -> { });
+            admission.release(FAST, true);
+        }
+        final int limit = admission.limit();
+        assertTrue(limit < 32);
+        for (int i = 0; i < 200; i++) {
+            admission.submit(() -> { });
+            admission.release(FAST, false);
+        }
+        assertEquals(limit, admission.limit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinimumAboveMaximum() {
+        new AdmissionControl(8, 4, 0, true);
+    }
+
+    /**
+     * Keep every slot busy, completing one request with the given latency at a time.
+     */
+    private static void saturate(final AdmissionControl admission, final long latencyNanos, final int requests) {
+        for (int i = 0; i < requests; i++) {
+            while (admission.queued() == 0) {
+                if (!admission.submit(() -> { })) break;
+            }
+            admission.release(latencyNanos, false);
+        }
+    }
+}
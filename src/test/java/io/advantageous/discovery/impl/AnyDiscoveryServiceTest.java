@@ -0,0 +1,37 @@
+package io.advantageous.discovery.impl;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class AnyDiscoveryServiceTest {
+
+    @Test
+    public void testSplit() {
+        assertEquals(Arrays.asList("consul:///ads?tag=a", "dns:SRV:///ads.service.consul"),
+                AnyDiscoveryService.split("(consul:///ads?tag=a,dns:SRV:///ads.service.consul)?hedgeDelay=50"));
+    }
+
+    @Test
+    public void testSplitNested() {
+        assertEquals(Arrays.asList("any:(consul:///ads,dns:SRV:///ads.service.consul)", "echo:http://ads:8080"),
+                AnyDiscoveryService.split("(any:(consul:///ads,dns:SRV:///ads.service.consul),echo:http://ads:8080)"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitWithoutParentheses() {
+        AnyDiscoveryService.split("consul:///ads,dns:SRV:///ads.service.consul");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitUnclosed() {
+        AnyDiscoveryService.split("(consul:///ads,dns:SRV:///ads.service.consul");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSplitEmptyQuery() {
+        AnyDiscoveryService.split("(consul:///ads,)");
+    }
+}
@@ -0,0 +1,74 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.Duration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class CompiledQueriesTest {
+
+    @Test
+    public void testCompile() {
+        final DiscoveryQuery query = DiscoveryQuery.compile("discovery:dns:SRV:///ads.service.consul");
+        assertEquals("dns", query.scheme());
+        assertEquals(URI.create("dns:SRV:///ads.service.consul"), query.providerQuery());
+        assertEquals(URI.create("discovery:dns:SRV:///ads.service.consul"), query.uri());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileBadScheme() {
+        DiscoveryQuery.compile("bogus:///bogus");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileNoProviderScheme() {
+        DiscoveryQuery.compile("discovery:///bogus");
+    }
+
+    @Test
+    public void testCompileTimeout() {
+        final DiscoveryQuery query = DiscoveryQuery.compile("discovery:consul:///ads?timeout=250&tag=a");
+        assertEquals(250, query.timeoutMs());
+        assertEquals(URI.create("consul:///ads?tag=a"), query.providerQuery());
+        assertEquals(DiscoveryQuery.compile("discovery:consul:///ads?tag=a").key(), query.key());
+        assertEquals(0, DiscoveryQuery.compile("discovery:consul:///ads").timeoutMs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileBadTimeout() {
+        DiscoveryQuery.compile("discovery:dns:A:///ads?port=80&timeout=soon");
+    }
+
+    @Test
+    public void testWithTimeout() {
+        final DiscoveryQuery query = DiscoveryQuery.compile("discovery:consul:///ads");
+        final DiscoveryQuery bounded = query.withTimeout(Duration.ofMillis(100));
+        assertNotSame(query, bounded);
+        assertEquals(100, bounded.timeoutMs());
+        assertEquals(query.key(), bounded.key());
+        assertEquals(query.providerQuery(), bounded.providerQuery());
+    }
+
+    @Test
+    public void testCompiledOnce() {
+        final CompiledQueries queries = new CompiledQueries(16);
+        final DiscoveryQuery query = queries.compile("discovery:consul:///ads");
+        assertSame(query, queries.compile("discovery:consul:///ads"));
+        assertSame(query, queries.compile(URI.create("discovery:consul:///ads")));
+        assertEquals(1, queries.size());
+    }
+
+    @Test
+    public void testBounded() {
+        final CompiledQueries queries = new CompiledQueries(2);
+        queries.compile("discovery:consul:///a");
+        queries.compile("discovery:consul:///b");
+        queries.compile("discovery:consul:///c");
+        assertEquals(1, queries.size());
+    }
+}
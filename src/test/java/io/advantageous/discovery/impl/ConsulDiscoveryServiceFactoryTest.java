@@ -2,6 +2,8 @@ package io.advantageous.discovery.impl;
 
 import io.advantageous.discovery.DiscoveryService;
 import io.advantageous.discovery.spi.DiscoveryServiceFactory;
+import io.advantageous.discovery.utils.UriUtils;
+import io.vertx.core.http.HttpClientOptions;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -23,13 +25,15 @@ public class ConsulDiscoveryServiceFactoryTest {
         factory.create(Collections.emptyList());
     }
 
-    @Test(expected = UnsupportedOperationException.class)
+    @Test
     public void testWithMultipleConfig() {
         DiscoveryServiceFactory factory = new ConsulDiscoveryServiceFactory();
-        factory.create(Arrays.asList(
+        DiscoveryService service = factory.create(Arrays.asList(
                 URI.create("consul://foo"),
                 URI.create("consul://bar")
         ));
+        Assert.assertNotNull(service);
+        service.close();
     }
 
     @Test
@@ -38,4 +42,65 @@ public class ConsulDiscoveryServiceFactoryTest {
         DiscoveryService service = factory.create(Collections.singletonList(URI.create("consul://foo")));
         Assert.assertNotNull(service);
     }
+
+    @Test
+    public void testCreateWithPoolOptions() {
+        DiscoveryServiceFactory factory = new ConsulDiscoveryServiceFactory();
+        DiscoveryService service = factory.create(Collections.singletonList(
+                URI.create("consul:http://foo:8500?maxPoolSize=4&pipelining=true&idleTimeout=30")));
+        Assert.assertNotNull(service);
+        service.close();
+    }
+
+    @Test
+    public void testLookupClientOptions() {
+        HttpClientOptions options = ConsulDiscoveryService.lookupClientOptions(
+                UriUtils.splitQuery("maxPoolSize=4&pipelining=true&idleTimeout=30"));
+        Assert.assertTrue(options.isKeepAlive());
+        Assert.assertTrue(options.isPipelining());
+        Assert.assertEquals(4, options.getMaxPoolSize());
+        Assert.assertEquals(30, options.getIdleTimeout());
+    }
+
+    @Test
+    public void testWatchClientOptionsHaveNoIdleTimeout() {
+        HttpClientOptions options = ConsulDiscoveryService.watchClientOptions(
+                UriUtils.splitQuery("idleTimeout=30"));
+        Assert.assertFalse(options.isPipelining());
+        Assert.assertEquals(1, options.getMaxPoolSize());
+        Assert.assertEquals(0, options.getIdleTimeout());
+    }
+
+    @Test
+    public void testAdmissionOptions() {
+        URI agent = URI.create("//localhost:8500");
+        AdmissionControl admission = ConsulDiscoveryService.admissions(Collections.singletonList(agent),
+                UriUtils.splitQuery("maxInFlight=2&maxQueued=0&adaptiveLimit=false")).get(agent);
+        Assert.assertEquals(2, admission.limit());
+        Assert.assertTrue(admission.submit(() -> { }));
+        Assert.assertTrue(admission.submit(() -> { }));
+        Assert.assertFalse(admission.submit(() -> { }));
+    }
+
+    @Test
+    public void testCatalogRequestPath() {
+        Assert.assertEquals("/v1/catalog/service/impressions?tag=canary",
+                ConsulDiscoveryService.requestPath("/impressions", UriUtils.splitQuery("tag=canary"), true));
+        Assert.assertEquals("/v1/catalog/service/impressions",
+                ConsulDiscoveryService.requestPath("/impressions", UriUtils.splitQuery("tag=canary"), false));
+    }
+
+    @Test
+    public void testHealthRequestPath() {
+        Assert.assertEquals("/v1/health/service/impressions?passing",
+                ConsulDiscoveryService.requestPath("/impressions", UriUtils.splitQuery("health=passing"), true));
+        Assert.assertEquals("/v1/health/service/impressions?passing&tag=blue+green",
+                ConsulDiscoveryService.requestPath("/impressions",
+                        UriUtils.splitQuery("health=passing&tag=blue green"), true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedHealthFilter() {
+        ConsulDiscoveryService.requestPath("/impressions", UriUtils.splitQuery("health=critical"), true);
+    }
 }
@@ -1,6 +1,7 @@
 package io.advantageous.discovery.impl;
 
 import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.Subscription;
 import io.advantageous.reakt.exception.RejectedPromiseException;
 import io.advantageous.reakt.promise.Promise;
 import io.advantageous.reakt.promise.Promises;
@@ -23,6 +24,9 @@ import java.time.Duration;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 @Category(DockerTest.class)
 public class ConsulDiscoveryServiceTest {
@@ -89,7 +93,7 @@ public class ConsulDiscoveryServiceTest {
 
     @Test(expected = NullPointerException.class)
     public void testConstructWithNoConfig() throws Exception {
-        new ConsulDiscoveryService(null);
+        new ConsulDiscoveryService((URI) null);
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -97,6 +101,17 @@ public class ConsulDiscoveryServiceTest {
         new ConsulDiscoveryService(URI.create("bogus://foo"));
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithWrongAgentScheme() throws Exception {
+        new ConsulDiscoveryService(URI.create("consul:ftp://localhost:8500"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructWithMixedAgentSchemes() throws Exception {
+        new ConsulDiscoveryService(URI.create("consul:http://localhost:8500"),
+                URI.create("consul:https://localhost:8501"));
+    }
+
     @Test(expected = RejectedPromiseException.class)
     public void testWithNullQuery() throws Exception {
         Promise<List<URI>> promise = Promises.blockingPromise(Duration.ofSeconds(10));
@@ -136,4 +151,32 @@ public class ConsulDiscoveryServiceTest {
         Assert.assertFalse(result.get(0).getHost().isEmpty());
         Assert.assertEquals("tags=foo", result.get(0).getQuery());
     }
+
+    @Test
+    public void testQueryPassingByName() throws Exception {
+        Promise<List<URI>> promise = Promises.blockingPromise(Duration.ofSeconds(10));
+        ConsulDiscoveryService service = new ConsulDiscoveryService(TEST_CONFIG);
+        service.lookupService("consul:///consul?health=passing").asHandler().invokeWithPromise(promise);
+        List<URI> result = promise.asHandler().get();
+        Assert.assertNotNull(result);
+        Assert.assertEquals(1, result.size());
+        Assert.assertFalse(result.get(0).getHost().isEmpty());
+        Assert.assertTrue(result.get(0).getPort() > 0);
+    }
+
+    @Test
+    public void testWatchByName() throws Exception {
+        BlockingQueue<List<URI>> updates = new LinkedBlockingQueue<>();
+        ConsulDiscoveryService service = new ConsulDiscoveryService(TEST_CONFIG);
+        Subscription subscription = service.watchService("consul:///consul", updates::add);
+        List<URI> result = updates.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(result);
+        Assert.assertEquals(1, result.size());
+
+        addTagToService("consul", "watched");
+        result = updates.poll(10, TimeUnit.SECONDS);
+        Assert.assertNotNull(result);
+        Assert.assertEquals("tags=watched", result.get(0).getQuery());
+        subscription.cancel();
+    }
 }
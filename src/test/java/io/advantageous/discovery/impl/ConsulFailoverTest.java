@@ -0,0 +1,241 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.reakt.exception.RejectedPromiseException;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsulFailoverTest {
+
+    private static final String CATALOG = "[{\"Address\":\"10.0.0.1\",\"ServicePort\":8080,\"ServiceTags\":[]}]";
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    @Test
+    public void testFailsOverOnErrorStatus() throws Exception {
+        final AtomicInteger failing = new AtomicInteger();
+        final int down = listen(request -> {
+            failing.incrementAndGet();
+            request.response().setStatusCode(500).end("No cluster leader");
+        });
+        final int up = listen(request -> request.response().end(CATALOG));
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:http://localhost:" + down), URI.create("consul:http://localhost:" + up));
+        try {
+            final List<ServiceEndpoint> endpoints = service.lookupEndpoints(URI.create("consul:///ads"))
+                    .blockingGet(Duration.ofSeconds(10));
+            assertEquals(1, endpoints.size());
+            assertEquals(8080, endpoints.get(0).port());
+            assertEquals(1, failing.get());
+
+            /* The failed agent is now ranked last. */
+            service.lookupEndpoints(URI.create("consul:///ads")).blockingGet(Duration.ofSeconds(10));
+            assertEquals(1, failing.get());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test(expected = RejectedPromiseException.class)
+    public void testRejectsWhenEveryAgentFails() throws Exception {
+        final int down = listen(request -> request.response().setStatusCode(500).end());
+        final int unused = freePort();
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:http://localhost:" + down), URI.create("consul:http://localhost:" + unused));
+        try {
+            service.lookupEndpoints(URI.create("consul:///ads")).blockingGet(Duration.ofSeconds(10));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testBudgetBoundsFailover() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final int blackHole = listen(request -> requests.incrementAndGet());
+        final int other = listen(request -> requests.incrementAndGet());
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:http://localhost:" + blackHole + "?timeout=10000"),
+                URI.create("consul:http://localhost:" + other));
+        final long start = System.nanoTime();
+        try {
+            service.lookupEndpoints(URI.create("consul:///ads"), Duration.ofMillis(200))
+                    .blockingGet(Duration.ofSeconds(10));
+            throw new AssertionError("the lookup should time out");
+        } catch (final RejectedPromiseException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            /* The budget was spent on the first agent, so the second was never asked. */
+            assertEquals(1, requests.get());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testBudgetBoundsBatchLookups() throws Exception {
+        final int blackHole = listen(request -> {
+        });
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:http://localhost:" + blackHole + "?timeout=10000"));
+        final long start = System.nanoTime();
+        try {
+            service.lookupServices(Collections.singletonList(URI.create("consul:///ads")), Duration.ofMillis(200))
+                    .blockingGet(Duration.ofSeconds(10));
+            throw new AssertionError("the batch should time out");
+        } catch (final RejectedPromiseException e) {
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testHttpsAgentIsNotCalledOverPlainHttp() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final int plain = listen(request -> {
+            requests.incrementAndGet();
+            request.response().end("[]");
+        });
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:https://localhost:" + plain + "?timeout=2000"));
+        try {
+            service.lookupEndpoints(URI.create("consul:///ads")).blockingGet(Duration.ofSeconds(10));
+            throw new AssertionError("the plain http agent should not answer a TLS request");
+        } catch (final RejectedPromiseException e) {
+            assertEquals(0, requests.get());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testHedgesSlowAgent() throws Exception {
+        final int slow = listen(request -> vertx.setTimer(5_000, id -> request.response().end(CATALOG)));
+        final int fast = listen(request -> request.response().end(CATALOG));
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:http://localhost:" + slow + "?hedge=true&hedgeDelay=20"),
+                URI.create("consul:http://localhost:" + fast));
+        try {
+            final long start = System.nanoTime();
+            service.lookupEndpoints(URI.create("consul:///ads")).blockingGet(Duration.ofSeconds(10));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 4_000);
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testRefusesWhenTheQueueIsFull() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        final int blackHole = listen(request -> requests.incrementAndGet());
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx, URI.create("consul:http://localhost:"
+                + blackHole + "?maxInFlight=1&maxQueued=1&adaptiveLimit=false"));
+        try {
+            service.lookupEndpoints(URI.create("consul:///ads")).invoke();
+            service.lookupEndpoints(URI.create("consul:///ads")).invoke();
+            final long start = System.nanoTime();
+            try {
+                service.lookupEndpoints(URI.create("consul:///ads")).blockingGet(Duration.ofSeconds(10));
+                throw new AssertionError("the lookup should be refused");
+            } catch (final RejectedExecutionException e) {
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+            }
+            Thread.sleep(200);
+            /* Only the request holding the slot reached the agent. */
+            assertEquals(1, requests.get());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testUnsubscribeAbortsTheLongPoll() throws Exception {
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final int agent = listenForWatch(held, aborted);
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:http://localhost:" + agent));
+        try {
+            final AtomicInteger notified = new AtomicInteger();
+            final Subscription subscription = service.watchService(URI.create("consul:///ads"),
+                    uris -> notified.incrementAndGet());
+            assertTrue(held.await(10, TimeUnit.SECONDS));
+            subscription.cancel();
+            assertTrue(aborted.await(10, TimeUnit.SECONDS));
+            assertEquals(1, notified.get());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testCloseAbortsTheLongPoll() throws Exception {
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch aborted = new CountDownLatch(1);
+        final int agent = listenForWatch(held, aborted);
+        final ConsulDiscoveryService service = new ConsulDiscoveryService(vertx,
+                URI.create("consul:http://localhost:" + agent));
+        final AtomicInteger notified = new AtomicInteger();
+        service.watchService(URI.create("consul:///ads"), uris -> notified.incrementAndGet());
+        assertTrue(held.await(10, TimeUnit.SECONDS));
+        service.close();
+        assertTrue(aborted.await(10, TimeUnit.SECONDS));
+        assertEquals(1, notified.get());
+    }
+
+    /**
+     * An agent that answers the first poll of a watch and holds the next one open until the client drops it.
+     */
+    private int listenForWatch(final CountDownLatch held, final CountDownLatch aborted) throws Exception {
+        return listen(request -> {
+            if ("0".equals(request.getParam("index"))) {
+                request.response().putHeader("X-Consul-Index", "1").end(CATALOG);
+                return;
+            }
+            request.response().closeHandler(v -> aborted.countDown());
+            held.countDown();
+        });
+    }
+
+    private int listen(final Handler<HttpServerRequest> handler) throws Exception {
+        final int port = freePort();
+        final CountDownLatch listening = new CountDownLatch(1);
+        vertx.createHttpServer().requestHandler(handler).listen(port, "localhost", result -> listening.countDown());
+        assertTrue(listening.await(10, TimeUnit.SECONDS));
+        return port;
+    }
+
+    private static int freePort() throws Exception {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
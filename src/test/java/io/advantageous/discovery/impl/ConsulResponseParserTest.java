@@ -0,0 +1,87 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.ServiceEndpoint;
+import io.vertx.core.buffer.Buffer;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ConsulResponseParserTest {
+
+    private static final String CATALOG = "[" +
+            "{\"Node\":\"a\",\"Address\":\"10.0.0.1\",\"ServiceID\":\"web-1\",\"ServiceName\":\"web\"," +
+            "\"ServiceTags\":[\"prod\",\"blue\"],\"ServiceAddress\":\"\",\"ServicePort\":8080," +
+            "\"ServiceEnableTagOverride\":false,\"CreateIndex\":5,\"ModifyIndex\":5}," +
+            "{\"Node\":\"b\",\"Address\":\"10.0.0.2\",\"ServiceID\":\"web-2\",\"ServiceName\":\"web\"," +
+            "\"ServiceTags\":[\"canary\"],\"ServiceAddress\":\"\",\"ServicePort\":8081," +
+            "\"ServiceEnableTagOverride\":false,\"CreateIndex\":6,\"ModifyIndex\":6}" +
+            "]";
+
+    private static final String HEALTH = "[" +
+            "{\"Node\":{\"Node\":\"a\",\"Address\":\"10.0.0.1\",\"TaggedAddresses\":{\"wan\":\"1.2.3.4\"}}," +
+            "\"Service\":{\"ID\":\"web-1\",\"Service\":\"web\",\"Tags\":[\"prod\"],\"Address\":\"\",\"Port\":8080}," +
+            "\"Checks\":[{\"CheckID\":\"serfHealth\",\"Status\":\"passing\"}]}," +
+            "{\"Checks\":[{\"CheckID\":\"serfHealth\",\"Status\":\"passing\"}]," +
+            "\"Service\":{\"ID\":\"web-2\",\"Service\":\"web\",\"Tags\":[\"canary\"],\"Address\":\"10.1.0.2\"," +
+            "\"Port\":8081},\"Node\":{\"Node\":\"b\",\"Address\":\"10.0.0.2\"}}" +
+            "]";
+
+    @Test
+    public void testParseCatalog() {
+        final List<ServiceEndpoint> results = ConsulResponseParser.parse(Buffer.buffer(CATALOG), null);
+        assertEquals(2, results.size());
+        assertEquals("10.0.0.1", results.get(0).host());
+        assertEquals(8080, results.get(0).port());
+        assertEquals(Arrays.asList("prod", "blue"), results.get(0).tags());
+        assertEquals(URI.create("service://10.0.0.1:8080?tags=prod,blue"), results.get(0).toURI());
+        assertEquals(URI.create("service://10.0.0.2:8081?tags=canary"), results.get(1).toURI());
+    }
+
+    @Test
+    public void testUrisKeepTheirForm() {
+        final String catalog = "[" +
+                "{\"Address\":\"10.0.0.3\",\"ServiceTags\":[],\"ServicePort\":9090}," +
+                "{\"Address\":\"10.0.0.4\",\"ServiceTags\":[\"v=1\"],\"ServicePort\":9091}" +
+                "]";
+        final List<ServiceEndpoint> results = ConsulResponseParser.parse(Buffer.buffer(catalog), null);
+        assertEquals(URI.create("service://10.0.0.3:9090?tags="), results.get(0).toURI());
+        assertEquals(URI.create("service://10.0.0.4:9091?tags=v=1"), results.get(1).toURI());
+    }
+
+    @Test
+    public void testParseCatalogWithTag() {
+        final List<ServiceEndpoint> results = ConsulResponseParser.parse(Buffer.buffer(CATALOG), "canary");
+        assertEquals(1, results.size());
+        assertEquals("10.0.0.2", results.get(0).host());
+    }
+
+    @Test
+    public void testParseHealth() {
+        final List<ServiceEndpoint> results = ConsulResponseParser.parse(Buffer.buffer(HEALTH), null);
+        assertEquals(2, results.size());
+        assertEquals(URI.create("service://10.0.0.1:8080?tags=prod"), results.get(0).toURI());
+        assertEquals(URI.create("service://10.1.0.2:8081?tags=canary"), results.get(1).toURI());
+    }
+
+    @Test
+    public void testParseHealthWithTag() {
+        final List<ServiceEndpoint> results = ConsulResponseParser.parse(Buffer.buffer(HEALTH), "prod");
+        assertEquals(1, results.size());
+        assertEquals(8080, results.get(0).port());
+    }
+
+    @Test
+    public void testParseEmpty() {
+        assertTrue(ConsulResponseParser.parse(Buffer.buffer("[]"), null).isEmpty());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testParseNotAnArray() {
+        ConsulResponseParser.parse(Buffer.buffer("{\"error\":\"no\"}"), null);
+    }
+}
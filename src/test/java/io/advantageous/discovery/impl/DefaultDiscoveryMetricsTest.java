@@ -0,0 +1,133 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.spi.MetricsReporter;
+import io.advantageous.discovery.spi.MetricsSnapshot;
+import org.junit.After;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class DefaultDiscoveryMetricsTest {
+
+    private DefaultDiscoveryMetrics metrics;
+
+    @After
+    public void tearDown() {
+        if (metrics != null) metrics.close();
+    }
+
+    @Test
+    public void testLookupCounters() {
+        metrics = new DefaultDiscoveryMetrics("counters", false, 60_000, Collections.emptyList());
+        metrics.lookupStarted("dns");
+        metrics.lookupStarted("dns");
+        metrics.lookupStarted("dns");
+        metrics.lookupSucceeded("dns", TimeUnit.MILLISECONDS.toNanos(2), 3);
+        metrics.lookupSucceeded("dns", TimeUnit.MILLISECONDS.toNanos(4), 0);
+
+        final List<MetricsSnapshot> snapshots = metrics.snapshot();
+        assertEquals(1, snapshots.size());
+        final MetricsSnapshot snapshot = snapshots.get(0);
+        assertEquals("dns", snapshot.scheme());
+        assertNull(snapshot.backend());
+        assertEquals(2, snapshot.successes());
+        assertEquals(0, snapshot.failures());
+        assertEquals(1, snapshot.emptyResults());
+        assertEquals(1, snapshot.inFlight());
+        assertTrue(snapshot.latencyP50() >= 2_000 && snapshot.latencyP50() < 2_300);
+        assertEquals(4_000, snapshot.latencyMax());
+
+        metrics.lookupFailed("dns", 1_000, new IllegalStateException());
+        assertEquals(1, metrics.snapshot().get(0).failures());
+        assertEquals(0, metrics.snapshot().get(0).inFlight());
+    }
+
+    @Test
+    public void testBackendCounters() {
+        metrics = new DefaultDiscoveryMetrics("backends", false, 60_000, Collections.emptyList());
+        metrics.backendStarted("consul", "localhost:8500");
+        metrics.backendCompleted("consul", "localhost:8500", 1_000, true);
+        metrics.backendStarted("consul", "localhost:8501");
+        metrics.backendCompleted("consul", "localhost:8501", 1_000, false);
+
+        assertEquals(2, metrics.snapshot().size());
+        metrics.snapshot().forEach(snapshot -> {
+            assertEquals("consul", snapshot.scheme());
+            assertEquals(0, snapshot.inFlight());
+            if (snapshot.backend().equals("localhost:8500")) {
+                assertEquals(1, snapshot.successes());
+            } else {
+                assertEquals(1, snapshot.failures());
+            }
+        });
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        metrics = DefaultDiscoveryMetrics.fromConfig(URI.create("metrics:///?name=jmxtest"));
+        metrics.lookupStarted("dns");
+        metrics.lookupSucceeded("dns", 1_000, 1);
+        metrics.backendStarted("dns", "127.0.0.1:53");
+
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final ObjectName lookups = new ObjectName(
+                "io.advantageous.discovery:type=Lookups,name=\"jmxtest\",scheme=\"dns\"");
+        final ObjectName backends = new ObjectName(
+                "io.advantageous.discovery:type=Backends,name=\"jmxtest\",scheme=\"dns\",backend=\"127.0.0.1:53\"");
+        assertEquals(1L, server.getAttribute(lookups, "Successes"));
+        assertEquals(1, server.getAttribute(backends, "InFlight"));
+
+        metrics.close();
+        assertFalse(server.isRegistered(lookups));
+        assertFalse(server.isRegistered(backends));
+    }
+
+    @Test
+    public void testDefaultNamesAreUnique() throws Exception {
+        metrics = DefaultDiscoveryMetrics.fromConfig(URI.create("metrics:///"));
+        final DefaultDiscoveryMetrics other = DefaultDiscoveryMetrics.fromConfig(URI.create("metrics:///"));
+        try {
+            metrics.lookupStarted("unique");
+            other.lookupStarted("unique");
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            assertEquals(2, server.queryNames(
+                    new ObjectName("io.advantageous.discovery:type=Lookups,scheme=\"unique\",*"), null).size());
+        } finally {
+            other.close();
+        }
+    }
+
+    @Test
+    public void testReporter() throws Exception {
+        final CountDownLatch reported = new CountDownLatch(1);
+        final AtomicReference<List<MetricsSnapshot>> received = new AtomicReference<>();
+        final MetricsReporter reporter = snapshots -> {
+            received.set(snapshots);
+            reported.countDown();
+        };
+        metrics = new DefaultDiscoveryMetrics("reporter", false, 50, Collections.singletonList(reporter));
+        metrics.lookupStarted("consul");
+        metrics.lookupSucceeded("consul", 1_000, 1);
+        assertTrue(reported.await(5, TimeUnit.SECONDS));
+        assertEquals(1, received.get().size());
+        assertEquals(1, received.get().get(0).successes());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadScheme() {
+        DefaultDiscoveryMetrics.fromConfig(URI.create("cache:///?name=bogus"));
+    }
+}
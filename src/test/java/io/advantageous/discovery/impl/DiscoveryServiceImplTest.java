@@ -1,16 +1,34 @@
 package io.advantageous.discovery.impl;
 
+import io.advantageous.discovery.DiscoveryQuery;
 import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.discovery.spi.DiscoveryMetrics;
+import io.advantageous.reakt.Callback;
 import io.advantageous.reakt.exception.RejectedPromiseException;
 import io.advantageous.reakt.promise.Promise;
 import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Vertx;
 import org.junit.Assert;
 import org.junit.Test;
 
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static io.advantageous.reakt.promise.Promises.invokablePromise;
 import static org.junit.Assert.*;
@@ -21,7 +39,7 @@ public class DiscoveryServiceImplTest {
     public void testEmptyConstruction() throws Exception {
         DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
         assertNotNull(discoveryService);
-        assertEquals(1, discoveryService.getRegisteredServiceClasses().size());
+        assertEquals(2, discoveryService.getRegisteredServiceClasses().size());
     }
 
 
@@ -42,7 +60,7 @@ public class DiscoveryServiceImplTest {
                 URI.create("consul:http://192.168.99.100:8500")
         );
         assertNotNull(discoveryService);
-        assertEquals(3, discoveryService.getRegisteredServiceClasses().size());
+        assertEquals(4, discoveryService.getRegisteredServiceClasses().size());
     }
 
     @Test(expected = IllegalArgumentException.class)
@@ -86,6 +104,23 @@ public class DiscoveryServiceImplTest {
         assertEquals(9091, results.get(1).getPort());
     }
 
+    @Test
+    public void testFile() throws Exception {
+        Path file = Files.createTempFile("lokate-services", ".conf");
+        try {
+            Files.write(file, "ads = http://10.0.0.1:8080 http://10.0.0.2:8080\n".getBytes(StandardCharsets.UTF_8));
+            DiscoveryService discoveryService = DiscoveryService.create(
+                    URI.create("file://" + file + "?watch=false"));
+            List<URI> results = discoveryService.lookupService("discovery:file:///ads")
+                    .blockingGet(Duration.ofSeconds(15));
+            assertEquals(Arrays.asList(URI.create("http://10.0.0.1:8080"), URI.create("http://10.0.0.2:8080")),
+                    results);
+            discoveryService.close();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
     @Test(expected = RejectedPromiseException.class)
     public void testQueryBadScheme() {
         DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
@@ -98,4 +133,549 @@ public class DiscoveryServiceImplTest {
         discoveryService.lookupService("discovery:bogus:///bogus").blockingGet(Duration.ofSeconds(10));
     }
 
+    @Test
+    public void testCachedLookup() {
+        final AtomicInteger calls = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(URI.create("cache:///?ttl=60000"));
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            promise.resolve(Collections.singletonList(URI.create(DiscoveryService.RESULT_SCHEME + "://location/")));
+        }));
+        discoveryService.lookupService("discovery:test:///service").blockingGet(Duration.ofSeconds(15));
+        List<URI> results = discoveryService.lookupService("discovery:test:///service")
+                .blockingGet(Duration.ofSeconds(15));
+        assertEquals(1, results.size());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testCompiledQuery() {
+        final AtomicInteger calls = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(URI.create("cache:///?ttl=60000"));
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            promise.resolve(Collections.singletonList(URI.create(DiscoveryService.RESULT_SCHEME + "://location/")));
+        }));
+        final DiscoveryQuery query = DiscoveryQuery.compile("discovery:test:///service");
+        List<URI> results = discoveryService.lookupService(query).blockingGet(Duration.ofSeconds(15));
+        assertEquals("location", results.get(0).getHost());
+        discoveryService.lookupService("discovery:test:///service").blockingGet(Duration.ofSeconds(15));
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void testMetrics() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(
+                URI.create("cache:///?ttl=60000"), URI.create("metrics:///?name=implTest&jmx=false"));
+        discoveryService.registerService("test", query -> invokablePromise(promise ->
+                promise.resolve(Collections.singletonList(URI.create(DiscoveryService.RESULT_SCHEME + "://a/")))));
+        discoveryService.lookupService("discovery:test:///service").blockingGet(Duration.ofSeconds(15));
+        discoveryService.lookupService("discovery:test:///service").blockingGet(Duration.ofSeconds(15));
+        final DefaultDiscoveryMetrics metrics = (DefaultDiscoveryMetrics) discoveryService.getMetrics();
+        assertEquals(1, metrics.snapshot().size());
+        assertEquals("test", metrics.snapshot().get(0).scheme());
+        assertEquals(1, metrics.snapshot().get(0).successes());
+        discoveryService.close();
+    }
+
+    @Test
+    public void testBatchLookupMetrics() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(
+                URI.create("metrics:///?name=batchTest&jmx=false"));
+        discoveryService.registerService("test", query -> invokablePromise(promise ->
+                promise.resolve(Collections.singletonList(URI.create(DiscoveryService.RESULT_SCHEME + "://a/")))));
+        discoveryService.lookupServices(Arrays.asList(
+                URI.create("discovery:test:///one"),
+                URI.create("discovery:test:///two"))
+        ).blockingGet(Duration.ofSeconds(15));
+        final DefaultDiscoveryMetrics metrics = (DefaultDiscoveryMetrics) discoveryService.getMetrics();
+        assertEquals(1, metrics.snapshot().size());
+        assertEquals(2, metrics.snapshot().get(0).successes());
+        assertEquals(0, metrics.snapshot().get(0).inFlight());
+        discoveryService.close();
+    }
+
+    @Test
+    public void testSuppliedMetrics() {
+        final Vertx vertx = Vertx.vertx();
+        final DefaultDiscoveryMetrics metrics = new DefaultDiscoveryMetrics("supplied", false, 60_000,
+                Collections.emptyList());
+        try {
+            DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(vertx, metrics);
+            assertSame(metrics, discoveryService.getMetrics());
+            discoveryService.close();
+            metrics.lookupStarted("dns");
+            assertEquals(1, metrics.snapshot().size());
+        } finally {
+            metrics.close();
+            vertx.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSuppliedMetricsWithMetricsConfig() {
+        final Vertx vertx = Vertx.vertx();
+        try {
+            DiscoveryService.create(vertx, new DiscoveryMetrics() {
+            }, URI.create("metrics:///?jmx=false"));
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test
+    public void testBatchAndRegisterFallBackToSnapshot() throws Exception {
+        final Path directory = Files.createTempDirectory("lokate-snapshot");
+        final Path file = directory.resolve("discovery.snapshot");
+        final URI query = URI.create("discovery:test:///service");
+        final Vertx vertx = Vertx.vertx();
+        try {
+            final LookupSnapshot saved = new LookupSnapshot(vertx, file, 60_000, 60_000, 16);
+            saved.record(DiscoveryQuery.compile(query).key(),
+                    Collections.singletonList(ServiceEndpoint.of("saved", 8080)));
+            saved.write();
+
+            DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(vertx,
+                    URI.create("snapshot://" + file + "?interval=60000"));
+            discoveryService.registerService("test", uri -> invokablePromise(promise ->
+                    promise.reject(new IllegalStateException("backend is down"))));
+            Map<URI, List<URI>> results = discoveryService.lookupServices(Collections.singletonList(query))
+                    .blockingGet(Duration.ofSeconds(15));
+            assertEquals("saved", results.get(query).get(0).getHost());
+            results = discoveryService.registerQueries(Collections.singletonList(query))
+                    .blockingGet(Duration.ofSeconds(15));
+            assertEquals("saved", results.get(query).get(0).getHost());
+            discoveryService.close();
+        } finally {
+            vertx.close();
+            Files.deleteIfExists(file);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testRegisteredQueriesAreServedFromMemory() {
+        final AtomicInteger calls = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(
+                URI.create("refresh:///?minInterval=60000&maxInterval=60000"));
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            promise.resolve(Collections.singletonList(URI.create(DiscoveryService.RESULT_SCHEME + "://location/")));
+        }));
+        final URI query = URI.create("discovery:test:///service");
+        Map<URI, List<URI>> registered = discoveryService.registerQueries(Collections.singletonList(query))
+                .blockingGet(Duration.ofSeconds(15));
+        assertEquals("location", registered.get(query).get(0).getHost());
+        discoveryService.lookupService(query).blockingGet(Duration.ofSeconds(15));
+        discoveryService.lookupService("discovery:test:///service").blockingGet(Duration.ofSeconds(15));
+        assertEquals(1, calls.get());
+        discoveryService.close();
+    }
+
+    @Test
+    public void testReconfigure() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.reconfigure(URI.create("dns://CONFIG"));
+        assertTrue(discoveryService.getRegisteredServiceClasses().contains(DnsDiscoveryService.class));
+        assertTrue(discoveryService.removeProvider("dns"));
+        assertEquals(2, discoveryService.getRegisteredServiceClasses().size());
+        discoveryService.close();
+    }
+
+    @Test
+    public void testReconfigureRejectsBadConfiguration() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        try {
+            discoveryService.reconfigure(URI.create("dns://CONFIG"), URI.create("bogus://foo"));
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertEquals(2, discoveryService.getRegisteredServiceClasses().size());
+        }
+        try {
+            discoveryService.reconfigure(URI.create("cache:///?ttl=1000"));
+            fail();
+        } catch (final IllegalArgumentException e) {
+            assertEquals(2, discoveryService.getRegisteredServiceClasses().size());
+        }
+        discoveryService.close();
+    }
+
+    @Test(expected = RejectedPromiseException.class)
+    public void testCompiledQueryUnregisteredService() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.lookupService(DiscoveryQuery.compile("discovery:bogus:///bogus"))
+                .blockingGet(Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void testBatchLookup() {
+        final AtomicInteger calls = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(URI.create("cache:///?ttl=60000"));
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            promise.resolve(Collections.singletonList(
+                    URI.create(DiscoveryService.RESULT_SCHEME + "://" + query.getPath().substring(1) + "/")));
+        }));
+        discoveryService.lookupService("discovery:test:///cached").blockingGet(Duration.ofSeconds(15));
+
+        final List<URI> queries = Arrays.asList(
+                URI.create("discovery:test:///one"),
+                URI.create("discovery:echo:http://foo.com:9090"),
+                URI.create("discovery:test:///cached"),
+                URI.create("discovery:test:///two"));
+        final Map<URI, List<URI>> results = discoveryService.lookupServices(queries)
+                .blockingGet(Duration.ofSeconds(15));
+
+        assertEquals(queries, new ArrayList<>(results.keySet()));
+        assertEquals("one", results.get(queries.get(0)).get(0).getHost());
+        assertEquals("foo.com", results.get(queries.get(1)).get(0).getHost());
+        assertEquals("cached", results.get(queries.get(2)).get(0).getHost());
+        assertEquals("two", results.get(queries.get(3)).get(0).getHost());
+        assertEquals(3, calls.get());
+
+        discoveryService.lookupService("discovery:test:///one").blockingGet(Duration.ofSeconds(15));
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testBatchLookupPassesTheBudgetToProviders() {
+        final AtomicReference<Duration> budget = new AtomicReference<>();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(URI.create("deadline:///?timeout=750"));
+        discoveryService.registerService("test", new DiscoveryService() {
+            @Override
+            public Promise<List<URI>> lookupService(URI query) {
+                return invokablePromise(promise -> promise.resolve(Collections.emptyList()));
+            }
+
+            @Override
+            public Promise<Map<URI, List<URI>>> lookupServices(Collection<URI> queries, Duration timeout) {
+                budget.set(timeout);
+                return lookupServices(queries);
+            }
+        });
+        try {
+            discoveryService.lookupServices(Arrays.asList(
+                    URI.create("discovery:test:///ads?timeout=250"),
+                    URI.create("discovery:test:///billing"))).blockingGet(Duration.ofSeconds(10));
+            assertEquals(Duration.ofMillis(250), budget.get());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void testBatchLookupWithAMissingResultIsRejected() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("test", new DiscoveryService() {
+            @Override
+            public Promise<List<URI>> lookupService(URI query) {
+                return invokablePromise(promise -> promise.resolve(Collections.emptyList()));
+            }
+
+            @Override
+            public Promise<Map<URI, List<URI>>> lookupServices(Collection<URI> queries) {
+                return invokablePromise(promise -> promise.resolve(Collections.emptyMap()));
+            }
+        });
+        try {
+            discoveryService.lookupServices(Collections.singletonList(URI.create("discovery:test:///ads")))
+                    .blockingGet(Duration.ofSeconds(10));
+            fail("the batch should be rejected");
+        } catch (final RejectedPromiseException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("returned no result for test:///ads"));
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void testBatchLookupOfQueriesThatDifferOnlyInTheirBudget() {
+        final AtomicInteger calls = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            promise.resolve(Collections.singletonList(
+                    URI.create(DiscoveryService.RESULT_SCHEME + "://" + query.getPath().substring(1) + "/")));
+        }));
+        try {
+            final List<URI> queries = Arrays.asList(
+                    URI.create("discovery:test:///ads?timeout=5000"),
+                    URI.create("discovery:test:///ads"));
+            final Map<URI, List<URI>> results = discoveryService.lookupServices(queries)
+                    .blockingGet(Duration.ofSeconds(15));
+
+            assertEquals(queries, new ArrayList<>(results.keySet()));
+            assertEquals("ads", results.get(queries.get(0)).get(0).getHost());
+            assertEquals("ads", results.get(queries.get(1)).get(0).getHost());
+            assertEquals(1, calls.get());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test(expected = RejectedPromiseException.class)
+    public void testBatchLookupUnregisteredService() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.lookupServices(Arrays.asList(
+                URI.create("discovery:echo:http://foo.com:9090"),
+                URI.create("discovery:bogus:///bogus"))
+        ).blockingGet(Duration.ofSeconds(10));
+    }
+
+    @Test
+    public void testCacheTtlPerScheme() {
+        final AtomicInteger calls = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(URI.create("cache:///?ttl=60000&test.ttl=0"));
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            promise.resolve(Collections.emptyList());
+        }));
+        discoveryService.lookupService("discovery:test:///service").blockingGet(Duration.ofSeconds(15));
+        discoveryService.lookupService("discovery:test:///service").blockingGet(Duration.ofSeconds(15));
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testConcurrentLookupsAreCoalesced() {
+        final AtomicInteger calls = new AtomicInteger();
+        final List<Callback<List<URI>>> pending = new ArrayList<>();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            pending.add(promise);
+        }));
+        final List<List<URI>> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            discoveryService.lookupService("discovery:test:///service").asHandler()
+                    .invokeWithPromise(Promises.<List<URI>>promise().then(results::add));
+        }
+        assertEquals(1, calls.get());
+        pending.get(0).resolve(Collections.singletonList(URI.create(DiscoveryService.RESULT_SCHEME + "://location/")));
+        assertEquals(3, results.size());
+        assertEquals("location", results.get(2).get(0).getHost());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConstructionWithTwoCacheConfigs() throws Exception {
+        new DiscoveryServiceImpl(URI.create("cache:///?ttl=1"), URI.create("cache:///?ttl=2"));
+    }
+
+    @Test
+    public void testWatchPollsProvidersThatCannotPush() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger();
+        final List<List<URI>> notified = new CopyOnWriteArrayList<>();
+        final CountDownLatch changed = new CountDownLatch(2);
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            final int port = lookups.incrementAndGet() < 3 ? 8080 : 9090;
+            promise.resolve(Collections.singletonList(URI.create("service://billing:" + port)));
+        }));
+        final Subscription subscription = discoveryService.watchService(URI.create("discovery:test:///billing"),
+                Duration.ofMillis(10), results -> {
+                    notified.add(results);
+                    changed.countDown();
+                });
+        try {
+            assertTrue(changed.await(10, TimeUnit.SECONDS));
+            assertTrue(lookups.get() >= 3);
+            /* The second lookup returned the same endpoint, so the listener was only called on a change. */
+            assertEquals(8080, notified.get(0).get(0).getPort());
+            assertEquals(9090, notified.get(1).get(0).getPort());
+        } finally {
+            subscription.cancel();
+        }
+        final int polled = lookups.get();
+        Thread.sleep(100);
+        assertTrue(lookups.get() <= polled + 1);
+        assertEquals(2, notified.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWatchUnregisteredService() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.watchService("discovery:bogus:///bogus", results -> {
+        });
+    }
+
+    @Test
+    public void testCloseLeavesSharedVertxOpen() throws Exception {
+        Vertx vertx = Vertx.vertx();
+        DiscoveryService discoveryService = DiscoveryService.create(vertx, URI.create("dns://CONFIG"));
+        discoveryService.close();
+        CountDownLatch latch = new CountDownLatch(1);
+        vertx.setTimer(1, timer -> latch.countDown());
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        vertx.close();
+    }
+
+    @Test
+    public void testCloseClosesProviders() {
+        final AtomicInteger closed = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("test", new DiscoveryService() {
+            @Override
+            public Promise<List<URI>> lookupService(URI query) {
+                return invokablePromise(promise -> promise.resolve(Collections.emptyList()));
+            }
+
+            @Override
+            public void close() {
+                closed.incrementAndGet();
+            }
+        });
+        discoveryService.close();
+        assertEquals(1, closed.get());
+    }
+
+    @Test
+    public void testLookupIsRejectedOnceItsBudgetIsSpent() throws Exception {
+        final AtomicReference<URI> query = new AtomicReference<>();
+        final AtomicReference<Duration> budget = new AtomicReference<>();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(URI.create("deadline:///?timeout=5000"));
+        discoveryService.registerService("test", new DiscoveryService() {
+            @Override
+            public Promise<List<URI>> lookupService(URI query) {
+                return invokablePromise(promise -> {
+                });
+            }
+
+            @Override
+            public Promise<List<ServiceEndpoint>> lookupEndpoints(URI providerQuery, Duration timeout) {
+                query.set(providerQuery);
+                budget.set(timeout);
+                return invokablePromise(promise -> {
+                });
+            }
+        });
+        try {
+            final long start = System.nanoTime();
+            try {
+                discoveryService.lookupService("discovery:test:///ads?timeout=100").blockingGet(Duration.ofSeconds(10));
+                fail("the lookup should time out");
+            } catch (final RejectedPromiseException e) {
+                assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            }
+            assertEquals(URI.create("test:///ads"), query.get());
+            assertEquals(Duration.ofMillis(100), budget.get());
+
+            discoveryService.lookupEndpoints(URI.create("discovery:test:///billing"), Duration.ofMillis(50)).invoke();
+            assertEquals(URI.create("test:///billing"), query.get());
+            assertEquals(Duration.ofMillis(50), budget.get());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void testHungLookupIsServedFromStaleIfErrorEntry() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(
+                URI.create("cache:///?ttl=1&staleIfError=60000"), URI.create("deadline:///?timeout=200"));
+        discoveryService.registerService("test", query -> invokablePromise(promise -> {
+            if (calls.incrementAndGet() == 1) {
+                promise.resolve(Collections.singletonList(URI.create("service://ads:8080/")));
+            }
+        }));
+        try {
+            discoveryService.lookupService("discovery:test:///ads").blockingGet(Duration.ofSeconds(10));
+            Thread.sleep(10);
+
+            final long start = System.nanoTime();
+            final List<URI> uris = discoveryService.lookupService("discovery:test:///ads")
+                    .blockingGet(Duration.ofSeconds(10));
+            assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+            assertEquals(Collections.singletonList(URI.create("service://ads:8080/")), uris);
+            assertEquals(2, calls.get());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void testDefaultBudgetIsPassedToProviders() throws Exception {
+        final AtomicReference<Duration> budget = new AtomicReference<>();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl(URI.create("deadline:///?timeout=750"));
+        discoveryService.registerService("test", new DiscoveryService() {
+            @Override
+            public Promise<List<URI>> lookupService(URI query) {
+                return invokablePromise(promise -> promise.resolve(Collections.emptyList()));
+            }
+
+            @Override
+            public Promise<List<ServiceEndpoint>> lookupEndpoints(URI query, Duration timeout) {
+                budget.set(timeout);
+                return lookupEndpoints(query);
+            }
+        });
+        try {
+            discoveryService.lookupService("discovery:test:///ads").blockingGet(Duration.ofSeconds(10));
+            assertEquals(Duration.ofMillis(750), budget.get());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReconfigureRejectsDeadlineConfiguration() {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        try {
+            discoveryService.reconfigure(URI.create("deadline:///?timeout=1000"));
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void testAnyResolvesWithFirstNonEmptyResult() throws Exception {
+        final List<Callback<List<URI>>> slow = new ArrayList<>();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("slow", query -> invokablePromise(slow::add));
+        discoveryService.registerService("empty", query -> invokablePromise(promise ->
+                promise.resolve(Collections.emptyList())));
+        discoveryService.registerService("fast", query -> invokablePromise(promise ->
+                promise.resolve(Collections.singletonList(URI.create("service://fast:8080")))));
+        try {
+            final List<URI> uris = discoveryService
+                    .lookupService("discovery:any:(slow:///ads,empty:///ads,fast:///ads)")
+                    .blockingGet(Duration.ofSeconds(10));
+            assertEquals(Collections.singletonList(URI.create("service://fast:8080")), uris);
+            assertEquals(1, slow.size());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test
+    public void testAnyStaggersQueries() throws Exception {
+        final AtomicInteger backup = new AtomicInteger();
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("primary", query -> invokablePromise(promise ->
+                promise.resolve(Collections.singletonList(URI.create("service://primary:8080")))));
+        discoveryService.registerService("backup", query -> invokablePromise(promise -> {
+            backup.incrementAndGet();
+            promise.resolve(Collections.singletonList(URI.create("service://backup:8080")));
+        }));
+        try {
+            final List<URI> uris = discoveryService
+                    .lookupService("discovery:any:(primary:///ads,backup:///ads)?hedgeDelay=1000")
+                    .blockingGet(Duration.ofSeconds(10));
+            assertEquals(Collections.singletonList(URI.create("service://primary:8080")), uris);
+            Thread.sleep(1_500);
+            assertEquals(0, backup.get());
+        } finally {
+            discoveryService.close();
+        }
+    }
+
+    @Test(expected = RejectedPromiseException.class)
+    public void testAnyRejectsWhenEveryQueryFails() throws Exception {
+        DiscoveryServiceImpl discoveryService = new DiscoveryServiceImpl();
+        discoveryService.registerService("down", query -> invokablePromise(promise -> promise.reject("down")));
+        try {
+            discoveryService.lookupService("discovery:any:(down:///ads,bogus:///ads)")
+                    .blockingGet(Duration.ofSeconds(10));
+        } finally {
+            discoveryService.close();
+        }
+    }
 }
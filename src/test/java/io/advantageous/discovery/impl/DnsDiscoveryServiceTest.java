@@ -72,6 +72,7 @@ public class DnsDiscoveryServiceTest {
         Assert.assertNotNull(result);
         Assert.assertEquals(1, result.size());
         Assert.assertFalse(result.get(0).getHost().isEmpty());
+        Assert.assertEquals("/", result.get(0).getPath());
     }
 
     @Test(expected = RejectedPromiseException.class)
@@ -121,6 +122,7 @@ public class DnsDiscoveryServiceTest {
         Assert.assertEquals(1, result.size());
         Assert.assertFalse(result.get(0).getHost().isEmpty());
         Assert.assertEquals("/consul", result.get(0).getPath());
+        Assert.assertTrue(result.get(0).getQuery().matches("priority=\\d+&weight=\\d+"));
     }
 
     @Test
@@ -133,4 +135,15 @@ public class DnsDiscoveryServiceTest {
         Assert.assertEquals(0, result.size());
     }
 
+    @Test
+    public void testHedgedQueryAWithBadPrimary() throws Exception {
+        Promise<List<URI>> promise = Promises.blockingPromise(Duration.ofSeconds(10));
+        DiscoveryService service = new DnsDiscoveryService(URI.create("dns://0.0.0.0:53?hedge=true&hedgeDelay=20"),
+                TEST_CONFIGS[0]);
+        service.lookupService("dns:A:///ipsec1.rbss.staging.rbmhops.net?port=100").asHandler().invokeWithPromise(promise);
+        List<URI> result = promise.asHandler().get();
+        Assert.assertNotNull(result);
+        Assert.assertEquals(1, result.size());
+    }
+
 }
@@ -0,0 +1,54 @@
+package io.advantageous.discovery.impl;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class DnsMessageTest {
+
+    @Test
+    public void testEncodeQueryWithEdns() {
+        ByteBuffer query = DnsMessage.encodeQuery(0x1234, "web.service.consul", DnsMessage.TYPE_SRV, true);
+        assertEquals(0x1234, query.getShort(0) & 0xFFFF);
+        assertEquals(1, query.getShort(4));
+        assertEquals(1, query.getShort(10));
+        assertEquals(3, query.get(12));
+        assertEquals('w', query.get(13));
+        int optStart = query.limit() - 11;
+        assertEquals(DnsMessage.TYPE_OPT, query.getShort(optStart + 1));
+        assertEquals(DnsMessage.EDNS_UDP_PAYLOAD_SIZE, query.getShort(optStart + 3));
+    }
+
+    @Test
+    public void testEncodeQueryWithoutEdns() {
+        ByteBuffer query = DnsMessage.encodeQuery(1, "web.consul.", DnsMessage.TYPE_A, false);
+        assertEquals(0, query.getShort(10));
+        assertEquals(12 + 12 + 4, query.limit());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeRejectsQuery() {
+        DnsMessage.decode(DnsMessage.encodeQuery(1, "web.consul", DnsMessage.TYPE_A, true));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeRejectsShortMessage() {
+        DnsMessage.decode(ByteBuffer.wrap(new byte[]{0, 1, (byte) 0x80}));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeRejectsCompressionLoop() {
+        ByteBuffer response = ByteBuffer.allocate(14);
+        response.putShort((short) 1);
+        response.putShort((short) 0x8180);
+        response.putShort((short) 1);
+        response.putShort((short) 0);
+        response.putShort((short) 0);
+        response.putShort((short) 0);
+        response.putShort((short) 0xC00C);
+        response.flip();
+        DnsMessage.decode(response);
+    }
+}
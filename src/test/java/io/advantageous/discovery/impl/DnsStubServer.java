@@ -0,0 +1,216 @@
+package io.advantageous.discovery.impl;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process DNS server answering A and SRV queries from canned records, over UDP and TCP on the same port.
+ */
+class DnsStubServer implements AutoCloseable {
+
+    private final DatagramSocket udp;
+    private final ServerSocket tcp;
+    private final Map<String, List<String>> aRecords = new ConcurrentHashMap<>();
+    private final Map<String, List<int[]>> srvPorts = new ConcurrentHashMap<>();
+    private final Map<String, List<String>> srvTargets = new ConcurrentHashMap<>();
+    private final AtomicInteger udpQueries = new AtomicInteger();
+    private final AtomicInteger tcpQueries = new AtomicInteger();
+    private volatile boolean truncate;
+    private volatile int ttl = 60;
+    private volatile long udpDelayMs;
+    private volatile long tcpDelayMs;
+
+    DnsStubServer() throws IOException {
+        this.udp = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        this.tcp = new ServerSocket(udp.getLocalPort(), 50, InetAddress.getLoopbackAddress());
+        final Thread udpThread = new Thread(this::serveUdp, "dns-stub-udp");
+        udpThread.setDaemon(true);
+        udpThread.start();
+        final Thread tcpThread = new Thread(this::serveTcp, "dns-stub-tcp");
+        tcpThread.setDaemon(true);
+        tcpThread.start();
+    }
+
+    URI uri() {
+        return URI.create("//127.0.0.1:" + udp.getLocalPort());
+    }
+
+    DnsStubServer addA(final String name, final String address) {
+        aRecords.computeIfAbsent(name, key -> new ArrayList<>()).add(address);
+        return this;
+    }
+
+    DnsStubServer addSrv(final String name, final int priority, final int weight, final int port, final String target) {
+        srvPorts.computeIfAbsent(name, key -> new ArrayList<>()).add(new int[]{priority, weight, port});
+        srvTargets.computeIfAbsent(name, key -> new ArrayList<>()).add(target);
+        return this;
+    }
+
+    DnsStubServer truncateUdp(final boolean truncate) {
+        this.truncate = truncate;
+        return this;
+    }
+
+    DnsStubServer delay(final long udpDelayMs, final long tcpDelayMs) {
+        this.udpDelayMs = udpDelayMs;
+        this.tcpDelayMs = tcpDelayMs;
+        return this;
+    }
+
+    DnsStubServer ttl(final int ttl) {
+        this.ttl = ttl;
+        return this;
+    }
+
+    int udpQueries() {
+        return udpQueries.get();
+    }
+
+    int tcpQueries() {
+        return tcpQueries.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        udp.close();
+        tcp.close();
+    }
+
+    private void serveUdp() {
+        final byte[] buffer = new byte[4096];
+        while (!udp.isClosed()) {
+            try {
+                final DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                udp.receive(packet);
+                udpQueries.incrementAndGet();
+                pause(udpDelayMs);
+                final byte[] response = answer(ByteBuffer.wrap(packet.getData(), 0, packet.getLength()), truncate);
+                udp.send(new DatagramPacket(response, response.length, packet.getSocketAddress()));
+            } catch (final IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serveTcp() {
+        while (!tcp.isClosed()) {
+            try (Socket socket = tcp.accept()) {
+                tcpQueries.incrementAndGet();
+                final DataInputStream in = new DataInputStream(socket.getInputStream());
+                final byte[] query = new byte[in.readUnsignedShort()];
+                in.readFully(query);
+                pause(tcpDelayMs);
+                final byte[] response = answer(ByteBuffer.wrap(query), false);
+                final DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                out.writeShort(response.length);
+                out.write(response);
+                out.flush();
+            } catch (final IOException e) {
+                if (tcp.isClosed()) return;
+            }
+        }
+    }
+
+    private static void pause(final long delayMs) {
+        if (delayMs <= 0) return;
+        try {
+            Thread.sleep(delayMs);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private byte[] answer(final ByteBuffer query, final boolean truncated) {
+        final int id = query.getShort() & 0xFFFF;
+        query.position(12);
+        final StringBuilder name = new StringBuilder();
+        int length;
+        while ((length = query.get() & 0xFF) != 0) {
+            if (name.length() > 0) name.append('.');
+            final byte[] label = new byte[length];
+            query.get(label);
+            name.append(new String(label, StandardCharsets.US_ASCII));
+        }
+        final int type = query.getShort() & 0xFFFF;
+        final int questionEnd = query.position() + 2;
+
+        final List<String> addresses = aRecords.get(name.toString());
+        final List<int[]> ports = srvPorts.get(name.toString());
+        final boolean found = type == DnsMessage.TYPE_A ? addresses != null : ports != null;
+        final int answerCount = truncated || !found ? 0 : (type == DnsMessage.TYPE_A ? addresses.size() : ports.size());
+
+        final ByteBuffer response = ByteBuffer.allocate(4096);
+        response.putShort((short) id);
+        response.putShort((short) (0x8180 | (truncated ? 0x0200 : 0) | (found ? 0 : DnsMessage.RCODE_NX_DOMAIN)));
+        response.putShort((short) 1);
+        response.putShort((short) answerCount);
+        response.putShort((short) (found || truncated ? 0 : 1));
+        response.putShort((short) 0);
+        response.put(query.array(), query.arrayOffset() + 12, questionEnd - 12);
+
+        for (int i = 0; i < answerCount; i++) {
+            response.putShort((short) 0xC00C);
+            response.putShort((short) type);
+            response.putShort((short) 1);
+            response.putInt(ttl);
+            if (type == DnsMessage.TYPE_A) {
+                response.putShort((short) 4);
+                for (final String octet : addresses.get(i).split("\\.")) {
+                    response.put((byte) Integer.parseInt(octet));
+                }
+            } else {
+                final byte[] target = encodeName(srvTargets.get(name.toString()).get(i));
+                response.putShort((short) (6 + target.length));
+                response.putShort((short) ports.get(i)[0]);
+                response.putShort((short) ports.get(i)[1]);
+                response.putShort((short) ports.get(i)[2]);
+                response.put(target);
+            }
+        }
+        if (!found && !truncated) {
+            final byte[] mname = encodeName("ns.stub");
+            final byte[] rname = encodeName("admin.stub");
+            response.put((byte) 0);
+            response.putShort((short) DnsMessage.TYPE_SOA);
+            response.putShort((short) 1);
+            response.putInt(300);
+            response.putShort((short) (mname.length + rname.length + 20));
+            response.put(mname);
+            response.put(rname);
+            response.putInt(1);
+            response.putInt(3600);
+            response.putInt(600);
+            response.putInt(86400);
+            response.putInt(30);
+        }
+        final byte[] bytes = new byte[response.position()];
+        response.flip();
+        response.get(bytes);
+        return bytes;
+    }
+
+    private static byte[] encodeName(final String name) {
+        final ByteBuffer buffer = ByteBuffer.allocate(name.length() + 2);
+        for (final String label : name.split("\\.")) {
+            buffer.put((byte) label.length());
+            buffer.put(label.getBytes(StandardCharsets.US_ASCII));
+        }
+        buffer.put((byte) 0);
+        return buffer.array();
+    }
+}
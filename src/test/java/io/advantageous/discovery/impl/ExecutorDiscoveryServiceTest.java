@@ -0,0 +1,163 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.Subscription;
+import io.advantageous.discovery.utils.CompletionExecutors;
+import io.advantageous.reakt.promise.Promise;
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutorDiscoveryServiceTest {
+
+    private static final List<URI> ADS = Collections.singletonList(URI.create("http://ads:8080"));
+
+    private ExecutorService io;
+    private ExecutorService pool;
+
+    @Before
+    public void setUp() {
+        io = Executors.newSingleThreadExecutor(task -> new Thread(task, "io"));
+        pool = Executors.newSingleThreadExecutor(task -> new Thread(task, "pool"));
+    }
+
+    @After
+    public void tearDown() {
+        io.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    /**
+     * Resolves on the "io" thread, like a provider completing on its event loop.
+     */
+    private DiscoveryService ioService() {
+        return new DiscoveryService() {
+            @Override
+            public Promise<List<URI>> lookupService(final URI query) {
+                return invokablePromise(promise -> io.execute(() -> promise.resolve(ADS)));
+            }
+
+            @Override
+            public Subscription watchService(final URI query, final Consumer<List<URI>> listener) {
+                io.execute(() -> listener.accept(ADS));
+                return () -> {
+                };
+            }
+        };
+    }
+
+    @Test
+    public void testCompletesOnTheExecutor() {
+        final DiscoveryService discoveryService = ioService().completeOn(pool);
+        final String[] thread = new String[1];
+        final List<URI> results = discoveryService.lookupService("discovery:ads")
+                .then(uris -> thread[0] = Thread.currentThread().getName())
+                .blockingGet(Duration.ofSeconds(10));
+        assertEquals(ADS, results);
+        assertEquals("pool", thread[0]);
+    }
+
+    @Test
+    public void testSynchronousCompletionIsInline() {
+        final DiscoveryService discoveryService = new DiscoveryServiceImpl().completeOn(task -> {
+            throw new AssertionError("a synchronous completion was handed off");
+        });
+        final List<URI> results = discoveryService.lookupService("discovery:echo:http://ads:8080")
+                .blockingGet(Duration.ofSeconds(10));
+        assertEquals(ADS, results);
+    }
+
+    @Test
+    public void testRejectedCompletionRejectsTheLookup() throws Exception {
+        final DiscoveryService discoveryService = ioService().completeOn(task -> {
+            throw new RejectedExecutionException("full");
+        });
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        discoveryService.lookupService("discovery:ads")
+                .then(future::complete)
+                .catchError(future::complete)
+                .invoke();
+        assertTrue(future.get(10, TimeUnit.SECONDS) instanceof RejectedExecutionException);
+    }
+
+    @Test
+    public void testWatchListenerRunsOnTheExecutor() throws Exception {
+        final CompletableFuture<String> thread = new CompletableFuture<>();
+        ioService().completeOn(pool).watchService("discovery:ads",
+                uris -> thread.complete(Thread.currentThread().getName()));
+        assertEquals("pool", thread.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCompleteOnReplacesTheExecutor() throws Exception {
+        final CompletableFuture<String> thread = new CompletableFuture<>();
+        ioService().completeOn(io).completeOn(pool).watchService("discovery:ads",
+                uris -> thread.complete(Thread.currentThread().getName()));
+        assertEquals("pool", thread.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testClosingAViewLeavesTheServiceOpen() {
+        final boolean[] closed = new boolean[1];
+        final DiscoveryService discoveryService = new DiscoveryService() {
+            @Override
+            public Promise<List<URI>> lookupService(final URI query) {
+                return invokablePromise(promise -> promise.resolve(ADS));
+            }
+
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        discoveryService.completeOn(pool).close();
+        assertFalse(closed[0]);
+        discoveryService.close();
+        assertTrue(closed[0]);
+    }
+
+    @Test
+    public void testOnContext() throws Exception {
+        final Vertx vertx = Vertx.vertx();
+        try {
+            final Context context = vertx.getOrCreateContext();
+            final CompletableFuture<Context> ran = new CompletableFuture<>();
+            CompletionExecutors.onContext(context).execute(() -> ran.complete(Vertx.currentContext()));
+            assertSame(context, ran.get(10, TimeUnit.SECONDS));
+
+            final CompletableFuture<Boolean> inline = new CompletableFuture<>();
+            context.runOnContext(event -> {
+                final boolean[] ranInline = new boolean[1];
+                CompletionExecutors.onCurrentContext().execute(() -> ranInline[0] = true);
+                inline.complete(ranInline[0]);
+            });
+            assertTrue(inline.get(10, TimeUnit.SECONDS));
+        } finally {
+            vertx.close();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testOnCurrentContextOffContext() {
+        CompletionExecutors.onCurrentContext();
+    }
+}
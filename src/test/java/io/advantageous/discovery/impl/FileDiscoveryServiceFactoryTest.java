@@ -0,0 +1,49 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.spi.DiscoveryServiceFactory;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.ServiceLoader;
+
+public class FileDiscoveryServiceFactoryTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithNullConfig() {
+        DiscoveryServiceFactory factory = new FileDiscoveryServiceFactory();
+        factory.create(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWithNoConfig() {
+        DiscoveryServiceFactory factory = new FileDiscoveryServiceFactory();
+        factory.create(Collections.emptyList());
+    }
+
+    @Test
+    public void testCreate() throws Exception {
+        Path file = Files.createTempFile("lokate-services", ".conf");
+        try {
+            DiscoveryServiceFactory factory = new FileDiscoveryServiceFactory();
+            DiscoveryService service = factory.create(Collections.singletonList(URI.create("file://" + file)));
+            Assert.assertNotNull(service);
+            service.close();
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testRegistered() {
+        boolean found = false;
+        for (DiscoveryServiceFactory factory : ServiceLoader.load(DiscoveryServiceFactory.class)) {
+            found |= FileDiscoveryService.SCHEME.equals(factory.getScheme());
+        }
+        Assert.assertTrue(found);
+    }
+}
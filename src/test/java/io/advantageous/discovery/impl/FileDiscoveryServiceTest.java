@@ -0,0 +1,191 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.ServiceEndpoint;
+import io.advantageous.discovery.Subscription;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class FileDiscoveryServiceTest {
+
+    private static final String SERVICES = "# services for the edge box\n"
+            + "ads = http://10.0.0.1:8080?tags=prod,east http://10.0.0.2:8080?tags=canary\n"
+            + "\n"
+            + "billing = http://10.0.0.5:9090\n"
+            + "search = http://10.0.0.9:7070\n"
+            + "ads = http://10.0.0.3:8080?tags=prod&weight=5\n";
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("lokate-file");
+        file = directory.resolve("services.conf");
+        write(SERVICES);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(directory.resolve("services.tmp"));
+        Files.deleteIfExists(file);
+        Files.delete(directory);
+    }
+
+    private void write(final String text) throws Exception {
+        final Path temp = directory.resolve("services.tmp");
+        Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Test
+    public void testRead() {
+        final Map<String, FileDiscoveryService.Entry> index =
+                FileDiscoveryService.read(Collections.singletonList(file));
+        final List<ServiceEndpoint> ads = index.get("ads").endpoints();
+        assertEquals(3, ads.size());
+        assertEquals(Arrays.asList("prod", "east"), ads.get(0).tags());
+        assertEquals("10.0.0.3", ads.get(2).host());
+        assertEquals(5, ads.get(2).weight());
+        assertEquals(URI.create("http://10.0.0.5:9090"), index.get("billing").endpoints().get(0).toURI());
+        assertNull(index.get("mail"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLineWithoutService() throws Exception {
+        write("http://10.0.0.1:8080\n");
+        FileDiscoveryService.read(Collections.singletonList(file));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEndpointWithoutPort() throws Exception {
+        write("ads = http://10.0.0.1\n");
+        FileDiscoveryService.read(Collections.singletonList(file));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMissingFile() {
+        new FileDiscoveryService(URI.create("file://" + directory.resolve("missing.conf")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongScheme() {
+        new FileDiscoveryService(URI.create("bogus:///etc/services.conf"));
+    }
+
+    @Test
+    public void testLookup() {
+        final FileDiscoveryService service = new FileDiscoveryService(URI.create("file://" + file + "?watch=false"));
+        try {
+            assertEquals(3, service.lookupService(URI.create("file:///ads")).blockingGet(Duration.ofSeconds(1)).size());
+            assertEquals(Arrays.asList(URI.create("http://10.0.0.1:8080?tags=prod,east"),
+                    URI.create("http://10.0.0.3:8080?tags=prod&weight=5")),
+                    service.lookupService(URI.create("file:///ads?tag=prod")).blockingGet(Duration.ofSeconds(1)));
+            assertEquals(0, service.lookupEndpoints(URI.create("file:///mail"))
+                    .blockingGet(Duration.ofSeconds(1)).size());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testReloadKeepsUnchangedServices() throws Exception {
+        final FileDiscoveryService service = new FileDiscoveryService(URI.create("file://" + file + "?watch=false"));
+        try {
+            final FileDiscoveryService.Entry search = service.entry(URI.create("file:///search"));
+            final FileDiscoveryService.Entry adsBefore = service.entry(URI.create("file:///ads"));
+            final BlockingQueue<List<URI>> billing = new LinkedBlockingQueue<>();
+            final BlockingQueue<List<URI>> ads = new LinkedBlockingQueue<>();
+            service.watchService(URI.create("file:///billing"), billing::add);
+            service.watchService(URI.create("file:///ads?tag=canary"), ads::add);
+            assertEquals(1, billing.poll().size());
+            assertEquals(1, ads.poll().size());
+
+            write(SERVICES.replace("10.0.0.5:9090", "10.0.0.6:9090").replace("10.0.0.3", "10.0.0.4"));
+            service.reload();
+            assertEquals(Collections.singletonList(URI.create("http://10.0.0.6:9090")), billing.poll());
+            /* ads changed, but not its canary endpoints. */
+            assertNull(ads.poll());
+            assertEquals("10.0.0.4", service.entry(URI.create("file:///ads")).endpoints().get(2).host());
+            assertNotSame(adsBefore, service.entry(URI.create("file:///ads")));
+            assertSame(search, service.entry(URI.create("file:///search")));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testWatchSeesFileChanges() throws Exception {
+        final FileDiscoveryService service = new FileDiscoveryService(URI.create("file://" + file));
+        try {
+            final BlockingQueue<List<URI>> billing = new LinkedBlockingQueue<>();
+            final Subscription subscription = service.watchService(URI.create("file:///billing"), billing::add);
+            assertEquals(Collections.singletonList(URI.create("http://10.0.0.5:9090")), billing.poll());
+
+            write(SERVICES + "billing = http://10.0.0.7:9090\n");
+            assertEquals(Arrays.asList(URI.create("http://10.0.0.5:9090"), URI.create("http://10.0.0.7:9090")),
+                    billing.poll(30, TimeUnit.SECONDS));
+            subscription.cancel();
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testFilesInOneDirectoryShareAWatcher() throws Exception {
+        final Path other = directory.resolve("other.conf");
+        Files.write(other, "billing = http://10.0.0.6:9090\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            final FileDiscoveryService service = new FileDiscoveryService(
+                    URI.create("file://" + file), URI.create("file://" + other));
+            try {
+                assertEquals(1, service.watcherCount());
+                assertEquals(2, service.entry(URI.create("file:///billing")).endpoints().size());
+            } finally {
+                service.close();
+            }
+        } finally {
+            Files.delete(other);
+        }
+    }
+
+    @Test
+    public void testBadReloadKeepsTheLastIndex() throws Exception {
+        final FileDiscoveryService service = new FileDiscoveryService(URI.create("file://" + file + "?watch=false"));
+        try {
+            final BlockingQueue<List<URI>> billing = new LinkedBlockingQueue<>();
+            service.watchService(URI.create("file:///billing"), billing::add);
+            billing.poll();
+            write("billing = not a uri\n");
+            try {
+                service.reload();
+            } catch (final IllegalArgumentException expected) {
+                /* the watch thread logs this */
+            }
+            write(SERVICES);
+            service.reload();
+            assertNull(billing.poll());
+        } finally {
+            service.close();
+        }
+    }
+}
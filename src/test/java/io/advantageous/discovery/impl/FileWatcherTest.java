@@ -0,0 +1,71 @@
+package io.advantageous.discovery.impl;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+public class FileWatcherTest {
+
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("lokate-watch");
+        file = directory.resolve("watched.conf");
+        Files.write(file, "one".getBytes(StandardCharsets.UTF_8));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(directory.resolve("watched.tmp"));
+        Files.deleteIfExists(file);
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testChangesAreSeen() throws Exception {
+        final Semaphore changes = new Semaphore(0);
+        final FileWatcher watcher = new FileWatcher(file, changes::release);
+        try {
+            Files.write(file, "two".getBytes(StandardCharsets.UTF_8));
+            assertTrue(changes.tryAcquire(30, TimeUnit.SECONDS));
+            changes.drainPermits();
+
+            final Path temp = directory.resolve("watched.tmp");
+            Files.write(temp, "three".getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            assertTrue(changes.tryAcquire(30, TimeUnit.SECONDS));
+        } finally {
+            watcher.close();
+        }
+    }
+
+    @Test
+    public void testListenerFailureKeepsWatching() throws Exception {
+        final Semaphore changes = new Semaphore(0);
+        final FileWatcher watcher = new FileWatcher(file, () -> {
+            changes.release();
+            throw new IllegalStateException("bad file");
+        });
+        try {
+            Files.write(file, "two".getBytes(StandardCharsets.UTF_8));
+            assertTrue(changes.tryAcquire(30, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            changes.drainPermits();
+            Files.write(file, "three".getBytes(StandardCharsets.UTF_8));
+            assertTrue(changes.tryAcquire(30, TimeUnit.SECONDS));
+        } finally {
+            watcher.close();
+        }
+    }
+}
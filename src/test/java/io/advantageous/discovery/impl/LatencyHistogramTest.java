@@ -0,0 +1,59 @@
+package io.advantageous.discovery.impl;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmpty() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.percentile(99));
+        assertEquals(0, histogram.max());
+    }
+
+    @Test
+    public void testExactBelowLinearRange() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 10; i++) histogram.record(i);
+        assertEquals(5, histogram.percentile(50));
+        assertEquals(10, histogram.percentile(100));
+        assertEquals(10, histogram.max());
+    }
+
+    @Test
+    public void testBucketsAreContiguous() {
+        for (int i = 0; i < 311; i++) {
+            final long bound = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.index(bound));
+            assertEquals(i + 1, LatencyHistogram.index(bound + 1));
+        }
+    }
+
+    @Test
+    public void testRelativeError() {
+        for (long value = 1; value < 1_000_000_000L; value = value * 3 + 1) {
+            final long bound = LatencyHistogram.upperBound(LatencyHistogram.index(value));
+            assertTrue(value + " reported as " + bound, bound >= value && bound <= value * 1.125 + 1);
+        }
+    }
+
+    @Test
+    public void testPercentileMergesHistograms() {
+        final LatencyHistogram current = new LatencyHistogram();
+        final LatencyHistogram previous = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) previous.record(1);
+        current.record(10_000);
+        assertEquals(1, current.percentile(50, previous));
+        assertTrue(current.percentile(100, previous) >= 10_000);
+    }
+
+    @Test
+    public void testNegativeIsRecordedAsZero() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.percentile(100));
+    }
+}
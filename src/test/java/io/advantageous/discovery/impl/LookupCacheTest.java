@@ -0,0 +1,143 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.reakt.exception.RejectedPromiseException;
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LookupCacheTest {
+
+    private static List<URI> lookup(final LookupCache<URI> cache, final String key,
+                                    final Supplier<Promise<List<URI>>> loader) {
+        final Promise<List<URI>> promise = Promises.blockingPromise(Duration.ofSeconds(10));
+        cache.lookup(key, "test", loader, promise.asHandler());
+        return promise.asHandler().get();
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<Promise<List<URI>>> loader = () -> invokablePromise(promise -> {
+            calls.incrementAndGet();
+            promise.resolve(Collections.emptyList());
+        });
+        final LookupCache<URI> cache = LookupCache.fromConfig(URI.create("cache:///?ttl=60000&maxSize=2"));
+        lookup(cache, "a", loader);
+        lookup(cache, "b", loader);
+        lookup(cache, "a", loader);
+        lookup(cache, "c", loader);
+        assertEquals(3, calls.get());
+        assertEquals(2, cache.size());
+        lookup(cache, "a", loader);
+        assertEquals(3, calls.get());
+        lookup(cache, "b", loader);
+        assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testConcurrentHitsAndStoresStayWithinMaxSize() throws Exception {
+        final LookupCache<URI> cache = LookupCache.fromConfig(URI.create("cache:///?ttl=60000&maxSize=16"));
+        final List<URI> results = Collections.singletonList(URI.create("service://host:1"));
+        final ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int worker = 0; worker < 8; worker++) {
+                final int seed = worker;
+                workers.add(pool.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        final String key = String.valueOf((seed * 31 + i) % 64);
+                        if (cache.get(key) == null) cache.put(key, "test", results);
+                    }
+                }));
+            }
+            for (final Future<?> worker : workers) worker.get(30, TimeUnit.SECONDS);
+        } finally {
+            pool.shutdownNow();
+        }
+        assertTrue(cache.size() <= 16);
+    }
+
+    @Test
+    public void testNoCacheDoesNotStore() {
+        final LookupCache<URI> cache = LookupCache.noCache();
+        lookup(cache, "a", () -> invokablePromise(promise -> promise.resolve(Collections.emptyList())));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<Promise<List<URI>>> loader = () -> invokablePromise(promise -> promise.resolve(
+                Collections.singletonList(URI.create("service://host:" + calls.incrementAndGet()))));
+        final LookupCache<URI> cache = LookupCache.fromConfig(URI.create("cache:///?ttl=1&staleWhileRevalidate=60000"));
+        assertEquals(1, lookup(cache, "a", loader).get(0).getPort());
+        Thread.sleep(10);
+        assertEquals(1, lookup(cache, "a", loader).get(0).getPort());
+        assertEquals(2, calls.get());
+        assertEquals(2, lookup(cache, "a", loader).get(0).getPort());
+    }
+
+    @Test
+    public void testStaleIfError() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<Promise<List<URI>>> loader = () -> invokablePromise(promise -> {
+            if (calls.incrementAndGet() > 1) {
+                promise.reject("consul is electing a leader");
+            } else {
+                promise.resolve(Collections.singletonList(URI.create("service://host:1")));
+            }
+        });
+        final LookupCache<URI> cache = LookupCache.fromConfig(URI.create("cache:///?ttl=1&staleIfError=60000"));
+        lookup(cache, "a", loader);
+        Thread.sleep(10);
+        assertEquals(1, lookup(cache, "a", loader).get(0).getPort());
+        assertEquals(2, calls.get());
+    }
+
+    @Test(expected = RejectedPromiseException.class)
+    public void testFailsPastStaleIfError() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final Supplier<Promise<List<URI>>> loader = () -> invokablePromise(promise -> {
+            if (calls.incrementAndGet() > 1) {
+                promise.reject("consul is electing a leader");
+            } else {
+                promise.resolve(Collections.singletonList(URI.create("service://host:1")));
+            }
+        });
+        final LookupCache<URI> cache = LookupCache.fromConfig(URI.create("cache:///?ttl=1&staleIfError=5"));
+        lookup(cache, "a", loader);
+        Thread.sleep(20);
+        lookup(cache, "a", loader);
+    }
+
+    @Test
+    public void testLoaderThatThrowsAfterSettling() {
+        final LookupCache<URI> cache = LookupCache.noCache();
+        final List<URI> results = lookup(cache, "a", () -> invokablePromise(promise -> {
+            promise.resolve(Collections.singletonList(URI.create("service://host:1")));
+            throw new IllegalStateException("the loader failed after it answered");
+        }));
+        assertEquals(1, results.get(0).getPort());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongScheme() {
+        LookupCache.fromConfig(URI.create("bogus:///?ttl=1"));
+    }
+}
@@ -0,0 +1,86 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import io.advantageous.reakt.Callback;
+import io.advantageous.reakt.promise.Promises;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class LookupDeadlinesTest {
+
+    private Vertx vertx;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+    }
+
+    @After
+    public void tearDown() {
+        vertx.close();
+    }
+
+    private static Callback<String> completing(final CompletableFuture<Object> future) {
+        return Promises.<String>promise()
+                .then(future::complete)
+                .catchError(future::complete)
+                .asHandler();
+    }
+
+    @Test
+    public void testRejectsOnceTheBudgetIsSpent() throws Exception {
+        final LookupDeadlines deadlines = new LookupDeadlines(vertx, 50);
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        deadlines.guard(completing(future), 50, "discovery:consul:///ads");
+        assertTrue(future.get(10, TimeUnit.SECONDS) instanceof TimeoutException);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    }
+
+    @Test
+    public void testFirstCompletionWins() throws Exception {
+        final LookupDeadlines deadlines = new LookupDeadlines(vertx, 50);
+        final CompletableFuture<Object> future = new CompletableFuture<>();
+        final Callback<String> guarded = deadlines.guard(completing(future), 50, "discovery:consul:///ads");
+        guarded.resolve("found");
+        guarded.reject("too late");
+        assertEquals("found", future.get(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals("found", future.get());
+    }
+
+    @Test
+    public void testZeroBudgetIsUnbounded() {
+        final LookupDeadlines deadlines = new LookupDeadlines(vertx, 0);
+        final Callback<String> callback = completing(new CompletableFuture<>());
+        assertSame(callback, deadlines.guard(callback, 0, "discovery:consul:///ads"));
+    }
+
+    @Test
+    public void testQueryBudgetOverridesDefault() {
+        final LookupDeadlines deadlines = LookupDeadlines.fromConfig(vertx, URI.create("deadline:///?timeout=5000"));
+        assertEquals(5000, deadlines.timeoutMs(DiscoveryQuery.compile("discovery:consul:///ads")));
+        assertEquals(250, deadlines.timeoutMs(DiscoveryQuery.compile("discovery:consul:///ads?timeout=250")));
+        assertEquals(100, deadlines.timeoutMs(DiscoveryQuery.compile("discovery:consul:///ads")
+                .withTimeout(Duration.ofMillis(100))));
+        assertEquals(LookupDeadlines.DEFAULT_TIMEOUT_MS,
+                LookupDeadlines.defaults(vertx).timeoutMs(DiscoveryQuery.compile("discovery:consul:///ads")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testWrongScheme() {
+        LookupDeadlines.fromConfig(vertx, URI.create("bogus:///?timeout=1"));
+    }
+}
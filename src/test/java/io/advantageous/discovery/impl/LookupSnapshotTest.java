@@ -0,0 +1,105 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.ServiceEndpoint;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LookupSnapshotTest {
+
+    private Vertx vertx;
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        directory = Files.createTempDirectory("lokate-snapshot");
+        file = directory.resolve("discovery.snapshot");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        vertx.close();
+        for (final File child : directory.toFile().listFiles()) Files.delete(child.toPath());
+        Files.delete(directory);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final List<ServiceEndpoint> endpoints = Arrays.asList(
+                new ServiceEndpoint("10.0.0.1", 8080, "ads", Arrays.asList("prod", "east"), 1, 5, null),
+                ServiceEndpoint.of("10.0.0.2", 8081));
+        final LookupSnapshot written = new LookupSnapshot(vertx, file, 60_000, 60_000, 16);
+        written.record("discovery:consul:///ads", endpoints);
+        written.write();
+
+        final LookupSnapshot read = new LookupSnapshot(vertx, file, 60_000, 60_000, 16);
+        assertEquals(endpoints, read.bootstrap("discovery:consul:///ads"));
+        assertNull(read.bootstrap("discovery:consul:///bogus"));
+        assertEquals(1, directory.toFile().listFiles().length);
+    }
+
+    @Test
+    public void testLiveResultsReplaceLoadedResults() throws Exception {
+        final LookupSnapshot written = new LookupSnapshot(vertx, file, 60_000, 60_000, 16);
+        written.record("discovery:consul:///ads", Collections.singletonList(ServiceEndpoint.of("10.0.0.1", 1)));
+        written.write();
+
+        final LookupSnapshot read = new LookupSnapshot(vertx, file, 60_000, 60_000, 16);
+        read.record("discovery:consul:///ads", Collections.singletonList(ServiceEndpoint.of("10.0.0.1", 2)));
+        assertNull(read.bootstrap("discovery:consul:///ads"));
+        read.close();
+        assertEquals(2, LookupSnapshot.read(file, 0).get("discovery:consul:///ads").results().get(0).port());
+    }
+
+    @Test
+    public void testSkipsOldResults() throws Exception {
+        final LookupSnapshot written = new LookupSnapshot(vertx, file, 60_000, 60_000, 16);
+        written.record("discovery:consul:///ads", Collections.singletonList(ServiceEndpoint.of("10.0.0.1", 1)));
+        written.write();
+        assertTrue(LookupSnapshot.read(file, System.currentTimeMillis() + 1).isEmpty());
+    }
+
+    @Test
+    public void testMaxEntries() {
+        final LookupSnapshot snapshot = new LookupSnapshot(vertx, file, 60_000, 60_000, 1);
+        snapshot.record("a", Collections.emptyList());
+        snapshot.record("b", Collections.emptyList());
+        snapshot.record("a", Collections.emptyList());
+        assertEquals(1, snapshot.size());
+    }
+
+    @Test
+    public void testIgnoresCorruptFile() throws Exception {
+        final byte[] garbage = "not a snapshot".getBytes(StandardCharsets.UTF_8);
+        Files.write(file, garbage);
+        assertTrue(LookupSnapshot.read(file, 0).isEmpty());
+        Files.write(file, new byte[]{0x4c, 0x4b, 0x53, 0x31, 0, 0, 0, 9});
+        assertTrue(LookupSnapshot.read(file, 0).isEmpty());
+    }
+
+    @Test
+    public void testMissingFile() {
+        assertTrue(LookupSnapshot.read(file, 0).isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testConfigNeedsPath() {
+        LookupSnapshot.fromConfig(vertx, URI.create("snapshot:///?interval=1000"));
+    }
+}
@@ -0,0 +1,90 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.utils.Lookups;
+import io.advantageous.reakt.exception.RejectedPromiseException;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LookupsTest {
+
+    @Test
+    public void testResultsInKeyOrder() {
+        final Map<String, Integer> results = Lookups.<String, Integer>all(Arrays.asList("ccc", "a", "bb"),
+                key -> invokablePromise(promise -> promise.resolve(key.length())), 2)
+                .blockingGet(Duration.ofSeconds(10));
+        assertEquals(Arrays.asList("ccc", "a", "bb"), new ArrayList<>(results.keySet()));
+        assertEquals(Integer.valueOf(3), results.get("ccc"));
+        assertEquals(Integer.valueOf(2), results.get("bb"));
+    }
+
+    @Test
+    public void testDuplicateKeysLookedUpOnce() {
+        final AtomicInteger calls = new AtomicInteger();
+        final Map<String, String> results = Lookups.<String, String>all(Arrays.asList("a", "b", "a"),
+                key -> invokablePromise(promise -> {
+                    calls.incrementAndGet();
+                    promise.resolve(key);
+                }), 16).blockingGet(Duration.ofSeconds(10));
+        assertEquals(2, results.size());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testBoundedConcurrency() {
+        final ScheduledExecutorService executor = Executors.newScheduledThreadPool(4);
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 10; i++) keys.add(i);
+
+        try {
+            final Map<Integer, Integer> results = Lookups.<Integer, Integer>all(keys,
+                    key -> invokablePromise(promise -> {
+                        maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+                        executor.schedule(() -> {
+                            inFlight.decrementAndGet();
+                            promise.resolve(key);
+                        }, 10, TimeUnit.MILLISECONDS);
+                    }), 3).blockingGet(Duration.ofSeconds(10));
+
+            assertEquals(10, results.size());
+            assertTrue(maxInFlight.get() <= 3);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testEmptyKeys() {
+        assertTrue(Lookups.<String, String>all(Collections.emptyList(),
+                key -> invokablePromise(promise -> promise.resolve(key)), 1)
+                .blockingGet(Duration.ofSeconds(10)).isEmpty());
+    }
+
+    @Test(expected = RejectedPromiseException.class)
+    public void testRejectedOnFirstFailure() {
+        Lookups.all(Arrays.asList("a", "b"), key -> invokablePromise(promise -> {
+            if ("b".equals(key)) promise.reject("failed " + key);
+            else promise.resolve(key);
+        }), 16).blockingGet(Duration.ofSeconds(10));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMaxConcurrencyMustBePositive() {
+        Lookups.all(Collections.singletonList("a"), key -> invokablePromise(promise -> promise.resolve(key)), 0);
+    }
+}
@@ -0,0 +1,102 @@
+package io.advantageous.discovery.impl;
+
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NameserverStatsTest {
+
+    private static final URI FIRST = URI.create("//10.0.0.1:53");
+    private static final URI SECOND = URI.create("//10.0.0.2:53");
+
+    @Test
+    public void testUnmeasuredKeepConfiguredOrder() {
+        NameserverStats stats = new NameserverStats(95, 50, 5);
+        assertEquals(Arrays.asList(FIRST, SECOND), stats.rank(Arrays.asList(FIRST, SECOND)));
+    }
+
+    @Test
+    public void testRanksFasterServerFirst() {
+        NameserverStats stats = new NameserverStats(95, 50, 5);
+        stats.success(FIRST, 200);
+        stats.success(SECOND, 10);
+        List<URI> ranked = stats.rank(Arrays.asList(FIRST, SECOND));
+        assertEquals(SECOND, ranked.get(0));
+    }
+
+    @Test
+    public void testRanksFailingServerLast() {
+        NameserverStats stats = new NameserverStats(95, 50, 5);
+        stats.failure(FIRST, 5);
+        stats.success(SECOND, 100);
+        assertEquals(SECOND, stats.rank(Arrays.asList(FIRST, SECOND)).get(0));
+    }
+
+    @Test
+    public void testFailingServerIsProbedAgainOnceItsStatsFade() throws Exception {
+        NameserverStats stats = new NameserverStats(95, 50, 5, 10);
+        stats.failure(FIRST, 5);
+        stats.success(SECOND, 100);
+        assertEquals(SECOND, stats.rank(Arrays.asList(FIRST, SECOND)).get(0));
+        Thread.sleep(150);
+        stats.success(SECOND, 100);
+        assertEquals(FIRST, stats.rank(Arrays.asList(FIRST, SECOND)).get(0));
+        /* One lookup probes it, the next ones go back to the healthy server until it answers. */
+        assertEquals(SECOND, stats.rank(Arrays.asList(FIRST, SECOND)).get(0));
+    }
+
+    @Test
+    public void testIdleSlowServerDoesNotOutrankBusyFastOne() throws Exception {
+        NameserverStats stats = new NameserverStats(95, 50, 5, 100);
+        stats.success(FIRST, 20);
+        stats.success(SECOND, 10);
+        Thread.sleep(200);
+        stats.success(SECOND, 10);
+        assertEquals(SECOND, stats.rank(Arrays.asList(FIRST, SECOND)).get(0));
+        assertTrue(stats.score(FIRST) > stats.score(SECOND));
+        assertTrue(stats.score(FIRST) < 20);
+    }
+
+    @Test
+    public void testSampleAfterIdleReplacesHistory() throws Exception {
+        NameserverStats stats = new NameserverStats(95, 50, 5, 10);
+        stats.success(FIRST, 1000);
+        Thread.sleep(150);
+        stats.success(FIRST, 10);
+        assertTrue(stats.score(FIRST) < 20);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadHalfLife() {
+        new NameserverStats(95, 50, 5, 0);
+    }
+
+    @Test
+    public void testHedgeDelayUsesPercentile() {
+        NameserverStats stats = new NameserverStats(50, 50, 5);
+        assertEquals(50, stats.hedgeDelayMs());
+        for (int i = 1; i <= 16; i++) {
+            stats.success(FIRST, i * 10);
+        }
+        assertEquals(80, stats.hedgeDelayMs());
+    }
+
+    @Test
+    public void testHedgeDelayHasFloor() {
+        NameserverStats stats = new NameserverStats(95, 50, 5);
+        for (int i = 0; i < 16; i++) {
+            stats.success(FIRST, 0);
+        }
+        assertEquals(5, stats.hedgeDelayMs());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadPercentile() {
+        new NameserverStats(0, 50, 5);
+    }
+}
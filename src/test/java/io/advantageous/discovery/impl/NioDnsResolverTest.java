@@ -0,0 +1,198 @@
+package io.advantageous.discovery.impl;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Vertx;
+import io.vertx.core.dns.DnsException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class NioDnsResolverTest {
+
+    private Vertx vertx;
+    private DnsStubServer server;
+    private NioDnsResolver resolver;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        server = new DnsStubServer()
+                .addA("web.service.consul", "10.0.0.1")
+                .addA("web.service.consul", "10.0.0.2")
+                .addSrv("_web._tcp.service.consul", 1, 10, 8080, "node1.node.consul");
+        resolver = new NioDnsResolver(vertx, 2_000, 128);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        resolver.close();
+        server.close();
+        vertx.close();
+    }
+
+    private AsyncResult<List<DnsMessage.Record>> query(final URI nameserver, final String name, final int type)
+            throws Exception {
+        final CompletableFuture<AsyncResult<List<DnsMessage.Record>>> future = new CompletableFuture<>();
+        resolver.query(nameserver, name, type, future::complete);
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testResolveAIsCachedForTtl() throws Exception {
+        AsyncResult<List<DnsMessage.Record>> result = query(server.uri(), "web.service.consul", DnsMessage.TYPE_A);
+        assertTrue(result.succeeded());
+        assertEquals(2, result.result().size());
+        assertEquals("10.0.0.1", result.result().get(0).address());
+
+        result = query(server.uri(), "web.service.consul", DnsMessage.TYPE_A);
+        assertEquals(2, result.result().size());
+        assertEquals(1, server.udpQueries());
+    }
+
+    @Test
+    public void testZeroTtlIsNotCached() throws Exception {
+        server.ttl(0);
+        query(server.uri(), "web.service.consul", DnsMessage.TYPE_A);
+        query(server.uri(), "web.service.consul", DnsMessage.TYPE_A);
+        assertEquals(2, server.udpQueries());
+    }
+
+    @Test
+    public void testResolveSrv() throws Exception {
+        AsyncResult<List<DnsMessage.Record>> result = query(server.uri(), "_web._tcp.service.consul",
+                DnsMessage.TYPE_SRV);
+        assertTrue(result.succeeded());
+        DnsMessage.Record srv = result.result().get(0);
+        assertEquals("node1.node.consul", srv.target());
+        assertEquals(8080, srv.port());
+        assertEquals(1, srv.priority());
+        assertEquals(10, srv.weight());
+        assertEquals("service.consul", srv.serviceName());
+    }
+
+    @Test
+    public void testNegativeAnswerIsCached() throws Exception {
+        AsyncResult<List<DnsMessage.Record>> result = query(server.uri(), "bogus.consul", DnsMessage.TYPE_A);
+        assertTrue(result.failed());
+        assertTrue(result.cause() instanceof DnsException);
+        result = query(server.uri(), "bogus.consul", DnsMessage.TYPE_A);
+        assertTrue(result.failed());
+        assertEquals(1, server.udpQueries());
+    }
+
+    @Test
+    public void testTruncatedFallsBackToTcp() throws Exception {
+        server.truncateUdp(true);
+        AsyncResult<List<DnsMessage.Record>> result = query(server.uri(), "web.service.consul", DnsMessage.TYPE_A);
+        assertTrue(result.succeeded());
+        assertEquals(2, result.result().size());
+        assertEquals(1, server.tcpQueries());
+    }
+
+    @Test
+    public void testTcpRetryGetsWhatIsLeftOfTheTimeout() throws Exception {
+        server.truncateUdp(true).delay(300, 300);
+        final CompletableFuture<AsyncResult<List<DnsMessage.Record>>> future = new CompletableFuture<>();
+        final long start = System.nanoTime();
+        resolver.query(server.uri(), "web.service.consul", DnsMessage.TYPE_A, 450, future::complete);
+        AsyncResult<List<DnsMessage.Record>> result = future.get(10, TimeUnit.SECONDS);
+        assertTrue(result.failed());
+        assertTrue(result.cause() instanceof TimeoutException);
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(550));
+    }
+
+    @Test
+    public void testMultiplexesConcurrentQueries() throws Exception {
+        for (int i = 0; i < 50; i++) {
+            server.addA("host" + i + ".consul", "10.0.1." + i);
+        }
+        final List<CompletableFuture<AsyncResult<List<DnsMessage.Record>>>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            final CompletableFuture<AsyncResult<List<DnsMessage.Record>>> future = new CompletableFuture<>();
+            resolver.query(server.uri(), "host" + i + ".consul", DnsMessage.TYPE_A, future::complete);
+            futures.add(future);
+        }
+        for (int i = 0; i < 50; i++) {
+            AsyncResult<List<DnsMessage.Record>> result = futures.get(i).get(10, TimeUnit.SECONDS);
+            assertTrue(result.succeeded());
+            assertEquals("10.0.1." + i, result.result().get(0).address());
+        }
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        try (DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            resolver.close();
+            resolver = new NioDnsResolver(vertx, 100, 128);
+            AsyncResult<List<DnsMessage.Record>> result = query(URI.create("//127.0.0.1:" + silent.getLocalPort()),
+                    "web.service.consul", DnsMessage.TYPE_A);
+            assertTrue(result.failed());
+            assertTrue(result.cause() instanceof TimeoutException);
+        }
+    }
+
+    @Test
+    public void testQueryTimeoutOverridesDefault() throws Exception {
+        try (DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            final CompletableFuture<AsyncResult<List<DnsMessage.Record>>> future = new CompletableFuture<>();
+            final long start = System.nanoTime();
+            resolver.query(URI.create("//127.0.0.1:" + silent.getLocalPort()), "web.service.consul",
+                    DnsMessage.TYPE_A, 100, future::complete);
+            assertTrue(future.get(10, TimeUnit.SECONDS).cause() instanceof TimeoutException);
+            assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(1_500));
+        }
+    }
+
+    @Test
+    public void testCloseFailsPending() throws Exception {
+        try (DatagramSocket silent = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            final CompletableFuture<AsyncResult<List<DnsMessage.Record>>> future = new CompletableFuture<>();
+            resolver.query(URI.create("//127.0.0.1:" + silent.getLocalPort()), "web.service.consul",
+                    DnsMessage.TYPE_A, future::complete);
+            resolver.close();
+            assertTrue(future.get(10, TimeUnit.SECONDS).failed());
+        }
+    }
+
+    @Test
+    public void testQueryIdsRunOutWithoutSpinning() {
+        final Map<Integer, Object> pending = new HashMap<>();
+        for (int id = 0; id < 0x10000; id++) pending.put(id, "busy");
+        assertEquals(-1, NioDnsResolver.reserveId(pending, "query"));
+
+        pending.remove(42);
+        final int id = NioDnsResolver.reserveId(pending, "query");
+        assertTrue(id == -1 || id == 42);
+    }
+
+    @Test
+    public void testFullCacheEvictsAFewAnswers() throws Exception {
+        resolver.close();
+        resolver = new NioDnsResolver(vertx, 2_000, 16);
+        for (int i = 0; i < 17; i++) {
+            /* The first answer expires first, so it is the one evicted. */
+            server.ttl(i == 0 ? 30 : 60);
+            server.addA("web" + i + ".service.consul", "10.0.1." + i);
+            assertTrue(query(server.uri(), "web" + i + ".service.consul", DnsMessage.TYPE_A).succeeded());
+        }
+        assertEquals(16, resolver.cacheSize());
+        for (int i = 1; i < 17; i++) query(server.uri(), "web" + i + ".service.consul", DnsMessage.TYPE_A);
+        assertEquals(17, server.udpQueries());
+        query(server.uri(), "web0.service.consul", DnsMessage.TYPE_A);
+        assertEquals(18, server.udpQueries());
+    }
+}
@@ -0,0 +1,45 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.reakt.promise.Promise;
+import io.advantageous.reakt.promise.Promises;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PendingLookupsTest {
+
+    @Test(expected = IllegalStateException.class)
+    public void testCloseRejectsPending() {
+        final PendingLookups pendingLookups = new PendingLookups();
+        final Promise<List<String>> promise = Promises.blockingPromise(Duration.ofSeconds(10));
+        assertTrue(pendingLookups.begin(promise.asHandler()));
+        assertEquals(1, pendingLookups.size());
+        pendingLookups.close();
+        assertEquals(0, pendingLookups.size());
+        promise.asHandler().get();
+    }
+
+    @Test
+    public void testResolveAfterCloseIsIgnored() {
+        final PendingLookups pendingLookups = new PendingLookups();
+        final Promise<List<String>> promise = Promises.blockingPromise(Duration.ofSeconds(10));
+        pendingLookups.begin(promise.asHandler());
+        pendingLookups.resolve(promise.asHandler(), Collections.singletonList("first"));
+        pendingLookups.close();
+        pendingLookups.resolve(promise.asHandler(), Collections.singletonList("second"));
+        assertEquals("first", promise.asHandler().get().get(0));
+    }
+
+    @Test
+    public void testBeginAfterClose() {
+        final PendingLookups pendingLookups = new PendingLookups();
+        pendingLookups.close();
+        final Promise<List<String>> promise = Promises.blockingPromise(Duration.ofSeconds(10));
+        assertFalse(pendingLookups.begin(promise.asHandler()));
+        assertTrue(pendingLookups.isClosed());
+    }
+}
@@ -0,0 +1,120 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.reakt.promise.Promise;
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ProviderRegistryTest {
+
+    private Vertx vertx;
+    private ProviderRegistry registry;
+
+    @Before
+    public void setUp() {
+        vertx = Vertx.vertx();
+        registry = new ProviderRegistry(vertx, 60_000);
+    }
+
+    @After
+    public void tearDown() {
+        registry.close();
+        vertx.close();
+    }
+
+    @Test
+    public void testAdd() {
+        final TestProvider first = new TestProvider();
+        assertTrue(registry.add("test", first));
+        assertFalse(registry.add("test", new TestProvider()));
+        assertSame(first, registry.get("test"));
+    }
+
+    @Test
+    public void testReplaceClosesIdleProvider() {
+        final TestProvider first = new TestProvider();
+        final TestProvider second = new TestProvider();
+        registry.replace("test", first);
+        registry.replace("test", second);
+        assertEquals(0, first.closed.getCount());
+        assertSame(second, registry.get("test"));
+    }
+
+    @Test
+    public void testReplaceDrainsInFlightLookups() {
+        final TestProvider first = new TestProvider();
+        final TestProvider second = new TestProvider();
+        registry.replace("test", first);
+        final ProviderRegistry.Provider acquired = registry.acquire("test");
+        assertSame(first, acquired.service());
+
+        registry.replace("test", second);
+        assertEquals(1, first.closed.getCount());
+        assertSame(second, registry.acquire("test").service());
+
+        acquired.release();
+        assertEquals(0, first.closed.getCount());
+    }
+
+    @Test
+    public void testRemove() {
+        final TestProvider first = new TestProvider();
+        registry.replace("test", first);
+        assertTrue(registry.remove("test"));
+        assertFalse(registry.remove("test"));
+        assertFalse(registry.contains("test"));
+        assertNull(registry.acquire("test"));
+        assertEquals(0, first.closed.getCount());
+    }
+
+    @Test
+    public void testDrainTimeout() throws Exception {
+        final ProviderRegistry draining = new ProviderRegistry(vertx, 10);
+        final TestProvider first = new TestProvider();
+        draining.replace("test", first);
+        draining.acquire("test");
+        draining.remove("test");
+        assertTrue(first.closed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testCloseClosesEveryProvider() {
+        final TestProvider first = new TestProvider();
+        final TestProvider second = new TestProvider();
+        registry.replace("a", first);
+        registry.replace("b", second);
+        registry.acquire("a");
+        registry.close();
+        assertEquals(0, first.closed.getCount());
+        assertEquals(0, second.closed.getCount());
+        assertTrue(registry.services().isEmpty());
+    }
+
+    private static final class TestProvider implements DiscoveryService {
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public Promise<List<URI>> lookupService(final URI query) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            closed.countDown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryQuery;
+import io.advantageous.discovery.ServiceEndpoint;
+import io.vertx.core.Vertx;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryRefresherTest {
+
+    @Test
+    public void testIntervalShrinksWhileChanging() {
+        assertEquals(500, QueryRefresher.nextInterval(1_000, true, 100, 60_000));
+        assertEquals(100, QueryRefresher.nextInterval(150, true, 100, 60_000));
+    }
+
+    @Test
+    public void testIntervalGrowsWhileStable() {
+        assertEquals(2_000, QueryRefresher.nextInterval(1_000, false, 100, 60_000));
+        assertEquals(60_000, QueryRefresher.nextInterval(40_000, false, 100, 60_000));
+    }
+
+    @Test
+    public void testJitter() {
+        assertEquals(800, QueryRefresher.jittered(1_000, 0.2, 0));
+        assertEquals(1_000, QueryRefresher.jittered(1_000, 0.2, 0.5));
+        assertTrue(QueryRefresher.jittered(1_000, 0.2, 0.999_999) <= 1_200);
+        assertEquals(1_000, QueryRefresher.jittered(1_000, 0, 0.9));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBadIntervals() {
+        QueryRefresher.fromConfig(null, URI.create("refresh:///?minInterval=5000&maxInterval=1000"));
+    }
+
+    @Test
+    public void testRefreshesInBackground() throws Exception {
+        final Vertx vertx = Vertx.vertx();
+        try {
+            final QueryRefresher refresher = new QueryRefresher(vertx, 10, 10, 0);
+            final AtomicInteger calls = new AtomicInteger();
+            final DiscoveryQuery query = DiscoveryQuery.compile("discovery:test:///service");
+            final List<ServiceEndpoint> first = refresher.register(query, () -> invokablePromise(promise ->
+                    promise.resolve(Collections.singletonList(ServiceEndpoint.of("host", calls.incrementAndGet())))))
+                    .blockingGet(Duration.ofSeconds(10));
+            assertEquals(1, first.get(0).port());
+            Thread.sleep(200);
+            assertTrue(calls.get() > 2);
+            assertEquals(calls.get(), refresher.get(query.key()).get(0).port(), 1);
+            refresher.close();
+            assertNull(refresher.get(query.key()));
+        } finally {
+            vertx.close();
+        }
+    }
+}
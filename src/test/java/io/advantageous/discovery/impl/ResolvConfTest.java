@@ -0,0 +1,143 @@
+package io.advantageous.discovery.impl;
+
+import io.vertx.core.Vertx;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ResolvConfTest {
+
+    private Vertx vertx;
+    private DnsStubServer server;
+    private Path directory;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        vertx = Vertx.vertx();
+        server = new DnsStubServer()
+                .addA("ads.prod.svc.cluster.local", "10.0.0.1")
+                .addA("ads.svc.cluster.local", "10.0.0.2");
+        directory = Files.createTempDirectory("lokate-resolv");
+        file = directory.resolve("resolv.conf");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        vertx.close();
+        try (java.util.stream.Stream<Path> children = Files.list(directory)) {
+            for (final Path child : (Iterable<Path>) children::iterator) Files.delete(child);
+        }
+        Files.delete(directory);
+    }
+
+    private void write(final String text) throws Exception {
+        final Path temp = directory.resolve("resolv.conf.tmp");
+        Files.write(temp, text.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private String nameserver(final DnsStubServer stub) {
+        return "nameserver 127.0.0.1:" + stub.uri().getPort() + "\n";
+    }
+
+    @Test
+    public void testParse() {
+        final ResolvConf conf = ResolvConf.parse("# generated\n"
+                + "nameserver 10.0.0.10\n"
+                + "nameserver 127.0.0.1:8600\n"
+                + "nameserver ::1\n"
+                + "domain example.com\n"
+                + "search prod.svc.cluster.local svc.cluster.local. cluster.local\n"
+                + "options ndots:5 timeout:2\n"
+                + "options attempts:3 rotate edns0\n");
+        assertEquals(Arrays.asList(URI.create("dns://10.0.0.10:53"), URI.create("dns://127.0.0.1:8600"),
+                URI.create("dns://[::1]:53")), conf.nameservers());
+        assertEquals(Arrays.asList("prod.svc.cluster.local", "svc.cluster.local", "cluster.local"), conf.search());
+        assertEquals(5, conf.ndots());
+        assertEquals(2_000, conf.timeoutMs());
+        assertEquals(3, conf.attempts());
+        assertTrue(conf.rotate());
+    }
+
+    @Test
+    public void testDefaultsAndCaps() {
+        final ResolvConf defaults = ResolvConf.parse("nameserver 10.0.0.10\n");
+        assertEquals(ResolvConf.DEFAULT_NDOTS, defaults.ndots());
+        assertEquals(ResolvConf.DEFAULT_TIMEOUT_MS, defaults.timeoutMs());
+        assertEquals(ResolvConf.DEFAULT_ATTEMPTS, defaults.attempts());
+        assertFalse(defaults.rotate());
+
+        final ResolvConf capped = ResolvConf.parse("options ndots:99 timeout:0 attempts:99\n");
+        assertEquals(15, capped.ndots());
+        assertEquals(1_000, capped.timeoutMs());
+        assertEquals(5, capped.attempts());
+    }
+
+    @Test
+    public void testMissingFileIsEmpty() {
+        assertEquals(ResolvConf.EMPTY, ResolvConf.read(directory.resolve("missing.conf")));
+    }
+
+    @Test
+    public void testCandidates() {
+        final ResolvConf conf = ResolvConf.parse("search prod.svc.cluster.local svc.cluster.local\noptions ndots:2\n");
+        assertEquals(Arrays.asList("ads.prod.svc.cluster.local", "ads.svc.cluster.local", "ads"),
+                conf.candidates("ads"));
+        assertEquals(Arrays.asList("ads.service.consul", "ads.service.consul.prod.svc.cluster.local",
+                "ads.service.consul.svc.cluster.local"), conf.candidates("ads.service.consul"));
+        assertEquals(Collections.singletonList("ads.service.consul"), conf.candidates("ads.service.consul."));
+        assertEquals(Collections.singletonList("ads"), ResolvConf.EMPTY.candidates("ads"));
+    }
+
+    @Test
+    public void testSearchPrefersEarlierDomains() throws Exception {
+        write(nameserver(server) + "search prod.svc.cluster.local svc.cluster.local\noptions ndots:5\n");
+        final DnsDiscoveryService service = new DnsDiscoveryService(vertx,
+                URI.create("dns://CONFIG?resolvConf=" + file));
+        final List<URI> results = service.lookupService(URI.create("dns:A:///ads?port=8080"))
+                .blockingGet(Duration.ofSeconds(10));
+        assertEquals(1, results.size());
+        assertEquals("10.0.0.1", results.get(0).getHost());
+        service.close();
+    }
+
+    @Test
+    public void testReloadOnChange() throws Exception {
+        final DnsStubServer other = new DnsStubServer().addA("ads.svc.cluster.local", "10.0.0.3");
+        try {
+            write(nameserver(server) + "search svc.cluster.local\n");
+            final DnsDiscoveryService service = new DnsDiscoveryService(vertx,
+                    URI.create("dns://CONFIG?watchResolvConf=true&resolvConf=" + file));
+            assertEquals("10.0.0.2", service.lookupService(URI.create("dns:A:///ads?port=8080"))
+                    .blockingGet(Duration.ofSeconds(10)).get(0).getHost());
+
+            write(nameserver(other) + "search svc.cluster.local\n");
+            final long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+            while (other.udpQueries() == 0 && System.nanoTime() < deadline) {
+                Thread.sleep(50);
+                service.lookupService(URI.create("dns:A:///ads.svc.cluster.local.?port=8080"))
+                        .blockingGet(Duration.ofSeconds(10));
+            }
+            assertTrue(other.udpQueries() > 0);
+            service.close();
+        } finally {
+            other.close();
+        }
+    }
+}
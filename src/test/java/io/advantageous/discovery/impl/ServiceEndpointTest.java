@@ -0,0 +1,84 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.ServiceEndpoint;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ServiceEndpointTest {
+
+    @Test
+    public void testToURI() {
+        assertEquals(URI.create("service://10.0.0.1:8080"), ServiceEndpoint.of("10.0.0.1", 8080).toURI());
+        assertEquals(URI.create("service://10.0.0.1:8080?tags=a,b"),
+                new ServiceEndpoint("10.0.0.1", 8080, null, Arrays.asList("a", "b"), 0, 1, null).toURI());
+        assertEquals(URI.create("service://web.node.consul:8080/web.service.consul?priority=1&weight=10"),
+                new ServiceEndpoint("web.node.consul", 8080, "web.service.consul", null, 1, 10, null).toURI());
+        assertEquals(URI.create("service://10.0.0.1:8080?zone=us+east"),
+                new ServiceEndpoint("10.0.0.1", 8080, null, null, 0, 1,
+                        Collections.singletonMap("zone", "us east")).toURI());
+    }
+
+    @Test
+    public void testToURIIsBuiltOnce() {
+        final ServiceEndpoint endpoint = ServiceEndpoint.of("10.0.0.1", 8080);
+        assertSame(endpoint.toURI(), endpoint.toURI());
+    }
+
+    @Test
+    public void testFromURI() {
+        final URI uri = URI.create("service://10.0.0.1:8080/web?tags=a,b&priority=2&weight=5&zone=east");
+        final ServiceEndpoint endpoint = ServiceEndpoint.fromURI(uri);
+        assertEquals("10.0.0.1", endpoint.host());
+        assertEquals(8080, endpoint.port());
+        assertEquals("web", endpoint.name());
+        assertEquals(Arrays.asList("a", "b"), endpoint.tags());
+        assertEquals(2, endpoint.priority());
+        assertEquals(5, endpoint.weight());
+        assertEquals("east", endpoint.metadata().get("zone"));
+        assertSame(uri, endpoint.toURI());
+    }
+
+    @Test
+    public void testFromURIDefaults() {
+        final ServiceEndpoint endpoint = ServiceEndpoint.fromURI(URI.create("http://foo.com:9090"));
+        assertNull(endpoint.name());
+        assertTrue(endpoint.tags().isEmpty());
+        assertEquals(ServiceEndpoint.DEFAULT_PRIORITY, endpoint.priority());
+        assertEquals(ServiceEndpoint.DEFAULT_WEIGHT, endpoint.weight());
+        assertTrue(endpoint.metadata().isEmpty());
+    }
+
+    @Test
+    public void testHostsAndTagsAreShared() {
+        final ServiceEndpoint first = new ServiceEndpoint(new String("10.0.0.1"), 8080, null,
+                Arrays.asList(new String("a"), new String("b")), 0, 1, null);
+        final ServiceEndpoint second = new ServiceEndpoint(new String("10.0.0.1"), 8081, null,
+                Arrays.asList(new String("a"), new String("b")), 0, 1, null);
+        assertSame(first.host(), second.host());
+        assertSame(first.tags(), second.tags());
+    }
+
+    @Test
+    public void testUriFormat() {
+        final ServiceEndpoint endpoint = new ServiceEndpoint("10.0.0.1", 8080, null, null, 0, 1, null,
+                e -> "service://" + e.host() + ":" + e.port() + "/");
+        assertEquals(URI.create("service://10.0.0.1:8080/"), endpoint.toURI());
+        assertEquals(ServiceEndpoint.of("10.0.0.1", 8080), endpoint);
+    }
+
+    @Test
+    public void testEquality() {
+        assertEquals(ServiceEndpoint.of("10.0.0.1", 8080),
+                ServiceEndpoint.fromURI(URI.create("service://10.0.0.1:8080")));
+        assertEquals(ServiceEndpoint.of("10.0.0.1", 8080).hashCode(),
+                ServiceEndpoint.fromURI(URI.create("service://10.0.0.1:8080")).hashCode());
+    }
+}
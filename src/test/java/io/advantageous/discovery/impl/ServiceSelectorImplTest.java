@@ -0,0 +1,112 @@
+package io.advantageous.discovery.impl;
+
+import io.advantageous.discovery.DiscoveryService;
+import io.advantageous.discovery.ServiceSelector;
+import org.junit.Test;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static io.advantageous.reakt.promise.Promises.invokablePromise;
+import static org.junit.Assert.*;
+
+public class ServiceSelectorImplTest {
+
+    private static final URI QUERY = URI.create("discovery:test:///service");
+    private static final URI A = URI.create("service://a:80/");
+    private static final URI B = URI.create("service://b:80/");
+    private static final URI C = URI.create("service://c:80/");
+
+    private static ServiceSelectorImpl selector(final ServiceSelector.Strategy strategy, final List<URI> endpoints) {
+        final DiscoveryService discoveryService = query -> invokablePromise(promise -> promise.resolve(endpoints));
+        return new ServiceSelectorImpl(discoveryService, QUERY, strategy, Duration.ofHours(1));
+    }
+
+    @Test
+    public void testEmpty() {
+        ServiceSelectorImpl selector = selector(ServiceSelector.Strategy.ROUND_ROBIN, Arrays.asList(A, B));
+        selector.update(Arrays.asList());
+        assertNull(selector.select());
+        selector.close();
+    }
+
+    @Test
+    public void testRefresh() {
+        ServiceSelectorImpl selector = selector(ServiceSelector.Strategy.ROUND_ROBIN, Arrays.asList(A, B));
+        List<URI> endpoints = selector.refresh().blockingGet(Duration.ofSeconds(10));
+        assertEquals(2, endpoints.size());
+        assertEquals(Arrays.asList(A, B), selector.endpoints());
+        selector.close();
+    }
+
+    @Test
+    public void testRoundRobin() {
+        ServiceSelectorImpl selector = selector(ServiceSelector.Strategy.ROUND_ROBIN, Arrays.asList(A, B, C));
+        selector.update(Arrays.asList(A, B, C));
+        assertEquals(A, selector.select().uri());
+        assertEquals(B, selector.select().uri());
+        assertEquals(C, selector.select().uri());
+        assertEquals(A, selector.select().uri());
+        selector.close();
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesAvoidsBusyEndpoint() {
+        ServiceSelectorImpl selector = selector(ServiceSelector.Strategy.POWER_OF_TWO_CHOICES, Arrays.asList(A, B));
+        selector.update(Arrays.asList(A, B));
+        ServiceSelector.Endpoint first = selector.select();
+        for (int i = 0; i < 10; i++) {
+            ServiceSelector.Endpoint endpoint = selector.select();
+            assertNotEquals(first.uri(), endpoint.uri());
+            endpoint.release();
+        }
+        assertEquals(1, first.inFlight());
+        first.release();
+        assertEquals(0, first.inFlight());
+        selector.close();
+    }
+
+    @Test
+    public void testInFlightSurvivesRefresh() {
+        ServiceSelectorImpl selector = selector(ServiceSelector.Strategy.ROUND_ROBIN, Arrays.asList(A, B));
+        selector.update(Arrays.asList(A));
+        assertEquals(A, selector.select().uri());
+        selector.update(Arrays.asList(A, B));
+        assertEquals(B, selector.select().uri());
+        ServiceSelector.Endpoint endpoint = selector.select();
+        assertEquals(A, endpoint.uri());
+        assertEquals(2, endpoint.inFlight());
+        selector.close();
+    }
+
+    @Test
+    public void testWeightedUsesLowestPriority() {
+        URI low = URI.create("service://low:80/svc?priority=1&weight=10");
+        URI high = URI.create("service://high:80/svc?priority=2&weight=100");
+        ServiceSelectorImpl selector = selector(ServiceSelector.Strategy.WEIGHTED, Arrays.asList(low, high));
+        selector.update(Arrays.asList(low, high));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(low, selector.select().uri());
+        }
+        selector.close();
+    }
+
+    @Test
+    public void testWeightedFollowsWeights() {
+        URI heavy = URI.create("service://heavy:80/svc?priority=1&weight=90");
+        URI light = URI.create("service://light:80/svc?priority=1&weight=10");
+        ServiceSelectorImpl selector = selector(ServiceSelector.Strategy.WEIGHTED, Arrays.asList(heavy, light));
+        selector.update(Arrays.asList(heavy, light));
+        Map<URI, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 10_000; i++) {
+            counts.merge(selector.select().uri(), 1, Integer::sum);
+        }
+        assertTrue(counts.get(heavy) > 8_000);
+        assertTrue(counts.get(light) > 500);
+        selector.close();
+    }
+}
@@ -6,6 +6,7 @@ import org.junit.Test;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URI;
 import java.util.Map;
 
 public class UriUtilsTest {
@@ -41,4 +42,48 @@ public class UriUtilsTest {
         Assert.assertEquals("gak", map.get("baz"));
     }
 
+    @Test
+    public void testSplitQueryWithFlag() throws Exception {
+        Map<String, String> map = UriUtils.splitQuery("name=eventbus&staging");
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("", map.get("staging"));
+    }
+
+
+    @Test
+    public void testSplitQueryEdgeCases() throws Exception {
+        Map<String, String> map = UriUtils.splitQuery("&a=b=c;;d=&");
+        Assert.assertEquals(2, map.size());
+        Assert.assertEquals("b=c", map.get("a"));
+        Assert.assertEquals("", map.get("d"));
+        Assert.assertTrue(UriUtils.splitQuery("").isEmpty());
+    }
+
+    @Test
+    public void testQueryParameterOfOpaqueUri() throws Exception {
+        Assert.assertEquals("80", UriUtils.queryParameter(URI.create("dns:A:///web?port=80&timeout=5"), "port"));
+        Assert.assertEquals("5", UriUtils.queryParameter(URI.create("dns:A:///web?port=80&timeout=5"), "timeout"));
+        Assert.assertNull(UriUtils.queryParameter(URI.create("consul:///ads"), "timeout"));
+    }
+
+    @Test
+    public void testRemoveQueryParameter() throws Exception {
+        Assert.assertEquals(URI.create("dns:A:///web?port=80"),
+                UriUtils.removeQueryParameter(URI.create("dns:A:///web?timeout=5&port=80"), "timeout"));
+        Assert.assertEquals(URI.create("consul:///ads"),
+                UriUtils.removeQueryParameter(URI.create("consul:///ads?timeout=5"), "timeout"));
+        Assert.assertEquals(URI.create("consul:///ads?tag=a&health=passing#x"),
+                UriUtils.removeQueryParameter(URI.create("consul:///ads?tag=a;timeout=5;health=passing#x"), "timeout"));
+        final URI unchanged = URI.create("consul:///ads?tag=a");
+        Assert.assertSame(unchanged, UriUtils.removeQueryParameter(unchanged, "timeout"));
+    }
+
+    @Test
+    public void testQueryOfCompositeUri() throws Exception {
+        final URI composite = URI.create("any:(consul:///ads?tag=a,dns:A:///ads?port=80)?hedgeDelay=50&timeout=250");
+        Assert.assertEquals("50", UriUtils.queryParameter(composite, "hedgeDelay"));
+        Assert.assertNull(UriUtils.queryParameter(composite, "tag"));
+        Assert.assertEquals(URI.create("any:(consul:///ads?tag=a,dns:A:///ads?port=80)?hedgeDelay=50"),
+                UriUtils.removeQueryParameter(composite, "timeout"));
+    }
 }